@@ -0,0 +1,142 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.Coercion;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+import com.aton.proj.libs.oneval.internals.Variable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// The values of the variables of an Evaluator, by slot (see
+// Evaluator.getVariableSlots()), to evaluate it without going through a Map.
+// Get one with Evaluator.newBindings(); it can be refilled and reused, but
+// it's NOT thread-safe.
+//
+// The values can be Strings or typed (numbers, booleans, ...), and are
+// converted according to the sigil of the variable: see Coercion. longs and
+// doubles are kept unboxed, and the conversions are kept until the value is
+// set again (so set it again after changing a mutable value).
+public final class Bindings {
+    // markers in values[] for the slots holding a long or a double in bits[]
+    private static final Object LONG = new Object();
+    private static final Object DOUBLE = new Object();
+
+    final String[] slots;
+    private final Object[] values;
+    private final long[] bits;
+    // the last conversion of each value, and the type it was converted to:
+    // the values left unchanged between evaluations aren't converted again
+    private final Operand[] operands;
+    private final ValuedItem.Type[] types;
+
+    Bindings(String[] slots) {
+        this.slots = slots;
+        this.values = new Object[slots.length];
+        this.bits = new long[slots.length];
+        this.operands = new Operand[slots.length];
+        this.types = new ValuedItem.Type[slots.length];
+    }
+
+    public Bindings set(int slot, Object value) {
+        values[slot] = value;
+        operands[slot] = null;
+        return this;
+    }
+
+    public Bindings set(int slot, long value) {
+        values[slot] = LONG;
+        bits[slot] = value;
+        operands[slot] = null;
+        return this;
+    }
+
+    public Bindings set(int slot, double value) {
+        values[slot] = DOUBLE;
+        bits[slot] = Double.doubleToRawLongBits(value);
+        operands[slot] = null;
+        return this;
+    }
+
+    public Bindings set(int slot, boolean value) {
+        values[slot] = value;
+        operands[slot] = null;
+        return this;
+    }
+
+    // Variables that the expression doesn't use are ignored, as they would
+    // be in a Map
+    public Bindings set(String name, Object value) {
+        int slot = slot(name);
+        if (slot >= 0)
+            set(slot, value);
+        return this;
+    }
+
+    public int slot(String name) {
+        for (int i = 0; i < slots.length; i++)
+            if (slots[i].equals(name))
+                return i;
+        return -1;
+    }
+
+    public Object get(int slot) {
+        Object ret = values[slot];
+        if (ret == LONG)
+            return bits[slot];
+        if (ret == DOUBLE)
+            return Double.longBitsToDouble(bits[slot]);
+        return ret;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(operands, null);
+    }
+
+    public List<String> getSlots() {
+        return Collections.unmodifiableList(Arrays.asList(slots));
+    }
+
+    Operand operand(Variable variable) {
+        int slot = variable.getSlot();
+        Operand ret = operands[slot];
+        if (ret != null && types[slot] == variable.getType())
+            return ret;
+        Object value = values[slot];
+        if (value == LONG)
+            ret = Coercion.fromLong(variable.getType(), bits[slot]);
+        else if (value == DOUBLE)
+            ret = Coercion.fromDouble(variable.getType(), Double.longBitsToDouble(bits[slot]));
+        else
+            ret = Coercion.toOperand(variable.getType(), value);
+        operands[slot] = ret;
+        types[slot] = variable.getType();
+        return ret;
+    }
+}
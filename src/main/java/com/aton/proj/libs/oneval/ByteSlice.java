@@ -0,0 +1,107 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Bytes of a ByteBuffer as a CharSequence, a char for each byte (as in
+// ISO-8859-1, and so in ASCII), read in place: given as the value of a
+// $variable, startsWith(), contains(), ==, len() and the other functions
+// that only look at the chars don't copy them at all (see
+// Operand.strOperand(CharSequence)). The bytes must not change until the
+// evaluation is over; its result is made a String if it's one of them.
+public final class ByteSlice implements CharSequence {
+    private final ByteBuffer buf;
+    private final int offset;
+    private final int length;
+    // the array of a heap buffer, read directly, and where the slice starts
+    // in it; null for a direct (e.g. mapped) buffer
+    private final byte[] array;
+    private final int base;
+
+    private ByteSlice(ByteBuffer buf, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > buf.limit() - length)
+            throw new IndexOutOfBoundsException("Slice " + offset + "+" + length + " of " + buf.limit() + " bytes");
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+        this.array = buf.hasArray() ? buf.array() : null;
+        this.base = array != null ? buf.arrayOffset() + offset : 0;
+    }
+
+    // The bytes from offset (absolute, not from the position of buf)
+    public static ByteSlice latin1(ByteBuffer buf, int offset, int length) {
+        return new ByteSlice(buf, offset, length);
+    }
+
+    // The bytes as UTF-8: a ByteSlice when they're all ASCII, as it's
+    // mostly the case, otherwise they're decoded to a String
+    public static CharSequence utf8(ByteBuffer buf, int offset, int length) {
+        ByteSlice ret = new ByteSlice(buf, offset, length);
+        for (int i = 0; i < length; i++)
+            if (ret.get(i) < 0)
+                return new String(ret.bytes(), StandardCharsets.UTF_8);
+        return ret;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new StringIndexOutOfBoundsException(index);
+        return (char) (get(index) & 0xFF);
+    }
+
+    private byte get(int index) {
+        return array != null ? array[base + index] : buf.get(offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new StringIndexOutOfBoundsException("begin " + start + ", end " + end + ", length " + length);
+        return new ByteSlice(buf, offset + start, end - start);
+    }
+
+    private byte[] bytes() {
+        if (array != null)
+            return Arrays.copyOfRange(array, base, base + length);
+        byte[] ret = new byte[length];
+        for (int i = 0; i < length; i++)
+            ret[i] = buf.get(offset + i);
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.batch.Column;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+// The values of the variables for a batch of rows, by column, to evaluate
+// them all at once with Evaluator.evaluateBatch(). The columns of primitives
+// can have a BitSet of the rows that are NULL; in the others, NULLs are
+// nulls. Variables without a column are NULL, as they would be if missing
+// from a Map.
+//
+// The arrays aren't copied, so they must not change during an evaluation;
+// a batch can then be evaluated by any number of threads and Evaluators.
+public final class ColumnBatch {
+    private final int size;
+    private final Map<String, Column> columns = new HashMap<>();
+
+    public ColumnBatch(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Negative batch size " + size);
+        this.size = size;
+    }
+
+    public ColumnBatch set(String name, long[] values) {
+        return set(name, values, null);
+    }
+
+    public ColumnBatch set(String name, long[] values, BitSet nulls) {
+        return put(name, values.length, new Column.OfLongs(values, nulls));
+    }
+
+    public ColumnBatch set(String name, double[] values) {
+        return set(name, values, null);
+    }
+
+    public ColumnBatch set(String name, double[] values, BitSet nulls) {
+        return put(name, values.length, new Column.OfDoubles(values, nulls));
+    }
+
+    public ColumnBatch set(String name, boolean[] values) {
+        return set(name, values, null);
+    }
+
+    public ColumnBatch set(String name, boolean[] values, BitSet nulls) {
+        return put(name, values.length, new Column.OfBooleans(values, nulls));
+    }
+
+    // Strings, or any value accepted in a Map (see Evaluator.evaluate(Map))
+    public ColumnBatch set(String name, Object[] values) {
+        return put(name, values.length, new Column.OfObjects(values));
+    }
+
+    private ColumnBatch put(String name, int length, Column column) {
+        if (length < size)
+            throw new IllegalArgumentException("Column " + name + " has " + length + " rows instead of " + size);
+        columns.put(name, column);
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    Column[] columns(String[] slots) {
+        Column[] ret = new Column[slots.length];
+        for (int i = 0; i < slots.length; i++)
+            ret[i] = columns.getOrDefault(slots[i], Column.NULLS);
+        return ret;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+// Options that can be passed to Evaluator.compile() to change how the
+// expression is compiled.
+public enum CompileOption {
+    // Evaluates all the operands of &&, ||, if and onNull, even the ones that
+    // can't change the result (by default they're skipped). Only useful to
+    // get the errors that the skipped operands would raise.
+    EAGER_EVALUATION,
+    // Compiles the expression to a tree of nodes, specialized on the types of
+    // the operands where they're known, instead of a program for the stack
+    // interpreter. Costs more to compile, but usually evaluates faster.
+    NODE_TREE,
+    // Compiles the expression to JVM bytecode, in a class generated on the
+    // fly. The most expensive to compile, and the fastest to evaluate once the
+    // JIT has kicked in; use Evaluator.compileAll() to put many expressions in
+    // a single class.
+    BYTECODE
+}
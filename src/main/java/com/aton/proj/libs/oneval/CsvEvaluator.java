@@ -0,0 +1,615 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.Coercion;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+import com.aton.proj.libs.oneval.internals.Variable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Evaluates expressions over the rows of a CSV (or TSV, ...) file, writing
+// their results as another CSV file, a line for each row. The input is
+// memory-mapped and split in parts of about setPartSize() bytes, at line
+// boundaries, that are evaluated in parallel on an Executor (by default, the
+// common ForkJoinPool); the results of each part are written, in order, once
+// it and the ones before it are done, with a bounded number of parts in
+// flight.
+//
+// The first line has the names of the columns, which are the names of the
+// variables. The value of a variable is the field of its column, read from
+// the mapped bytes only when the evaluation needs it (e.g. not behind a false
+// guard of an &&), and converted according to its sigil as a String would be
+// (see Coercion): NUMs and BOOLs without making a String, and STRINGs as a
+// ByteSlice of the file if it's UTF-8 or ISO-8859-1. The fields after
+// the last column used aren't even split. The empty fields, and the missing
+// ones at the end of a line, are NULL; the empty lines are skipped.
+//
+// Fields can be quoted with ", with "" for a " inside, but can't span lines,
+// as the file is split by lines. The charset must encode the ASCII
+// characters as single bytes, as UTF-8 (the default) and ISO-8859-* do.
+//
+// A row that fails makes the whole evaluation fail, with its line in the
+// message: EvalExceptions stay so, the others (e.g. a NUM that can't be
+// parsed) become IllegalArgumentExceptions.
+public final class CsvEvaluator {
+    private static final long DEFAULT_PART_SIZE = 16L << 20;
+    private static final long MAX_PART_SIZE = 1L << 30;
+    private static final int SCAN_SIZE = 64 * 1024;
+
+    private final String[] names;
+    private final Evaluator[] evaluators;
+    private byte delimiter = ',';
+    private Charset charset = StandardCharsets.UTF_8;
+    private Executor executor = ForkJoinPool.commonPool();
+    private long partSize = DEFAULT_PART_SIZE;
+    private int maxPartsInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    private boolean seeded;
+    private long seed;
+
+    // The columns of the output, by name, in iteration order
+    public CsvEvaluator(Map<String, Evaluator> columns) {
+        names = columns.keySet().toArray(new String[0]);
+        evaluators = columns.values().toArray(new Evaluator[0]);
+    }
+
+    // e.g. '\t' for TSV
+    public CsvEvaluator setDelimiter(char delimiter) {
+        if (delimiter >= 128 || delimiter == '"' || delimiter == '\n' || delimiter == '\r')
+            throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+        this.delimiter = (byte) delimiter;
+        return this;
+    }
+
+    public CsvEvaluator setCharset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    public CsvEvaluator setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public CsvEvaluator setPartSize(long partSize) {
+        if (partSize <= 0 || partSize > MAX_PART_SIZE)
+            throw new IllegalArgumentException("Part size must be positive and at most 1 GB, is " + partSize);
+        this.partSize = partSize;
+        return this;
+    }
+
+    public CsvEvaluator setMaxPartsInFlight(int maxPartsInFlight) {
+        if (maxPartsInFlight <= 0)
+            throw new IllegalArgumentException("Parts in flight must be positive, are " + maxPartsInFlight);
+        this.maxPartsInFlight = maxPartsInFlight;
+        return this;
+    }
+
+    // Each part draws the numbers of rand() from its own generator, seeded
+    // from the seed and the position of the part: the same file, seed and
+    // part size give the same output
+    public CsvEvaluator setRandomSeed(long seed) {
+        this.seeded = true;
+        this.seed = seed;
+        return this;
+    }
+
+    // The number of rows evaluated
+    public long evaluate(Path input, Path output) throws IOException, EvalException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return evaluate(in, out);
+        }
+    }
+
+    public long evaluate(FileChannel input, WritableByteChannel output) throws IOException, EvalException {
+        long size = input.size();
+        long headerEnd = lineEnd(input, 0, size);
+        String[] header = header(input.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd));
+        Map<String, Integer> columnIndex = new HashMap<>();
+        for (int i = 0; i < header.length; i++)
+            columnIndex.putIfAbsent(header[i], i);
+
+        // the column of each slot of each evaluator
+        int[][] columns = new int[evaluators.length][];
+        int lastUsed = -1;
+        for (int e = 0; e < evaluators.length; e++) {
+            List<String> slots = evaluators[e].getVariableSlots();
+            columns[e] = new int[slots.size()];
+            for (int s = 0; s < columns[e].length; s++) {
+                Integer column = columnIndex.get(slots.get(s));
+                if (column == null)
+                    throw new IllegalArgumentException("No column for variable " + slots.get(s));
+                columns[e][s] = column;
+                lastUsed = Math.max(lastUsed, column);
+            }
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0)
+                line.append((char) delimiter);
+            appendString(line, names[i]);
+        }
+        write(output, line.append('\n'));
+
+        AtomicBoolean failed = new AtomicBoolean();
+        Deque<CompletableFuture<Part>> inFlight = new ArrayDeque<>();
+        long lines = 1, rows = 0;
+        try {
+            for (long from = headerEnd, index = 0; from < size; index++) {
+                long to = from + partSize >= size ? size : lineEnd(input, from + partSize - 1, size);
+                Part part = new Part(input, from, to, columns, lastUsed, failed, index);
+                inFlight.add(CompletableFuture.supplyAsync(part::run, executor));
+                from = to;
+                while (inFlight.size() >= maxPartsInFlight || (from >= size && !inFlight.isEmpty())) {
+                    Part done = join(inFlight.poll());
+                    if (done.failure != null)
+                        rethrow(done, lines);
+                    write(output, done.output);
+                    lines += done.lines;
+                    rows += done.rows;
+                }
+            }
+            return rows;
+        } finally {
+            // on a failure, the parts still in flight stop early; they are
+            // waited for, as they read the input that the caller may close
+            if (!inFlight.isEmpty()) {
+                failed.set(true);
+                for (CompletableFuture<Part> part : inFlight) {
+                    try {
+                        part.join();
+                    } catch (RuntimeException e) {
+                        // the first failure is the one thrown
+                    }
+                }
+            }
+        }
+    }
+
+    private static Part join(CompletableFuture<Part> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
+    }
+
+    private static void rethrow(Part part, long linesBefore) throws EvalException {
+        String prefix = "Line " + (linesBefore + part.lines) + ": ";
+        if (part.failure instanceof EvalException)
+            throw new EvalException(prefix + part.failure.getMessage());
+        throw new IllegalArgumentException(prefix + part.failure, part.failure);
+    }
+
+    // Where the line with the byte at pos ends, after its \n
+    private static long lineEnd(FileChannel input, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_SIZE);
+        while (pos < size) {
+            buf.clear();
+            int read = input.read(buf, pos);
+            if (read < 0)
+                break;
+            for (int i = 0; i < read; i++)
+                if (buf.get(i) == '\n')
+                    return pos + i + 1;
+            pos += read;
+        }
+        return size;
+    }
+
+    private String[] header(ByteBuffer buf) {
+        Row row = new Row(1);
+        List<String> ret = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int end = row.field(buf, pos, buf.limit(), 0);
+            ret.add(row.string(buf, 0));
+            if (end >= buf.limit() || buf.get(end) == '\n')
+                return ret.toArray(new String[0]);
+            pos = end + 1;
+        }
+    }
+
+    private void write(WritableByteChannel output, CharSequence text) throws IOException {
+        write(output, charset.encode(CharBuffer.wrap(text)));
+    }
+
+    // A channel may write less than asked, e.g. a socket or a pipe
+    private static void write(WritableByteChannel output, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            output.write(buf);
+    }
+
+    private void appendString(StringBuilder out, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"')
+                out.append('"');
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    // NUMs in plain notation, without exponent, as other tools expect
+    private void append(StringBuilder out, Operand result) {
+        switch (result.getType()) {
+            case STRING:
+                appendString(out, (String) result.getValue());
+                break;
+            case NUM:
+                if (result.isCompact())
+                    appendPlain(out, result.unscaled(), result.scale());
+                else
+                    out.append(((BigDecimal) result.getValue()).toPlainString());
+                break;
+            case BOOL:
+                out.append(result == Operand.TRUE);
+                break;
+            default:
+                // NULL is an empty field
+        }
+    }
+
+    // Same as BigDecimal.valueOf(unscaled, scale).toPlainString()
+    private static void appendPlain(StringBuilder out, long unscaled, int scale) {
+        if (scale <= 0) {
+            out.append(unscaled);
+            if (unscaled != 0)
+                for (int i = scale; i < 0; i++)
+                    out.append('0');
+            return;
+        }
+        if (unscaled < 0) {
+            out.append('-');
+            if (unscaled == Long.MIN_VALUE) {
+                out.append(BigDecimal.valueOf(unscaled, scale).negate().toPlainString());
+                return;
+            }
+            unscaled = -unscaled;
+        }
+        int start = out.length();
+        out.append(unscaled);
+        int digits = out.length() - start;
+        if (digits <= scale) {
+            StringBuilder zeros = new StringBuilder("0.");
+            for (int i = digits; i < scale; i++)
+                zeros.append('0');
+            out.insert(start, zeros);
+        } else {
+            out.insert(out.length() - scale, '.');
+        }
+    }
+
+    // A range of lines of the input, evaluated on its own
+    private final class Part {
+        private final FileChannel input;
+        private final long from;
+        private final long to;
+        private final int[][] columns;
+        private final int lastUsed;
+        private final AtomicBoolean failed;
+        // the position of the part in the input
+        private final long index;
+        // the lines read, up to the failing one if any
+        long lines;
+        long rows;
+        ByteBuffer output;
+        Exception failure;
+
+        Part(FileChannel input, long from, long to, int[][] columns, int lastUsed, AtomicBoolean failed, long index) {
+            this.input = input;
+            this.from = from;
+            this.to = to;
+            this.columns = columns;
+            this.lastUsed = lastUsed;
+            this.failed = failed;
+            this.index = index;
+        }
+
+        Part run() {
+            if (failed.get())
+                return this;
+            ByteBuffer buf;
+            try {
+                buf = input.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Row row = new Row(lastUsed + 1);
+            EvaluationContext context = new EvaluationContext();
+            if (seeded)
+                context.setRandomSeed(EvaluationContext.derivedSeed(seed, index));
+            FieldFrame[] frames = new FieldFrame[evaluators.length];
+            for (int e = 0; e < frames.length; e++)
+                frames[e] = new FieldFrame(buf, row, columns[e], new Operand[evaluators[e].getVariableCount()]);
+            StringBuilder out = new StringBuilder((int) Math.min(1 << 20, to - from));
+
+            int limit = buf.limit();
+            for (int pos = 0; pos < limit; ) {
+                if ((++lines & 1023) == 0 && failed.get())
+                    return this;
+                int end;
+                if (buf.get(pos) == '\n' || buf.get(pos) == '\r' && (pos + 1 == limit || buf.get(pos + 1) == '\n')) {
+                    end = pos + (buf.get(pos) == '\r' ? 1 : 0);
+                } else {
+                    end = row.parse(buf, pos, limit);
+                    try {
+                        for (int e = 0; e < evaluators.length; e++) {
+                            if (e > 0)
+                                out.append((char) delimiter);
+                            append(out, evaluators[e].evaluate(frames[e].reset(), context));
+                        }
+                    } catch (EvalException | RuntimeException e) {
+                        failure = e;
+                        return this;
+                    }
+                    out.append('\n');
+                    rows++;
+                }
+                pos = end + 1;
+            }
+            output = charset.encode(CharBuffer.wrap(out));
+            return this;
+        }
+    }
+
+    // The fields of the line being evaluated, up to the last column used, as
+    // ranges of the mapped bytes
+    private final class Row {
+        private final int[] starts;
+        private final int[] ends;
+        // with "" inside, to unescape
+        private final boolean[] escaped;
+        private byte[] scratch = new byte[64];
+
+        Row(int columns) {
+            starts = new int[columns];
+            ends = new int[columns];
+            escaped = new boolean[columns];
+        }
+
+        // Reads the fields of the line at pos, returns where it ends (its \n,
+        // or limit)
+        int parse(ByteBuffer buf, int pos, int limit) {
+            Arrays.fill(starts, -1);
+            for (int column = 0; column < starts.length; column++) {
+                pos = field(buf, pos, limit, column);
+                if (pos >= limit || buf.get(pos) == '\n')
+                    return pos;
+                pos++;
+            }
+            while (pos < limit && buf.get(pos) != '\n')
+                pos++;
+            return pos;
+        }
+
+        // Reads the field at pos, returns where it ends (at the delimiter,
+        // \n or limit)
+        int field(ByteBuffer buf, int pos, int limit, int column) {
+            int start, end;
+            boolean escapes = false;
+            if (pos < limit && buf.get(pos) == '"') {
+                start = ++pos;
+                while (pos < limit) {
+                    byte b = buf.get(pos);
+                    if (b == '"') {
+                        if (pos + 1 < limit && buf.get(pos + 1) == '"') {
+                            escapes = true;
+                            pos += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    if (b == '\n')
+                        break;
+                    pos++;
+                }
+                end = pos;
+                while (pos < limit && buf.get(pos) != delimiter && buf.get(pos) != '\n')
+                    pos++;
+            } else {
+                start = pos;
+                while (pos < limit && buf.get(pos) != delimiter && buf.get(pos) != '\n')
+                    pos++;
+                end = pos;
+                if (end > start && buf.get(end - 1) == '\r' && (end == limit || buf.get(end) == '\n'))
+                    end--;
+            }
+            starts[column] = start;
+            ends[column] = end;
+            escaped[column] = escapes;
+            return pos;
+        }
+
+        boolean isNull(int column) {
+            return starts[column] < 0 || starts[column] == ends[column];
+        }
+
+        String string(ByteBuffer buf, int column) {
+            int start = starts[column], length = ends[column] - start;
+            if (scratch.length < length)
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            for (int i = 0; i < length; i++)
+                scratch[i] = buf.get(start + i);
+            String ret = new String(scratch, 0, length, charset);
+            return escaped[column] ? ret.replace("\"\"", "\"") : ret;
+        }
+
+        // The field in place, if the charset allows (see ByteSlice)
+        CharSequence chars(ByteBuffer buf, int column) {
+            int start = starts[column], length = ends[column] - start;
+            if (charset.equals(StandardCharsets.UTF_8))
+                return ByteSlice.utf8(buf, start, length);
+            if (charset.equals(StandardCharsets.ISO_8859_1))
+                return ByteSlice.latin1(buf, start, length);
+            return string(buf, column);
+        }
+
+        // Same as Operand.parseNumOperand(), on the bytes
+        Operand num(ByteBuffer buf, int column) {
+            int i = starts[column], end = ends[column];
+            boolean negative = false;
+            if (buf.get(i) == '-' || buf.get(i) == '+') {
+                negative = buf.get(i) == '-';
+                i++;
+            }
+            long unscaled = 0;
+            int digits = 0, scale = 0;
+            boolean point = false;
+            for (; i < end; i++) {
+                byte b = buf.get(i);
+                if (b >= '0' && b <= '9' && digits < 18) {
+                    unscaled = unscaled * 10 + (b - '0');
+                    digits++;
+                    if (point)
+                        scale++;
+                } else if (b == '.' && !point) {
+                    point = true;
+                } else {
+                    return Operand.parseNumOperand(string(buf, column));
+                }
+            }
+            if (digits == 0)
+                return Operand.parseNumOperand(string(buf, column));
+            return Operand.numOperand(negative ? -unscaled : unscaled, scale);
+        }
+
+        boolean isTrue(ByteBuffer buf, int column) {
+            int start = starts[column], length = ends[column] - start;
+            if (length == 1)
+                return buf.get(start) == '1';
+            if (length != 4)
+                return false;
+            return (buf.get(start) | 0x20) == 't' && (buf.get(start + 1) | 0x20) == 'r'
+                    && (buf.get(start + 2) | 0x20) == 'u' && (buf.get(start + 3) | 0x20) == 'e';
+        }
+    }
+
+    // The variables of an Evaluator, from the fields of the current row
+    private static final class FieldFrame extends VariableFrame {
+        private final ByteBuffer buf;
+        private final Row row;
+        // by slot
+        private final int[] columns;
+
+        FieldFrame(ByteBuffer buf, Row row, int[] columns, Operand[] decoded) {
+            super(decoded);
+            this.buf = buf;
+            this.row = row;
+            this.columns = columns;
+        }
+
+        FieldFrame reset() {
+            Arrays.fill(decoded, null);
+            return this;
+        }
+
+        @Override
+        Operand load(Variable variable) {
+            int column = columns[variable.getSlot()];
+            if (row.isNull(column))
+                return Operand.NULL;
+            switch (variable.getType()) {
+                case NUM:
+                    return row.num(buf, column);
+                case BOOL:
+                    return row.escaped[column] ? Coercion.fromString(ValuedItem.Type.BOOL, row.string(buf, column))
+                            : Operand.boolOperand(row.isTrue(buf, column));
+                default:
+                    return row.escaped[column] ? Coercion.fromString(variable.getType(), row.string(buf, column))
+                            : Coercion.fromChars(variable.getType(), row.chars(buf, column));
+            }
+        }
+    }
+
+    // java CsvEvaluator [-d delimiter] [-t threads] input output expression...
+    // The columns of the output are named after the expressions.
+    public static void main(String[] args) throws IOException, ParseException, EvalException {
+        char delimiter = ',';
+        ForkJoinPool pool = null;
+        int i = 0;
+        for (; i < args.length - 1 && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-d"))
+                delimiter = args[i + 1].equals("\\t") ? '\t' : args[i + 1].charAt(0);
+            else if (args[i].equals("-t"))
+                pool = new ForkJoinPool(Integer.parseInt(args[i + 1]));
+            else
+                break;
+        }
+        if (args.length - i < 3) {
+            System.err.println("Usage: java " + CsvEvaluator.class.getName()
+                    + " [-d delimiter] [-t threads] input output expression...");
+            System.exit(2);
+        }
+        Map<String, Evaluator> columns = new LinkedHashMap<>();
+        for (int e = i + 2; e < args.length; e++)
+            columns.put(args[e], Evaluator.compile(args[e]));
+        CsvEvaluator evaluator = new CsvEvaluator(columns).setDelimiter(delimiter);
+        if (pool != null)
+            evaluator.setExecutor(pool).setMaxPartsInFlight(2 * pool.getParallelism());
+        long start = System.nanoTime();
+        long rows = evaluator.evaluate(Paths.get(args[i]), Paths.get(args[i + 1]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double gb = Paths.get(args[i]).toFile().length() / 1e9;
+        System.err.printf("%d rows, %.3f GB in %.2f s: %.3f GB/s%n", rows, gb, seconds, gb / seconds);
+        if (pool != null)
+            pool.shutdown();
+    }
+}
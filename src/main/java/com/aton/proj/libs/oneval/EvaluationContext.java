@@ -0,0 +1,132 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.Operand;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+// Scratch space for the evaluation of expressions, that can be kept and
+// reused to avoid allocating it on every evaluation. It's NOT thread-safe:
+// use one per thread (e.g. in a ThreadLocal), and one evaluation at a time.
+// The same context can be used with any number of Evaluators.
+public final class EvaluationContext {
+    private static final int INITIAL_STACK_SIZE = 16;
+
+    private Operand[] stack = new Operand[INITIAL_STACK_SIZE];
+    private Operand[] decoded = new Operand[INITIAL_STACK_SIZE];
+    private Object[] resolved = new Object[INITIAL_STACK_SIZE];
+    private Operand[] memo = new Operand[INITIAL_STACK_SIZE];
+    private VariableFrame.OfMap mapFrame;
+    private VariableFrame.OfBindings bindingsFrame;
+    private VariableFrame.OfResolver resolverFrame;
+    private Random random;
+
+    // Makes rand() repeatable: the evaluations with this context draw from a
+    // generator seeded with seed, instead of the one of the current thread,
+    // so the same sequence of evaluations gives the same results
+    public void setRandomSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    // null if not seeded
+    Random random() {
+        return random;
+    }
+
+    // The seed of the index-th of the generators derived from seed, e.g. for
+    // the chunks of a ParallelEvaluator, so that they don't draw the same
+    // numbers: the finalizer of SplitMix64, over seeds a golden gamma apart
+    static long derivedSeed(long seed, long index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    Operand[] stack(int depth) {
+        if (stack.length < depth)
+            stack = new Operand[Math.max(depth, stack.length * 2)];
+        return stack;
+    }
+
+    // the variables decoded during an evaluation; cleared every time
+    Operand[] decoded(int count) {
+        if (decoded.length < count)
+            decoded = new Operand[Math.max(count, decoded.length * 2)];
+        else
+            Arrays.fill(decoded, 0, count, null);
+        return decoded;
+    }
+
+    // the results of the shared subexpressions of a RuleSet; cleared every time
+    Operand[] memo(int count) {
+        if (memo.length < count)
+            memo = new Operand[Math.max(count, memo.length * 2)];
+        else
+            Arrays.fill(memo, 0, count, null);
+        return memo;
+    }
+
+    // the values given by a VariableResolver, by slot; filled by the caller
+    Object[] resolved(int count) {
+        if (resolved.length < count)
+            resolved = new Object[Math.max(count, resolved.length * 2)];
+        return resolved;
+    }
+
+    // The frames are reused as well, with the decoded[] above
+    VariableFrame frame(Map<String, ?> variables, int count) {
+        if (mapFrame == null)
+            mapFrame = new VariableFrame.OfMap(variables, decoded(count));
+        else
+            mapFrame.reset(variables, decoded(count));
+        return seeded(mapFrame);
+    }
+
+    VariableFrame frame(Bindings bindings, int count) {
+        if (bindingsFrame == null)
+            bindingsFrame = new VariableFrame.OfBindings(bindings, decoded(count));
+        else
+            bindingsFrame.reset(bindings, decoded(count));
+        return seeded(bindingsFrame);
+    }
+
+    VariableFrame frame(VariableResolver resolver, int slots, int count) {
+        if (resolverFrame == null)
+            resolverFrame = new VariableFrame.OfResolver(resolver, resolved(slots), slots, decoded(count));
+        else
+            resolverFrame.reset(resolver, resolved(slots), slots, decoded(count));
+        return seeded(resolverFrame);
+    }
+
+    // the frames of the callers (e.g. CsvEvaluator's) go through here too
+    VariableFrame seeded(VariableFrame frame) {
+        frame.random = random;
+        return frame;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.*;
+import com.aton.proj.libs.oneval.internals.nodes.Node;
+import com.aton.proj.libs.oneval.internals.nodes.NodeCompiler;
+
+import java.text.ParseException;
+import java.util.*;
+
+// Many expressions kept up to date with the variables of an entity that
+// changes a few of them at a time. The expressions are compiled together as
+// in a RuleSet, and every function call that doesn't depend on rand() or
+// getEpoch() keeps its last result: update() forgets only the results that
+// depend on the variables updated, and re-evaluates only the expressions
+// using them, which take the rest from what's kept. It returns the
+// expressions whose result changed.
+//
+// The functions that aren't pure are called again only when their
+// expression is re-evaluated, for a change in its other variables. An
+// expression that fails is evaluated again on the next update, whatever the
+// variables changed. The failures don't stop the other expressions: they're
+// thrown once all are evaluated, with the index of each expression in the
+// message, as by RuleSet; an EvalException if the first one was, an
+// IllegalArgumentException otherwise. A session is NOT thread-safe.
+public final class EvaluationSession {
+    private final Node[] expressions;
+    private final String[] slots;
+    private final Map<String, Integer> slotIndex;
+    // by slot: the Variables (by index), the kept results (by index in memo)
+    // and the expressions depending on it
+    private final int[][] variablesBySlot;
+    private final int[][] memoBySlot;
+    private final BitSet[] expressionsBySlot;
+
+    private final Map<String, Object> values = new HashMap<>();
+    private final VariableFrame frame;
+    private final Operand[] results;
+    // the expressions to evaluate, and those whose result changed since the
+    // last time they were returned
+    private final BitSet stale = new BitSet();
+    private final BitSet changed = new BitSet();
+
+    private EvaluationSession(Node[] expressions, Map<String, Integer> slotIndex, int variableCount, int memoCount,
+                              int[][] variablesBySlot, int[][] memoBySlot, BitSet[] expressionsBySlot) {
+        this.expressions = expressions;
+        this.slots = slotIndex.keySet().toArray(new String[0]);
+        this.slotIndex = slotIndex;
+        this.variablesBySlot = variablesBySlot;
+        this.memoBySlot = memoBySlot;
+        this.expressionsBySlot = expressionsBySlot;
+        frame = new VariableFrame.OfMap(values, new Operand[variableCount]);
+        frame.memo = new Operand[memoCount];
+        results = new Operand[expressions.length];
+        stale.set(0, expressions.length);
+    }
+
+    // All the variables start as NULL, and nothing is evaluated until the
+    // first update()
+    public static EvaluationSession compile(List<String> expressions, CompileOption... options)
+            throws ParseException {
+        Map<String, Integer> slotIndex = new LinkedHashMap<>();
+        Map<String, Variable> variables = new HashMap<>();
+        CommonSubexpressions subexpressions = new CommonSubexpressions();
+        List<Tree> trees = new ArrayList<>(expressions.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            Tree tree;
+            try {
+                tree = Tree.fromRpn(Evaluator.parse(expressions.get(i)));
+            } catch (ParseException pe) {
+                throw new ParseException("Expression " + i + ": " + pe.getMessage(), pe.getErrorOffset());
+            }
+            trees.add(subexpressions.add(Evaluator.bind(tree, slotIndex, variables)));
+        }
+
+        // the slots each subtree depends on, null for those calling impure
+        // functions, which aren't kept
+        Map<Tree, BitSet> dependencies = new IdentityHashMap<>();
+        Map<Tree, Integer> memo = new IdentityHashMap<>();
+        BitSet[] expressionsBySlot = new BitSet[slotIndex.size()];
+        for (int s = 0; s < expressionsBySlot.length; s++)
+            expressionsBySlot[s] = new BitSet();
+        for (int i = 0; i < trees.size(); i++) {
+            BitSet used = new BitSet();
+            collectSlots(trees.get(i), used);
+            for (int s = used.nextSetBit(0); s >= 0; s = used.nextSetBit(s + 1))
+                expressionsBySlot[s].set(i);
+            dependencies(trees.get(i), dependencies, memo);
+        }
+
+        List<List<Integer>> memoBySlot = new ArrayList<>();
+        List<List<Integer>> variablesBySlot = new ArrayList<>();
+        for (int s = 0; s < slotIndex.size(); s++) {
+            memoBySlot.add(new ArrayList<>());
+            variablesBySlot.add(new ArrayList<>());
+        }
+        for (Map.Entry<Tree, Integer> e : memo.entrySet()) {
+            BitSet used = dependencies.get(e.getKey());
+            for (int s = used.nextSetBit(0); s >= 0; s = used.nextSetBit(s + 1))
+                memoBySlot.get(s).add(e.getValue());
+        }
+        for (Variable var : variables.values())
+            variablesBySlot.get(var.getSlot()).add(var.getIndex());
+
+        boolean eager = Arrays.asList(options).contains(CompileOption.EAGER_EVALUATION);
+        Map<Tree, Node> compiled = new IdentityHashMap<>();
+        Node[] nodes = new Node[trees.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = NodeCompiler.compile(trees.get(i), eager, memo, compiled);
+        return new EvaluationSession(nodes, slotIndex, variables.size(), memo.size(), toArrays(variablesBySlot),
+                toArrays(memoBySlot), expressionsBySlot);
+    }
+
+    // The slots tree depends on, or null if it calls impure functions; the
+    // function calls that don't are added to memo
+    private static BitSet dependencies(Tree tree, Map<Tree, BitSet> dependencies, Map<Tree, Integer> memo) {
+        if (dependencies.containsKey(tree))
+            return dependencies.get(tree);
+        BitSet ret = new BitSet();
+        if (tree.item instanceof Variable)
+            ret.set(((Variable) tree.item).getSlot());
+        if (tree.function() != null && !tree.function().pure)
+            ret = null;
+        for (Tree child : tree.children) {
+            BitSet used = dependencies(child, dependencies, memo);
+            if (used == null)
+                ret = null;
+            else if (ret != null)
+                ret.or(used);
+        }
+        if (ret != null && tree.function() != null)
+            memo.put(tree, memo.size());
+        dependencies.put(tree, ret);
+        return ret;
+    }
+
+    private static void collectSlots(Tree tree, BitSet slots) {
+        if (tree.item instanceof Variable)
+            slots.set(((Variable) tree.item).getSlot());
+        for (Tree child : tree.children)
+            collectSlots(child, slots);
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] ret = new int[lists.size()][];
+        for (int i = 0; i < ret.length; i++) {
+            List<Integer> list = lists.get(i);
+            ret[i] = new int[list.size()];
+            for (int j = 0; j < ret[i].length; j++)
+                ret[i][j] = list.get(j);
+        }
+        return ret;
+    }
+
+    public int size() {
+        return expressions.length;
+    }
+
+    // The names of the variables used by any of the expressions
+    public List<String> getVariableSlots() {
+        return Collections.unmodifiableList(Arrays.asList(slots));
+    }
+
+    // Sets a variable and re-evaluates the expressions using it: returns
+    // those whose result changed (all of them, the first time)
+    public BitSet update(String name, Object value) throws EvalException {
+        set(name, value);
+        return evaluate();
+    }
+
+    // Same as above, for many variables at once
+    public BitSet update(Map<String, ?> variables) throws EvalException {
+        for (Map.Entry<String, ?> e : variables.entrySet())
+            set(e.getKey(), e.getValue());
+        return evaluate();
+    }
+
+    // The result of an expression as of the last update(), null before the
+    // first one or if the expression failed
+    public Operand get(int expression) {
+        return stale.get(expression) ? null : results[expression];
+    }
+
+    public Object getVariable(String name) {
+        return values.get(name);
+    }
+
+    private void set(String name, Object value) {
+        if (values.containsKey(name) && Objects.equals(values.get(name), value))
+            return;
+        values.put(name, value);
+        Integer slot = slotIndex.get(name);
+        if (slot == null)
+            return;
+        for (int index : variablesBySlot[slot])
+            frame.decoded[index] = null;
+        for (int index : memoBySlot[slot])
+            frame.memo[index] = null;
+        stale.or(expressionsBySlot[slot]);
+    }
+
+    private BitSet evaluate() throws EvalException {
+        Exception first = null;
+        StringBuilder failures = new StringBuilder();
+        for (int i = stale.nextSetBit(0); i >= 0; i = stale.nextSetBit(i + 1)) {
+            Operand result;
+            try {
+                result = expressions[i].eval(frame).materialized();
+            } catch (EvalException | RuntimeException e) {
+                // stays stale
+                if (first == null)
+                    first = e;
+                else
+                    failures.append("; ");
+                failures.append("Expression ").append(i).append(": ")
+                        .append(e instanceof EvalException ? e.getMessage() : e.toString());
+                continue;
+            }
+            if (!result.equals(results[i]))
+                changed.set(i);
+            results[i] = result;
+            stale.clear(i);
+        }
+        // the changes are returned by the next update that doesn't fail
+        if (first instanceof EvalException)
+            throw new EvalException(failures.toString());
+        if (first != null)
+            throw new IllegalArgumentException(failures.toString(), first);
+        BitSet ret = (BitSet) changed.clone();
+        changed.clear();
+        return ret;
+    }
+}
@@ -25,239 +25,144 @@
 package com.aton.proj.libs.oneval;
 
 import com.aton.proj.libs.oneval.internals.*;
+import com.aton.proj.libs.oneval.internals.batch.BatchCompiler;
+import com.aton.proj.libs.oneval.internals.batch.BatchProgram;
+import com.aton.proj.libs.oneval.internals.batch.BatchResults;
+import com.aton.proj.libs.oneval.internals.bytecode.BytecodeCompiler;
+import com.aton.proj.libs.oneval.internals.nodes.Node;
+import com.aton.proj.libs.oneval.internals.nodes.NodeCompiler;
+import com.aton.proj.libs.oneval.internals.operations.Rand;
 
-import java.math.BigDecimal;
 import java.text.ParseException;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 
 public class Evaluator {
-    private static final String LITERAL_PLACEHOLDER = "######";
-    private static final int LITERAL_PLACEHOLDER_DIM = LITERAL_PLACEHOLDER
-            .length();
-    private static final String VARIABLE_PLACEHOLDER = "@#@@#@@#@@@#@@@";
-    private static final String NULL_CONST = "NULL";
-    private static final String TRUE_CONST = "true";
-    private static final String FALSE_CONST = "false";
-    private static final char SPACE = ' ';
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final EvaluatorCache CACHE = new EvaluatorCache(
+            Integer.getInteger("oneval.cache.size", DEFAULT_CACHE_SIZE));
+    // for asPredicate(), asToDoubleFunction() and ParallelEvaluator
+    static final ThreadLocal<EvaluationContext> CONTEXTS = ThreadLocal.withInitial(EvaluationContext::new);
+    static final String NOT_A_LONG = "Result is not an integer NUM";
+    static final String NOT_A_NUM = "Result is not a NUM";
 
     public static Evaluator compile(String expression) throws ParseException {
-        Evaluator ret = new Evaluator();
-        ret.items = parse(expression);
-        return ret;
-    }
-
-    private Evaluator() {
-    }
-
-    private Item[] items;
-
-    private static boolean isNumeric(String string) {
-        try {
-            Float.parseFloat(string);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+        return compile(expression, new CompileOption[0]);
     }
 
-    private static boolean isVariable(String string) {
-        return string.charAt(0) == '$' || string.charAt(0) == '%' || string.charAt(0) == '?';
+    public static Evaluator compile(String expression, CompileOption... options) throws ParseException {
+        return compileAll(Collections.singletonList(expression), options).get(0);
     }
 
-    private static Item getItem(String token, List<String> literals)
+    // Compiles the expressions in one go; with CompileOption.BYTECODE they
+    // all end up in the same generated class.
+    public static List<Evaluator> compileAll(List<String> expressions, CompileOption... options)
             throws ParseException {
-        token = token.trim();
-        if (token.startsWith(LITERAL_PLACEHOLDER)) { //literal
-            int pos = Integer.parseInt(token.substring(LITERAL_PLACEHOLDER_DIM));
-            return Operand.strOperand(literals.get(pos));
-        }
-
-        if (token.startsWith("%")) //variable
-            return new Variable(ValuedItem.Type.NUM, token.substring(1));
-        if (token.startsWith("$")) //variable
-            return new Variable(ValuedItem.Type.STRING, token.substring(1));
-        if (token.startsWith("?")) //variable
-            return new Variable(ValuedItem.Type.BOOL, token.substring(1));
-
-        if (NULL_CONST.equals(token))
-            return Operand.NULL;
-        if (TRUE_CONST.equalsIgnoreCase(token))
-            return Operand.TRUE;
-        if (FALSE_CONST.equalsIgnoreCase(token))
-            return Operand.FALSE;
-
-        Function op = Function.getOperation(token);
-        if (op != null)
-            return op;
-
-        try {
-            BigDecimal bd = new BigDecimal(token);
-            return Operand.numOperand(bd);
-        } catch (NumberFormatException e) {
-            throw new ParseException("Invalid numeric value: " + token, 0);
+        List<Tree> trees = new ArrayList<>(expressions.size());
+        List<String[]> slots = new ArrayList<>(expressions.size());
+        List<Integer> variableCounts = new ArrayList<>(expressions.size());
+        for (String expression : expressions) {
+            Map<String, Integer> slotIndex = new LinkedHashMap<>();
+            Map<String, Variable> variables = new HashMap<>();
+            trees.add(bind(Tree.fromRpn(parse(expression)), slotIndex, variables));
+            slots.add(slotIndex.keySet().toArray(new String[0]));
+            variableCounts.add(variables.size());
         }
 
-        // throw new ParseException("Unknown literal: " + token, 0);
-    }
-
-    // FIXME In this method there are many conversion between String and
-    // StringBuilder, and some invocations of String.replace(). This
-    // causes the same string to be walked multiple times, and many String
-    // objects to be created. This operation is done once per com.aton.proj.libs.oneval.Evaluator
-    // lifecycle, so it's not super-serious to fix it, but it's desirable to
-    // create a StringBuilder and do the various operations in place, even
-    // better (but difficult) in one sweep.
-    private static Item[] parse(String expression) throws ParseException {
-        // extracts the literal strings (delimited by an unescaped " or ') and
-        // puts a placeholder instead of them
-        List<String> strLiterals = new ArrayList<>();
-
-        StringBuilder expr = new StringBuilder();
-        StringBuilder str = null;
-        int position = 0;
-        boolean insideLiteral = false, isEscaped = false;
-        char quotesUsedForLiteral = ' ';
-        for (int i = 0; i < expression.length(); i++) {
-            char c = expression.charAt(i);
-            if (isEscaped) {
-                if (insideLiteral)
-                    str.append(c);
+        List<CompileOption> opts = Arrays.asList(options);
+        boolean eager = opts.contains(CompileOption.EAGER_EVALUATION);
+        // too large a class falls back to the node tree
+        Node[] compiled = opts.contains(CompileOption.BYTECODE) ? BytecodeCompiler.compile(trees, eager) : null;
+
+        List<Evaluator> ret = new ArrayList<>(trees.size());
+        for (int i = 0; i < trees.size(); i++) {
+            Tree tree = trees.get(i);
+            Evaluator evaluator = new Evaluator();
+            evaluator.slots = slots.get(i);
+            evaluator.variableCount = variableCounts.get(i);
+            evaluator.tree = tree;
+            evaluator.eager = eager;
+            if (compiled != null) {
+                evaluator.root = compiled[i];
+            } else if (opts.contains(CompileOption.NODE_TREE) || opts.contains(CompileOption.BYTECODE)) {
+                evaluator.root = NodeCompiler.compile(tree, eager);
+            } else {
+                List<Item> program = new ArrayList<>();
+                if (eager)
+                    tree.toRpn(program);
                 else
-                    expr.append(c);
-                isEscaped = false;
-                continue;
-            }
-            if (c == '\\') {
-                isEscaped = true;
-                continue;
-            }
-            if (c == '"' || c == '\'') {
-                if (!insideLiteral) {
-                    str = new StringBuilder();
-                    insideLiteral = true;
-                    quotesUsedForLiteral = c;
-                    continue;
-                }
-
-                if (c == quotesUsedForLiteral) {
-                    strLiterals.add(str.toString());
-                    expr.append(SPACE);
-                    expr.append(LITERAL_PLACEHOLDER);
-                    expr.append(position++);
-                    expr.append(SPACE);
-                    insideLiteral = false;
-                    continue;
-                }
+                    emit(tree, program);
+                evaluator.items = program.toArray(new Item[]{});
+                evaluator.maxStackDepth = tree.maxStackDepth();
             }
-            if (insideLiteral)
-                str.append(c);
-            else
-                expr.append(c);
+            ret.add(evaluator);
         }
+        return ret;
+    }
 
-        if (insideLiteral)
-            throw new ParseException("String literal not properly closed", 0);
-
-        // if an expression ends with a variable, the parsing cycle later on ends
-        // without the final evaluation, so it's wrong. Appending a space ensures
-        // that it is properly concluded. Dirty-ish, but it works.
-        expr.append(' ');
-        expression = expr.toString();
-
-        //extract the variables (from a '$' to the next non-literal) and put a
-        //placeholder instead of them
-        List<String> varLiterals = new ArrayList<>();
-
-        expr = new StringBuilder();
-        str = null;
-        position = 0;
-        insideLiteral = false;
-        for (int i = 0; i < expression.length(); i++) {
-            char c = expression.charAt(i);
-            if (!insideLiteral && (c == '$' || c == '%' || c == '?')) {
-                insideLiteral = true;
-                str = new StringBuilder();
-            } else if (insideLiteral && (!isAllowedForVarName(c)
-                    || i > expression.length() - 1)) {
-                insideLiteral = false;
-                varLiterals.add(str.toString());
-                expr.append(SPACE);
-                expr.append(VARIABLE_PLACEHOLDER);
-                expr.append(position++);
-                expr.append(SPACE);
+    // Gives each distinct variable name a slot, in order of appearance, and
+    // each distinct variable (name and type) an index for its decoded value.
+    static Tree bind(Tree tree, Map<String, Integer> slots, Map<String, Variable> variables) {
+        if (tree.item instanceof Variable) {
+            Variable var = (Variable) tree.item;
+            String key = var.getType() + " " + var.getId();
+            Variable bound = variables.get(key);
+            if (bound == null) {
+                Integer slot = slots.get(var.getId());
+                if (slot == null)
+                    slots.put(var.getId(), slot = slots.size());
+                bound = new Variable(var.getType(), var.getId(), slot, variables.size());
+                variables.put(key, bound);
             }
-            if (insideLiteral)
-                str.append(c);
-            else
-                expr.append(c);
-        }
-
-        expression = expr.toString();
-
-        //check that brackets are balanced
-        int bracketsLevel = 0;
-        for (int i = 0; i < expression.length(); i++) {
-            char c = expression.charAt(i);
-            if (c == '(')
-                bracketsLevel++;
-            else if (c == ')')
-                bracketsLevel--;
+            return new Tree(bound, tree.children);
         }
-        if (bracketsLevel != 0)
-            throw new ParseException("Unbalanced brackets", 0);
-
-        //preprocess
-        for (Function op : Function.values())
-            expression = expression.replace(op.literal, " " + op.literal + " ");
+        if (tree.children.length == 0)
+            return tree;
+        Tree[] children = new Tree[tree.children.length];
+        for (int i = 0; i < children.length; i++)
+            children[i] = bind(tree.children[i], slots, variables);
+        return new Tree(tree.item, children);
+    }
 
-        //replace back the variables
-        for (int i = 0; i < varLiterals.size(); i++) {
-            expression = expression.replace(VARIABLE_PLACEHOLDER + i + ' ',
-                    varLiterals.get(i) + ' ');
-        }
+    // Same as compile(), but goes through a shared EvaluatorCache; its size
+    // can be set with the "oneval.cache.size" system property.
+    public static Evaluator compileCached(String expression) throws ParseException {
+        return CACHE.compile(expression);
+    }
 
-        StringTokenizer st = new StringTokenizer(expression, " ");
-        List<String> tokenized = new ArrayList<>();
-        while (st.hasMoreTokens())
-            tokenized.add(st.nextToken().trim());
-        for (int i = 0; i < tokenized.size(); i++) {
-            String current = tokenized.get(i);
-            if ("-".equals(current)) {
-                boolean isUnaryMinus = false;
-                if (i == 0) {
-                    isUnaryMinus = true;
-                } else {
-                    if (isNumeric(tokenized.get(i + 1))) {
-                        String prev = tokenized.get(i - 1);
+    @SuppressWarnings("unused")
+    public static EvaluatorCache getCompileCache() {
+        return CACHE;
+    }
 
-                        isUnaryMinus = !(prev.equals(")") || isNumeric(prev)
-                                || isVariable(prev));
-                    }
-                }
-                if (isUnaryMinus) {
-                    tokenized.set(i, tokenized.get(i) + tokenized.get(i + 1));
-                    tokenized.remove(i + 1);
-                }
-            } else
-                //compensates for '>=', '<=', '!=' ambiguity with '>', '<', '!'
-                if (">".equals(current) || "<".equals(current)
-                        || "!".equals(current)) {
-                    if ((i < tokenized.size() - 1)
-                            && "=".equals(tokenized.get(i + 1))) {
-                        tokenized.set(i, tokenized.get(i) + tokenized.get(i + 1));
-                        tokenized.remove(i + 1);
-                    }
-                }
-        }
+    private Evaluator() {
+    }
 
-        //now we have tokenList, with the tokens, and strLiterals, with the
-        //string literals. Some tokens are @#1, @#2, ... and must be substituted
-        //with the literals. Next thing is to apply the shunting yard algorithm
-        //(based on the 2nd pseudocode listing at www.chris-j.co.uk/parsing.php)
+    private Item[] items;
+    private int maxStackDepth;
+    // the names of the variables, by slot
+    private String[] slots;
+    private int variableCount;
+    // set instead of items when compiled with CompileOption.NODE_TREE or
+    // CompileOption.BYTECODE
+    private Node root;
+    // for evaluateBatch(), compiled to batch on its first call
+    private Tree tree;
+    private boolean eager;
+    private volatile BatchProgram batch;
+    // set by withResultCache()
+    private ResultCache results;
+
+    // The lexer hands over already typed items in a single sweep of the
+    // expression, and they are fed directly to the shunting yard algorithm
+    // (based on the 2nd pseudocode listing at www.chris-j.co.uk/parsing.php)
+    static List<Item> parse(String expression) throws ParseException {
+        Lexer lexer = new Lexer(expression);
         List<Item> output = new ArrayList<>();
         Stack<Function> stack = new Stack<>();
-        for (String token : tokenized) {
-            Item item = getItem(token, strLiterals);
+        while (lexer.next()) {
+            Item item = lexer.item();
 
             if (item instanceof Operand || item instanceof Variable) {
                 output.add(item);
@@ -267,8 +172,13 @@ public class Evaluator {
             Function op = (Function) item;
             if ((op == Function.COMMA) || (op == Function.CLOSE_BRACKET)) {
                 Function cnt;
-                while ((cnt = stack.pop()) != Function.OPEN_BRACKET)
-                    output.add(cnt);
+                do {
+                    if (stack.isEmpty())
+                        throw new ParseException("Unbalanced brackets", lexer.offset());
+                    cnt = stack.pop();
+                    if (cnt != Function.OPEN_BRACKET)
+                        output.add(cnt);
+                } while (cnt != Function.OPEN_BRACKET);
                 if (op == Function.COMMA)
                     stack.push(Function.OPEN_BRACKET);
                 continue;
@@ -316,8 +226,12 @@ public class Evaluator {
             }
         }
 
-        while (!stack.isEmpty())
-            output.add(stack.pop());
+        while (!stack.isEmpty()) {
+            Function op = stack.pop();
+            if (op == Function.OPEN_BRACKET)
+                throw new ParseException("Unbalanced brackets", expression.length());
+            output.add(op);
+        }
 
         // Verify that the operators have the right number of operands. Every
         // operand or variable count as 1, and every operator "consumes" a certain
@@ -334,61 +248,430 @@ public class Evaluator {
         if (freeOperands != 1)
             throw new ParseException("Wrong number of operands", 0);
 
-        return output.toArray(new Item[]{});
+        return foldConstants(output);
     }
 
-    private static boolean isAllowedForVarName(char c) {
-        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
-                || (c >= '0' && c <= '9') || (c == '_') || (c == '-');
+    // Evaluates once, at compile time, the pure functions whose operands are
+    // all constants, replacing them (and their operands) with the result.
+    // Being RPN, the operands of a function are the items right before it, so
+    // folding everything is a single pass that works on the tail of the list.
+    private static List<Item> foldConstants(List<Item> items) throws ParseException {
+        List<Item> ret = new ArrayList<>(items.size());
+        for (Item item : items) {
+            ret.add(item);
+            if (!(item instanceof Function))
+                continue;
+
+            Function op = (Function) item;
+            int opNum = op.type.getOpNum();
+            int first = ret.size() - 1 - opNum;
+            if (!op.pure || first < 0 || !allOperands(ret, first, ret.size() - 1))
+                continue;
+
+            Operand[] operands = new Operand[opNum];
+            for (int i = 0; i < opNum; i++)
+                operands[i] = (Operand) ret.get(first + i);
+            Operand res;
+            try {
+                res = op.action.perform(operands);
+            } catch (EvalException | RuntimeException e) {
+                throw new ParseException("Error evaluating constant " + op.literal + ": " + e.getMessage(), 0);
+            }
+            ret.subList(first, ret.size()).clear();
+            ret.add(res);
+        }
+        return ret;
     }
 
-    private Operand evaluateToOperand(Map<String, String> variables) throws EvalException {
-        Stack<Item> stack = new Stack<>();
-        for (Item item : items) {
+    // Lays out the tree as RPN, except for &&, ||, if and onNull: their
+    // operands are separated by jumps, so that the ones that can't change the
+    // result are skipped.
+    //
+    //   a && b        a IF_FALSE(end) b AND
+    //   a || b        a IF_TRUE(end) b OR
+    //   onNull(a, b)  a IF_NOT_NULL(end) b
+    //   if(c, a, b)   c UNLESS(else) a ALWAYS(end) b
+    //
+    // When a && b doesn't jump the left side is TRUE (or not a BOOL), and
+    // AND still has to check the right side; same for ||.
+    private static void emit(Tree tree, List<Item> out) {
+        Function op = tree.function();
+        Tree[] children = tree.children;
+        if (op == Function.AND || op == Function.OR) {
+            emit(children[0], out);
+            int jump = placeholder(out);
+            emit(children[1], out);
+            out.add(op);
+            out.set(jump, new Jump(op == Function.AND ? Jump.Kind.IF_FALSE : Jump.Kind.IF_TRUE, out.size()));
+        } else if (op == Function.ONNULL) {
+            emit(children[0], out);
+            int jump = placeholder(out);
+            emit(children[1], out);
+            out.set(jump, new Jump(Jump.Kind.IF_NOT_NULL, out.size()));
+        } else if (op == Function.IF) {
+            emit(children[0], out);
+            int unless = placeholder(out);
+            emit(children[1], out);
+            int always = placeholder(out);
+            out.set(unless, new Jump(Jump.Kind.UNLESS, out.size()));
+            emit(children[2], out);
+            out.set(always, new Jump(Jump.Kind.ALWAYS, out.size()));
+        } else {
+            for (Tree child : children)
+                emit(child, out);
+            out.add(tree.item);
+        }
+    }
+
+    private static int placeholder(List<Item> out) {
+        out.add(null);
+        return out.size() - 1;
+    }
+
+    private static boolean allOperands(List<Item> items, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (!(items.get(i) instanceof Operand))
+                return false;
+        return true;
+    }
+
+    private Operand evaluateToOperand(Frame frame, Operand[] stack) throws EvalException {
+        List<Operand> key = results != null ? results.key(frame) : null;
+        if (key == null)
+            return run(frame, stack).materialized();
+        Object ret = results.cache().get(key, k -> {
+            try {
+                return run(frame, stack).materialized();
+            } catch (EvalException e) {
+                return e;
+            }
+        });
+        if (ret instanceof EvalException)
+            // a new instance each time, stack traces of shared ones would lie
+            throw new EvalException(((EvalException) ret).getMessage());
+        return (Operand) ret;
+    }
+
+    private Operand run(Frame frame, Operand[] stack) throws EvalException {
+        if (root != null)
+            return root.eval(frame);
+
+        Item[] items = this.items;
+        int sp = 0;
+        for (int pc = 0; pc < items.length; pc++) {
+            Item item = items[pc];
             if (item instanceof Variable) {
-                if (variables == null) {
-                    stack.push(Operand.NULL);
-                    continue;
-                }
-                Variable var = (Variable) item;
-                String value = variables.get(var.getId());
-                if (value == null)
-                    stack.push(Operand.NULL);
-                else if (var.getType() == ValuedItem.Type.STRING)
-                    stack.push(Operand.strOperand(value));
-                else if (var.getType() == ValuedItem.Type.NUM)
-                    stack.push(Operand.numOperand(new BigDecimal(value)));
-                else if (var.getType() == ValuedItem.Type.BOOL)
-                    stack.push(Operand.boolOperand("1".equals(value) || "true".equalsIgnoreCase(value)));
-                else
-                    stack.push(Operand.NULL);
+                stack[sp++] = frame.get((Variable) item);
             } else if (item instanceof Operand) {
-                stack.push(item);
+                stack[sp++] = (Operand) item;
             } else if (item instanceof Function) {
                 Function op = (Function) item;
-                int opNum = op.type.getOpNum();
-                Operand[] operands = new Operand[opNum];
-                for (int i = opNum - 1; i >= 0; i--)
-                    operands[i] = (Operand) stack.pop();
-                Operand res = op.action.perform(operands);
-                stack.push(res);
+                switch (op.type) {
+                    case ZERARY:
+                        stack[sp++] = op.action.perform0();
+                        break;
+                    case UNARY_PREFIX:
+                    case UNARY_POSTFIX:
+                        stack[sp - 1] = op.action.perform1(stack[sp - 1]);
+                        break;
+                    case BINARY:
+                        sp--;
+                        // rand() draws from the generator of the frame
+                        stack[sp - 1] = op == Function.RANDF ? Rand.perform(frame.random(), stack[sp - 1], stack[sp])
+                                : op.action.perform2(stack[sp - 1], stack[sp]);
+                        break;
+                    case TERNARY:
+                        sp -= 2;
+                        stack[sp - 1] = op.action.perform3(stack[sp - 1], stack[sp], stack[sp + 1]);
+                        break;
+                }
+            } else if (item instanceof Jump) {
+                Jump jump = (Jump) item;
+                boolean taken;
+                switch (jump.kind) {
+                    case IF_FALSE:
+                        taken = stack[sp - 1] == Operand.FALSE;
+                        break;
+                    case IF_TRUE:
+                        taken = stack[sp - 1] == Operand.TRUE;
+                        break;
+                    case IF_NOT_NULL:
+                        taken = stack[sp - 1] != Operand.NULL;
+                        if (!taken)
+                            sp--;
+                        break;
+                    case UNLESS:
+                        Operand cond = stack[--sp];
+                        if (cond.getType() != ValuedItem.Type.BOOL)
+                            throw new EvalException("First operand for IF must be BOOL");
+                        taken = cond == Operand.FALSE;
+                        break;
+                    default:
+                        taken = true;
+                }
+                // the loop increments pc before executing the target
+                if (taken)
+                    pc = jump.target - 1;
             }
         }
 
         // This should have been blocked by compilation, but just in case.
-        if (stack.size() != 1)
+        if (sp != 1)
             throw new IllegalArgumentException("Wrong number of operands");
 
-        return ((Operand) stack.pop());
+        Operand ret = stack[0];
+        Arrays.fill(stack, 0, maxStackDepth, null);
+        return ret;
     }
 
+    // The values can be Strings, as well as numbers, booleans, ...: they're
+    // converted according to the sigil of the variable, as their toString()
+    // would be (see Coercion).
     @SuppressWarnings("unused")
-    public Operand evaluate(Map<String, String> variables) throws EvalException {
-        return evaluateToOperand(variables);
+    public Operand evaluate(Map<String, ?> variables) throws EvalException {
+        return evaluateToOperand(new VariableFrame.OfMap(variables, new Operand[variableCount]),
+                root != null ? null : new Operand[maxStackDepth]);
+    }
+
+    // Same as evaluate(), but uses the scratch space in the context instead
+    // of allocating it; see EvaluationContext.
+    @SuppressWarnings("unused")
+    public Operand evaluate(Map<String, ?> variables, EvaluationContext context) throws EvalException {
+        return evaluateToOperand(context.frame(variables, variableCount), context.stack(maxStackDepth));
+    }
+
+    // With the variables in a frame of the caller, e.g. CsvEvaluator's
+    Operand evaluate(VariableFrame frame, EvaluationContext context) throws EvalException {
+        return evaluateToOperand(context.seeded(frame), context.stack(maxStackDepth));
+    }
+
+    int getVariableCount() {
+        return variableCount;
+    }
+
+    // The names of the variables of the expression, in order of appearance;
+    // the position of a name is its slot in the Bindings.
+    public List<String> getVariableSlots() {
+        return Collections.unmodifiableList(Arrays.asList(slots));
+    }
+
+    public Bindings newBindings() {
+        return new Bindings(slots);
+    }
+
+    // Same as evaluate(Map), with the variables taken by slot from bindings
+    // made by newBindings(), of this Evaluator or of one with the same slots.
+    public Operand evaluate(Bindings bindings) throws EvalException {
+        return evaluateToOperand(new VariableFrame.OfBindings(checked(bindings), new Operand[variableCount]),
+                root != null ? null : new Operand[maxStackDepth]);
+    }
+
+    public Operand evaluate(Bindings bindings, EvaluationContext context) throws EvalException {
+        return evaluateToOperand(context.frame(checked(bindings), variableCount), context.stack(maxStackDepth));
+    }
+
+    private Bindings checked(Bindings bindings) {
+        if (bindings.slots != slots && !Arrays.equals(bindings.slots, slots))
+            throw new IllegalArgumentException("Bindings for variables " + bindings.getSlots()
+                    + " instead of " + getVariableSlots());
+        return bindings;
+    }
+
+    // Same as evaluate(Map), with the values asked to the resolver only when
+    // the evaluation needs them; see VariableResolver.
+    public Operand evaluate(VariableResolver resolver) throws EvalException {
+        return evaluateToOperand(new VariableFrame.OfResolver(resolver, new Object[slots.length], slots.length,
+                new Operand[variableCount]), root != null ? null : new Operand[maxStackDepth]);
+    }
+
+    public Operand evaluate(VariableResolver resolver, EvaluationContext context) throws EvalException {
+        return evaluateToOperand(context.frame(resolver, slots.length, variableCount),
+                context.stack(maxStackDepth));
+    }
+
+    // The result as a primitive, when it's of the right type (an integral NUM
+    // that fits, for evaluateLong()); otherwise an EvalException. Filters
+    // evaluated with Bindings and an EvaluationContext don't allocate at all,
+    // as long as the values that change are booleans or small integers.
+    public boolean evaluateBoolean(Map<String, ?> variables) throws EvalException {
+        return toBoolean(evaluate(variables));
+    }
+
+    public boolean evaluateBoolean(Map<String, ?> variables, EvaluationContext context) throws EvalException {
+        return toBoolean(evaluate(variables, context));
+    }
+
+    public boolean evaluateBoolean(Bindings bindings) throws EvalException {
+        return toBoolean(evaluate(bindings));
+    }
+
+    public boolean evaluateBoolean(Bindings bindings, EvaluationContext context) throws EvalException {
+        return toBoolean(evaluate(bindings, context));
+    }
+
+    public long evaluateLong(Map<String, ?> variables) throws EvalException {
+        return evaluate(variables).coalesceToLong(NOT_A_LONG);
+    }
+
+    public long evaluateLong(Map<String, ?> variables, EvaluationContext context) throws EvalException {
+        return evaluate(variables, context).coalesceToLong(NOT_A_LONG);
+    }
+
+    public long evaluateLong(Bindings bindings) throws EvalException {
+        return evaluate(bindings).coalesceToLong(NOT_A_LONG);
+    }
+
+    public long evaluateLong(Bindings bindings, EvaluationContext context) throws EvalException {
+        return evaluate(bindings, context).coalesceToLong(NOT_A_LONG);
+    }
+
+    public double evaluateDouble(Map<String, ?> variables) throws EvalException {
+        return evaluate(variables).coalesceToDouble(NOT_A_NUM);
+    }
+
+    public double evaluateDouble(Map<String, ?> variables, EvaluationContext context) throws EvalException {
+        return evaluate(variables, context).coalesceToDouble(NOT_A_NUM);
+    }
+
+    public double evaluateDouble(Bindings bindings) throws EvalException {
+        return evaluate(bindings).coalesceToDouble(NOT_A_NUM);
+    }
+
+    public double evaluateDouble(Bindings bindings, EvaluationContext context) throws EvalException {
+        return evaluate(bindings, context).coalesceToDouble(NOT_A_NUM);
+    }
+
+    static boolean toBoolean(Operand result) throws EvalException {
+        if (result.getType() != ValuedItem.Type.BOOL)
+            throw new EvalException("Result is not BOOL");
+        return result == Operand.TRUE;
+    }
+
+    // Evaluates all the rows of the batch, a chunk at a time, calling each
+    // function in a loop over the rows of the chunk; see BatchCompiler. The
+    // results are the same as evaluating each row on its own, whatever the
+    // CompileOptions; when one row fails, the whole batch does.
+    public ResultColumn evaluateBatch(ColumnBatch batch) throws EvalException {
+        return new ResultColumn(batchProgram().eval(batch.columns(slots), batch.size(), null, null), null);
+    }
+
+    // With the generator of rand() of the context, if seeded, drawing in
+    // the order of the rows
+    public ResultColumn evaluateBatch(ColumnBatch batch, EvaluationContext context) throws EvalException {
+        return new ResultColumn(batchProgram().eval(batch.columns(slots), batch.size(), null, context.random()), null);
+    }
+
+    // Same as evaluateBatch(ColumnBatch), only on the given rows, in
+    // ascending order: e.g. those selected by a previous filter with
+    // ResultColumn.selectTrue()
+    public ResultColumn evaluateBatch(ColumnBatch batch, int[] rows) throws EvalException {
+        return evaluateBatch(batch, rows, null);
+    }
+
+    public ResultColumn evaluateBatch(ColumnBatch batch, int[] rows, EvaluationContext context) throws EvalException {
+        for (int i = 0; i < rows.length; i++)
+            if (rows[i] < 0 || rows[i] >= batch.size() || (i > 0 && rows[i] <= rows[i - 1]))
+                throw new IllegalArgumentException("Rows not ascending or out of the batch at " + i);
+        return new ResultColumn(batchProgram().eval(batch.columns(slots), batch.size(), rows,
+                context == null ? null : context.random()), rows);
+    }
+
+    // The rows from (inclusive) to (exclusive) of the batch, into results by
+    // row, for ParallelEvaluator; random: see EvaluationContext.random()
+    void evaluateBatch(ColumnBatch batch, int from, int to, BatchResults results, Random random)
+            throws EvalException {
+        batchProgram().eval(batch.columns(slots), null, from, to, results, random);
+    }
+
+    private BatchProgram batchProgram() {
+        BatchProgram ret = batch;
+        if (ret == null)
+            batch = ret = BatchCompiler.compile(tree, eager);
+        return ret;
+    }
+
+    // This Evaluator as a filter of Maps, e.g. for streams, evaluating with
+    // an EvaluationContext of the current thread; the EvalExceptions are
+    // rethrown as IllegalArgumentExceptions
+    public Predicate<Map<String, ?>> asPredicate() {
+        return variables -> {
+            try {
+                return evaluateBoolean(variables, CONTEXTS.get());
+            } catch (EvalException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        };
+    }
+
+    public ToDoubleFunction<Map<String, ?>> asToDoubleFunction() {
+        return variables -> {
+            try {
+                return evaluateDouble(variables, CONTEXTS.get());
+            } catch (EvalException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        };
+    }
+
+    // A copy of this Evaluator that keeps its results, by the values of the
+    // variables, in a cache of about maximumBytes (see ResultCache); worth it
+    // when the same values come back over and over, e.g. from low cardinality
+    // fields. The evaluations of a batch aren't cached; nor is anything if
+    // the expression calls functions that aren't pure, like rand().
+    public Evaluator withResultCache(long maximumBytes) {
+        Evaluator ret = new Evaluator();
+        ret.items = items;
+        ret.maxStackDepth = maxStackDepth;
+        ret.slots = slots;
+        ret.variableCount = variableCount;
+        ret.root = root;
+        ret.tree = tree;
+        ret.eager = eager;
+        ret.batch = batch;
+        if (isPure(tree)) {
+            Variable[] variables = new Variable[variableCount];
+            collectVariables(tree, variables);
+            ret.results = new ResultCache(variables, maximumBytes);
+        }
+        return ret;
+    }
+
+    private static boolean isPure(Tree tree) {
+        if (tree.function() != null && !tree.function().pure)
+            return false;
+        for (Tree child : tree.children)
+            if (!isPure(child))
+                return false;
+        return true;
+    }
+
+    private static void collectVariables(Tree tree, Variable[] variables) {
+        if (tree.item instanceof Variable)
+            variables[((Variable) tree.item).getIndex()] = (Variable) tree.item;
+        for (Tree child : tree.children)
+            collectVariables(child, variables);
+    }
+
+    // The statistics of the result cache, all 0 without one
+    public long getResultCacheHitCount() {
+        return results == null ? 0 : results.cache().getHitCount();
+    }
+
+    public long getResultCacheMissCount() {
+        return results == null ? 0 : results.cache().getMissCount();
+    }
+
+    public long getResultCacheEvictionCount() {
+        return results == null ? 0 : results.cache().getEvictionCount();
+    }
+
+    // in (roughly) bytes
+    public long getResultCacheWeight() {
+        return results == null ? 0 : results.cache().weight();
     }
 
     @SuppressWarnings("unused")
-    public String evaluateToString(Map<String, String> variables) throws EvalException {
+    public String evaluateToString(Map<String, ?> variables) throws EvalException {
         Object ret = evaluate(variables).getValue();
         if (ret == null)
             return null;
@@ -397,7 +680,7 @@ public class Evaluator {
 
     @SuppressWarnings("unused")
     public Operand evaluate() throws EvalException {
-        return evaluateToOperand(null);
+        return evaluate((Map<String, ?>) null);
     }
 
     @SuppressWarnings("unused")
@@ -0,0 +1,82 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.BoundedCache;
+
+import java.text.ParseException;
+
+// A bounded, thread-safe cache of compiled expressions, keyed by the
+// expression text. Expressions that fail to compile are cached as well, so a
+// bad expression coming in over and over is parsed only once.
+public final class EvaluatorCache {
+    private final BoundedCache<String, Object> cache;
+
+    public EvaluatorCache(int maximumSize) {
+        cache = new BoundedCache<>(maximumSize);
+    }
+
+    public Evaluator compile(String expression) throws ParseException {
+        Object ret = cache.get(expression, EvaluatorCache::compileOrFail);
+        if (ret instanceof ParseException) {
+            // a new instance each time, stack traces of shared ones would lie
+            ParseException pe = (ParseException) ret;
+            throw new ParseException(pe.getMessage(), pe.getErrorOffset());
+        }
+        return (Evaluator) ret;
+    }
+
+    private static Object compileOrFail(String expression) {
+        try {
+            return Evaluator.compile(expression);
+        } catch (ParseException pe) {
+            return pe;
+        }
+    }
+
+    public void invalidate(String expression) {
+        cache.invalidate(expression);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+}
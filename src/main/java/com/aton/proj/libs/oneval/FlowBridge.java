@@ -0,0 +1,246 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+
+// Adapts the interfaces of StreamEvaluator to the ones of
+// java.util.concurrent.Flow, found by reflection since they're not in Java 8.
+// The calls to Flow go through MethodHandles, that don't allocate; the calls
+// from Flow through Proxies, that allocate their arguments.
+final class FlowBridge {
+    private static final Class<?> PUBLISHER;
+    private static final Class<?> SUBSCRIBER;
+    private static final Class<?> SUBSCRIPTION;
+    // all taking Objects
+    private static final MethodHandle SUBSCRIBE;
+    private static final MethodHandle ON_SUBSCRIBE;
+    private static final MethodHandle ON_NEXT;
+    private static final MethodHandle ON_ERROR;
+    private static final MethodHandle ON_COMPLETE;
+    private static final MethodHandle REQUEST;
+    private static final MethodHandle CANCEL;
+
+    static {
+        Class<?>[] classes = new Class<?>[3];
+        MethodHandle[] handles = new MethodHandle[7];
+        try {
+            classes[0] = Class.forName("java.util.concurrent.Flow$Publisher");
+            classes[1] = Class.forName("java.util.concurrent.Flow$Subscriber");
+            classes[2] = Class.forName("java.util.concurrent.Flow$Subscription");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            handles[0] = handle(lookup, classes[0], "subscribe", classes[1]);
+            handles[1] = handle(lookup, classes[1], "onSubscribe", classes[2]);
+            handles[2] = handle(lookup, classes[1], "onNext", Object.class);
+            handles[3] = handle(lookup, classes[1], "onError", Throwable.class);
+            handles[4] = handle(lookup, classes[1], "onComplete", null);
+            handles[5] = handle(lookup, classes[2], "request", long.class);
+            handles[6] = handle(lookup, classes[2], "cancel", null);
+        } catch (ClassNotFoundException e) {
+            // before Java 9
+            classes = new Class<?>[3];
+            handles = new MethodHandle[7];
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+        PUBLISHER = classes[0];
+        SUBSCRIBER = classes[1];
+        SUBSCRIPTION = classes[2];
+        SUBSCRIBE = handles[0];
+        ON_SUBSCRIBE = handles[1];
+        ON_NEXT = handles[2];
+        ON_ERROR = handles[3];
+        ON_COMPLETE = handles[4];
+        REQUEST = handles[5];
+        CANCEL = handles[6];
+    }
+
+    private FlowBridge() {
+    }
+
+    // the method of owner with the given parameter (or none), taking Objects
+    private static MethodHandle handle(MethodHandles.Lookup lookup, Class<?> owner, String name, Class<?> parameter)
+            throws ReflectiveOperationException {
+        MethodType type = parameter == null ? MethodType.methodType(void.class)
+                : MethodType.methodType(void.class, parameter);
+        MethodHandle ret = lookup.findVirtual(owner, name, type);
+        return ret.asType(parameter == null ? MethodType.methodType(void.class, Object.class)
+                : MethodType.methodType(void.class, Object.class, parameter == long.class ? long.class : Object.class));
+    }
+
+    private static void checkAvailable() {
+        if (PUBLISHER == null)
+            throw new UnsupportedOperationException("java.util.concurrent.Flow needs Java 9 or later");
+    }
+
+    static Object toFlow(StreamEvaluator.Publisher<?> publisher) {
+        checkAvailable();
+        return proxy(PUBLISHER, (name, args) -> {
+            Object subscriber = args[0];
+            publisher.subscribe(new StreamEvaluator.Subscriber<Object>() {
+                @Override
+                public void onSubscribe(StreamEvaluator.Subscription subscription) {
+                    Object flowSubscription = proxy(SUBSCRIPTION, (method, a) -> {
+                        if (method.equals("request"))
+                            subscription.request((Long) a[0]);
+                        else
+                            subscription.cancel();
+                    });
+                    try {
+                        ON_SUBSCRIBE.invokeExact(subscriber, flowSubscription);
+                    } catch (Throwable t) {
+                        throw unchecked(t);
+                    }
+                }
+
+                @Override
+                public void onNext(Object item) {
+                    try {
+                        ON_NEXT.invokeExact(subscriber, item);
+                    } catch (Throwable t) {
+                        throw unchecked(t);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    try {
+                        ON_ERROR.invokeExact(subscriber, (Object) throwable);
+                    } catch (Throwable t) {
+                        throw unchecked(t);
+                    }
+                }
+
+                @Override
+                public void onComplete() {
+                    try {
+                        ON_COMPLETE.invokeExact(subscriber);
+                    } catch (Throwable t) {
+                        throw unchecked(t);
+                    }
+                }
+            });
+        });
+    }
+
+    static <T> StreamEvaluator.Publisher<T> fromFlow(Object publisher) {
+        checkAvailable();
+        if (!PUBLISHER.isInstance(publisher))
+            throw new IllegalArgumentException("Not a java.util.concurrent.Flow.Publisher: " + publisher);
+        return subscriber -> {
+            Object flowSubscriber = proxy(SUBSCRIBER, new Forwarder<>(subscriber));
+            try {
+                SUBSCRIBE.invokeExact(publisher, flowSubscriber);
+            } catch (Throwable t) {
+                throw unchecked(t);
+            }
+        };
+    }
+
+    // a call to a Flow interface: its name and arguments
+    private interface Call {
+        void invoke(String method, Object[] args);
+    }
+
+    private static final class Forwarder<T> implements Call {
+        private final StreamEvaluator.Subscriber<T> subscriber;
+
+        Forwarder(StreamEvaluator.Subscriber<T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(String method, Object[] args) {
+            switch (method) {
+                case "onSubscribe":
+                    Object flowSubscription = args[0];
+                    subscriber.onSubscribe(new StreamEvaluator.Subscription() {
+                        @Override
+                        public void request(long n) {
+                            try {
+                                REQUEST.invokeExact(flowSubscription, n);
+                            } catch (Throwable t) {
+                                throw unchecked(t);
+                            }
+                        }
+
+                        @Override
+                        public void cancel() {
+                            try {
+                                CANCEL.invokeExact(flowSubscription);
+                            } catch (Throwable t) {
+                                throw unchecked(t);
+                            }
+                        }
+                    });
+                    break;
+                case "onNext":
+                    subscriber.onNext((T) args[0]);
+                    break;
+                case "onError":
+                    subscriber.onError((Throwable) args[0]);
+                    break;
+                default:
+                    subscriber.onComplete();
+            }
+        }
+    }
+
+    private static Object proxy(Class<?> type, Call call) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class)
+                return objectMethod(proxy, method, args);
+            call.invoke(method.getName(), args);
+            return null;
+        };
+        return Proxy.newProxyInstance(FlowBridge.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return proxy.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(proxy));
+        }
+    }
+
+    private static RuntimeException unchecked(Throwable t) {
+        if (t instanceof RuntimeException)
+            return (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        return new UndeclaredThrowableException(t);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.batch.BatchResults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+// Evaluates large sets of rows with an Evaluator, split in chunks that run in
+// parallel on an Executor (by default, the common ForkJoinPool). The workers
+// share the Evaluator, which is immutable, and each keeps its own
+// EvaluationContext, so that they don't contend on anything.
+//
+// The rows are read from the input in the calling thread, a chunk at a time,
+// with a bounded number of chunks in flight. When a row fails, the chunks not
+// started yet are skipped, and its exception is thrown once the running ones
+// are done.
+//
+// With setRandomSeed(), each chunk draws the numbers of rand() from its own
+// generator, seeded from the seed and the position of the chunk: the same
+// rows, seed and chunk size give the same results, whatever the threads.
+public final class ParallelEvaluator {
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private final Evaluator evaluator;
+    private Executor executor = ForkJoinPool.commonPool();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxChunksInFlight = 4 * Runtime.getRuntime().availableProcessors();
+    private boolean seeded;
+    private long seed;
+
+    public ParallelEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    public ParallelEvaluator setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    // Rows per task: large enough to make the cost of a task negligible,
+    // small enough to balance the load among the workers
+    public ParallelEvaluator setChunkSize(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive, is " + chunkSize);
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    // The chunks read from the input ahead of the workers
+    public ParallelEvaluator setMaxChunksInFlight(int maxChunksInFlight) {
+        if (maxChunksInFlight <= 0)
+            throw new IllegalArgumentException("Chunks in flight must be positive, are " + maxChunksInFlight);
+        this.maxChunksInFlight = maxChunksInFlight;
+        return this;
+    }
+
+    public ParallelEvaluator setRandomSeed(long seed) {
+        this.seeded = true;
+        this.seed = seed;
+        return this;
+    }
+
+    // The results in the order of the rows
+    public List<Operand> evaluate(List<? extends Map<String, ?>> rows) throws EvalException {
+        return evaluate(rows.spliterator());
+    }
+
+    public List<Operand> evaluate(Spliterator<? extends Map<String, ?>> rows) throws EvalException {
+        List<Operand[]> chunks = new ArrayList<>();
+        run(rows, length -> {
+            Operand[] results = new Operand[length];
+            chunks.add(results);
+            return (i, row, result) -> results[i] = result;
+        });
+        List<Operand> ret = new ArrayList<>();
+        for (Operand[] results : chunks)
+            ret.addAll(Arrays.asList(results));
+        return ret;
+    }
+
+    // The results as soon as they're ready, in no particular order: results
+    // is called by the workers, concurrently, with each row and its result.
+    public <T extends Map<String, ?>> void evaluate(Spliterator<T> rows, BiConsumer<? super T, Operand> results)
+            throws EvalException {
+        run(rows, length -> (i, row, result) -> results.accept(row, result));
+    }
+
+    // The rows of the batch are split in chunks as well, each evaluated by
+    // column (see Evaluator.evaluateBatch())
+    public ResultColumn evaluate(ColumnBatch batch) throws EvalException {
+        BatchResults results = new BatchResults(batch.size());
+        Tasks tasks = new Tasks();
+        for (int start = 0, index = 0; start < batch.size() && !tasks.failed(); start += chunkSize, index++) {
+            int from = start, to = Math.min(batch.size(), start + chunkSize);
+            Random random = seeded ? new Random(EvaluationContext.derivedSeed(seed, index)) : null;
+            tasks.submit(() -> evaluator.evaluateBatch(batch, from, to, results, random));
+        }
+        tasks.await();
+        return new ResultColumn(results, null);
+    }
+
+    // where the results of a chunk go
+    private interface Sink<T> {
+        void accept(int i, T row, Operand result);
+    }
+
+    // makes the sink of each chunk, in the calling thread and in order
+    private interface Sinks<T> {
+        Sink<T> of(int length);
+    }
+
+    private interface Task {
+        void run() throws EvalException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Map<String, ?>> void run(Spliterator<? extends T> rows, Sinks<T> sinks) throws EvalException {
+        Tasks tasks = new Tasks();
+        // no more rows are read once a chunk failed
+        for (long index = 0; !tasks.failed(); index++) {
+            List<T> list = new ArrayList<>(chunkSize);
+            while (list.size() < chunkSize && rows.tryAdvance(list::add))
+                ;
+            if (list.isEmpty())
+                break;
+            Object[] items = list.toArray();
+            Sink<T> sink = sinks.of(items.length);
+            long chunkSeed = EvaluationContext.derivedSeed(seed, index);
+            tasks.submit(() -> {
+                EvaluationContext context;
+                if (seeded) {
+                    context = new EvaluationContext();
+                    context.setRandomSeed(chunkSeed);
+                } else {
+                    context = Evaluator.CONTEXTS.get();
+                }
+                for (int i = 0; i < items.length; i++) {
+                    T row = (T) items[i];
+                    sink.accept(i, row, evaluator.evaluate(row, context));
+                }
+            });
+            if (items.length < chunkSize)
+                break;
+        }
+        tasks.await();
+    }
+
+    // The tasks of a single call, and the first failure among them
+    private final class Tasks {
+        private final Semaphore inFlight = new Semaphore(maxChunksInFlight);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        void submit(Task task) throws EvalException {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+                return;
+            }
+            if (failure.get() != null) {
+                inFlight.release();
+                return;
+            }
+            try {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        if (failure.get() == null)
+                            task.run();
+                    } catch (EvalException | RuntimeException | Error e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }, executor));
+            } catch (RejectedExecutionException e) {
+                // thrown by await(), after the chunks in flight
+                inFlight.release();
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        boolean failed() {
+            return failure.get() != null;
+        }
+
+        void await() throws EvalException {
+            for (CompletableFuture<Void> future : futures)
+                future.join();
+            Throwable t = failure.get();
+            if (t instanceof EvalException)
+                throw (EvalException) t;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            if (t != null)
+                throw new IllegalStateException("Interrupted while evaluating", t);
+        }
+    }
+}
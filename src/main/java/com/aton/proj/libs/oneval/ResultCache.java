@@ -0,0 +1,91 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+// The results of a pure expression, keyed by the values of its variables
+// (decoded, so "10" and 10 for a %variable are the same key); see
+// Evaluator.withResultCache(). The failures are kept as well, as the
+// EvalExceptions.
+//
+// The key has all the variables, while the evaluation may not need some of
+// them (e.g. the right side of a false &&): when one of them can't be
+// decoded there's no key, and the expression is evaluated as usual.
+final class ResultCache {
+    private final Variable[] variables;
+    private final BoundedCache<List<Operand>, Object> cache;
+
+    ResultCache(Variable[] variables, long maximumBytes) {
+        this.variables = variables;
+        cache = new BoundedCache<>(maximumBytes, ResultCache::weight);
+    }
+
+    // The key of the variables in frame, or null; the STRINGs are copied,
+    // as it's kept
+    List<Operand> key(Frame frame) {
+        Operand[] ret = new Operand[variables.length];
+        try {
+            for (int i = 0; i < ret.length; i++)
+                ret[i] = frame.get(variables[i]).materialized();
+        } catch (EvalException | RuntimeException e) {
+            return null;
+        }
+        return Arrays.asList(ret);
+    }
+
+    BoundedCache<List<Operand>, Object> cache() {
+        return cache;
+    }
+
+    // Roughly the bytes taken by an entry: the key, the result and the
+    // structures of the cache for them
+    private static long weight(List<Operand> key, Object value) {
+        long ret = 96 + 8L * key.size();
+        for (Operand operand : key)
+            ret += weight(operand);
+        if (value instanceof Operand)
+            ret += weight((Operand) value);
+        else
+            ret += 64 + 2L * ((EvalException) value).getMessage().length();
+        return ret;
+    }
+
+    private static long weight(Operand operand) {
+        switch (operand.getType()) {
+            case STRING:
+                return 88 + 2L * ((String) operand.getValue()).length();
+            case NUM:
+                return operand.isCompact() ? 48 : 96 + ((BigDecimal) operand.getValue()).unscaledValue().bitLength() / 8;
+            default:
+                // the shared constants
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.batch.BatchResults;
+
+import java.util.Arrays;
+
+// The results of Evaluator.evaluateBatch(), by row. The rows that weren't
+// evaluated, when only some were selected, have no result (null).
+//
+// The results that the batch made as longs, doubles or booleans are kept
+// that way: getLong(), getDouble() and getBoolean() return them as they are,
+// get() makes their Operands.
+public final class ResultColumn {
+    private final BatchResults values;
+    private final int[] rows;
+
+    ResultColumn(BatchResults values, int[] rows) {
+        this.values = values;
+        this.rows = rows;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public Operand get(int row) {
+        Operand ret = values.get(row);
+        return ret == null ? null : ret.materialized();
+    }
+
+    // Same as Evaluator.evaluateBoolean(), evaluateLong() and
+    // evaluateDouble(), for each row
+    public boolean getBoolean(int row) throws EvalException {
+        if (values.kind(row) == BatchResults.BOOLEAN)
+            return values.getBoolean(row);
+        return Evaluator.toBoolean(evaluated(row));
+    }
+
+    public long getLong(int row) throws EvalException {
+        if (values.kind(row) == BatchResults.LONG)
+            return values.getLong(row);
+        return evaluated(row).coalesceToLong(Evaluator.NOT_A_LONG);
+    }
+
+    public double getDouble(int row) throws EvalException {
+        switch (values.kind(row)) {
+            case BatchResults.LONG:
+                return values.getLong(row);
+            case BatchResults.DOUBLE:
+                // a NUM has no -0.0
+                return values.getDouble(row) + 0.0;
+            default:
+                return evaluated(row).coalesceToDouble(Evaluator.NOT_A_NUM);
+        }
+    }
+
+    private Operand evaluated(int row) {
+        Operand ret = values.get(row);
+        if (ret == null)
+            throw new IllegalArgumentException("Row " + row + " wasn't evaluated");
+        return ret;
+    }
+
+    // The rows whose result is TRUE, in ascending order: it's a selection
+    // to evaluate further expressions (e.g. more filters) only on them.
+    public int[] selectTrue() {
+        int[] ret = new int[rows == null ? values.size() : rows.length];
+        int n = 0;
+        if (rows == null) {
+            for (int row = 0; row < ret.length; row++)
+                if (values.isTrue(row))
+                    ret[n++] = row;
+        } else {
+            for (int row : rows)
+                if (values.isTrue(row))
+                    ret[n++] = row;
+        }
+        return Arrays.copyOf(ret, n);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.*;
+import com.aton.proj.libs.oneval.internals.nodes.Node;
+import com.aton.proj.libs.oneval.internals.nodes.NodeCompiler;
+
+import java.text.ParseException;
+import java.util.*;
+
+// Many expressions (rules) evaluated together against the same variables,
+// e.g. all the rules to match against each event. They're compiled into a
+// single node tree (see NodeCompiler), where:
+// - each variable is looked up and decoded once per evaluation, for all the
+//   rules;
+// - the subexpressions that appear in more than one rule (or more than once
+//   in one), such as lower($country), are evaluated once per evaluation, the
+//   first time a rule needs them (see CommonSubexpressions);
+// - the rules whose first condition is a simple test of a variable, such as
+//   $type == 'login' or %amount > 1000, are looked up by the value of the
+//   variable, and only those that may hold are evaluated (see RuleIndex).
+// The results are the same as those of the rules compiled on their own;
+// CompileOption.BYTECODE is ignored, the other options apply to all of them.
+// A RuleSet is immutable and thread-safe.
+public final class RuleSet {
+    private final Node[] rules;
+    private final String[] slots;
+    private final int variableCount;
+    private final int memoCount;
+    // null with EAGER_EVALUATION, where all the conditions are evaluated
+    private final RuleIndex index;
+
+    private RuleSet(Node[] rules, String[] slots, int variableCount, int memoCount, RuleIndex index) {
+        this.rules = rules;
+        this.index = index;
+        this.slots = slots;
+        this.variableCount = variableCount;
+        this.memoCount = memoCount;
+    }
+
+    public static RuleSet compile(List<String> expressions, CompileOption... options) throws ParseException {
+        Map<String, Integer> slotIndex = new LinkedHashMap<>();
+        Map<String, Variable> variables = new HashMap<>();
+        CommonSubexpressions subexpressions = new CommonSubexpressions();
+        List<Tree> trees = new ArrayList<>(expressions.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            Tree tree;
+            try {
+                tree = Tree.fromRpn(Evaluator.parse(expressions.get(i)));
+            } catch (ParseException pe) {
+                throw new ParseException("Rule " + i + ": " + pe.getMessage(), pe.getErrorOffset());
+            }
+            trees.add(subexpressions.add(Evaluator.bind(tree, slotIndex, variables)));
+        }
+
+        Map<Tree, Integer> memo = new IdentityHashMap<>();
+        for (Tree shared : subexpressions.shared())
+            memo.put(shared, memo.size());
+        boolean eager = Arrays.asList(options).contains(CompileOption.EAGER_EVALUATION);
+        Map<Tree, Node> compiled = new IdentityHashMap<>();
+        Node[] rules = new Node[trees.size()];
+        for (int i = 0; i < rules.length; i++)
+            rules[i] = NodeCompiler.compile(trees.get(i), eager, memo, compiled);
+        return new RuleSet(rules, slotIndex.keySet().toArray(new String[0]), variables.size(), memo.size(),
+                eager ? null : RuleIndex.build(trees));
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    // The names of the variables used by any of the rules
+    public List<String> getVariableSlots() {
+        return Collections.unmodifiableList(Arrays.asList(slots));
+    }
+
+    // The results of all the rules, by index. A rule that fails makes the
+    // whole evaluation fail, with the index of the rule in the message.
+    public Operand[] evaluateAll(Map<String, ?> variables) throws EvalException {
+        return evaluateAll(frame(variables, null));
+    }
+
+    public Operand[] evaluateAll(Map<String, ?> variables, EvaluationContext context) throws EvalException {
+        return evaluateAll(frame(variables, context));
+    }
+
+    // The rules whose result is TRUE
+    public BitSet matchAll(Map<String, ?> variables) throws EvalException {
+        return matchAll(frame(variables, null));
+    }
+
+    public BitSet matchAll(Map<String, ?> variables, EvaluationContext context) throws EvalException {
+        return matchAll(frame(variables, context));
+    }
+
+    // The index of the first rule whose result is TRUE, or -1 if none: the
+    // rules after it aren't evaluated at all
+    public int matchFirst(Map<String, ?> variables) throws EvalException {
+        return matchFirst(frame(variables, null));
+    }
+
+    public int matchFirst(Map<String, ?> variables, EvaluationContext context) throws EvalException {
+        return matchFirst(frame(variables, context));
+    }
+
+    private VariableFrame frame(Map<String, ?> variables, EvaluationContext context) {
+        VariableFrame ret;
+        if (context == null) {
+            ret = new VariableFrame.OfMap(variables, new Operand[variableCount]);
+            ret.memo = new Operand[memoCount];
+        } else {
+            ret = context.frame(variables, variableCount);
+            ret.memo = context.memo(memoCount);
+        }
+        return ret;
+    }
+
+    private Operand[] evaluateAll(Frame frame) throws EvalException {
+        Operand[] ret = new Operand[rules.length];
+        if (index == null) {
+            for (int i = 0; i < rules.length; i++)
+                ret[i] = evaluate(i, frame);
+            return ret;
+        }
+        Arrays.fill(ret, Operand.FALSE);
+        BitSet candidates = index.candidates(frame);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+            ret[i] = evaluate(i, frame);
+        return ret;
+    }
+
+    private BitSet matchAll(Frame frame) throws EvalException {
+        BitSet ret = new BitSet(rules.length);
+        if (index == null) {
+            for (int i = 0; i < rules.length; i++)
+                if (evaluate(i, frame) == Operand.TRUE)
+                    ret.set(i);
+            return ret;
+        }
+        BitSet candidates = index.candidates(frame);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+            if (evaluate(i, frame) == Operand.TRUE)
+                ret.set(i);
+        return ret;
+    }
+
+    private int matchFirst(Frame frame) throws EvalException {
+        if (index == null) {
+            for (int i = 0; i < rules.length; i++)
+                if (evaluate(i, frame) == Operand.TRUE)
+                    return i;
+            return -1;
+        }
+        BitSet candidates = index.candidates(frame);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+            if (evaluate(i, frame) == Operand.TRUE)
+                return i;
+        return -1;
+    }
+
+    private Operand evaluate(int rule, Frame frame) throws EvalException {
+        try {
+            return rules[rule].eval(frame).materialized();
+        } catch (EvalException e) {
+            throw new EvalException("Rule " + rule + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// A filter-and-project stage over a stream of records: the records passing
+// the filter (any, without one) become the results of the projections, in
+// the order of the records.
+//
+// The records are evaluated a chunk at a time, all together: the values of
+// the variables are gathered by column, then each Evaluator runs once on the
+// chunk (see Evaluator.evaluateBatch()), the projections on the records
+// passing the filter only. When a record fails, the results of the records
+// before it are returned first, then its EvalException is thrown, wrapped in
+// an IllegalArgumentException as by Evaluator.asPredicate(), and the stream
+// ends.
+//
+// The results can be pulled, from an Iterator or a Spliterator: a chunk of
+// records is read ahead at most (though finding the next result takes as many
+// chunks as the filter rejects). Or they can be pushed to a Subscriber, as
+// much as it requests, from an Iterator or a Spliterator read in the thread
+// calling request(), or from a Publisher of records, which is asked for a
+// chunk of records at a time, only while results are wanted and none is left.
+// With setRandomSeed(), each chunk draws the numbers of rand() from its own
+// generator, seeded from the seed and the position of the chunk, as in a
+// ParallelEvaluator: the same records give the same results, and what a chunk
+// draws doesn't depend on the chunks before it.
+// A stream is NOT thread-safe; the StreamEvaluator is, once set up.
+public final class StreamEvaluator {
+    private static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final Evaluator filter;
+    private final Evaluator[] projections;
+    // the variables of all the Evaluators, the columns of a chunk
+    private final String[] names;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean seeded;
+    private long seed;
+
+    // The interfaces of Reactive Streams, the same as the ones nested in
+    // java.util.concurrent.Flow, that is not in Java 8; see toFlow() and
+    // fromFlow() to adapt them. A Subscriber is called by one thread at a time.
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+    // filter: null for none
+    public StreamEvaluator(Evaluator filter, Evaluator... projections) {
+        this.filter = filter;
+        this.projections = projections.clone();
+        Set<String> names = new LinkedHashSet<>();
+        if (filter != null)
+            names.addAll(filter.getVariableSlots());
+        for (Evaluator projection : projections)
+            names.addAll(projection.getVariableSlots());
+        this.names = names.toArray(new String[0]);
+    }
+
+    // The records evaluated in one go, i.e. the most read ahead
+    public StreamEvaluator setChunkSize(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive, is " + chunkSize);
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public StreamEvaluator setRandomSeed(long seed) {
+        this.seeded = true;
+        this.seed = seed;
+        return this;
+    }
+
+    // The results of the projections for each record passing the filter
+    public Iterator<Operand[]> evaluate(Iterator<? extends Map<String, ?>> records) {
+        return Spliterators.iterator(evaluate(Spliterators.spliteratorUnknownSize(records, Spliterator.ORDERED)));
+    }
+
+    // Sequential: the stream of the results can't be split (ParallelEvaluator
+    // is for that)
+    public Spliterator<Operand[]> evaluate(Spliterator<? extends Map<String, ?>> records) {
+        return new Stage<>(records, new Projections());
+    }
+
+    // A new stream, subscribing to records, for every Subscriber
+    public Publisher<Operand[]> evaluate(Publisher<? extends Map<String, ?>> records) {
+        return subscriber -> subscribe(records, subscriber, new Projections());
+    }
+
+    // The results of evaluate(records), for a single Subscriber
+    public Publisher<Operand[]> publish(Iterator<? extends Map<String, ?>> records) {
+        return publish(Spliterators.spliteratorUnknownSize(records, Spliterator.ORDERED));
+    }
+
+    public Publisher<Operand[]> publish(Spliterator<? extends Map<String, ?>> records) {
+        return new Puller<>(evaluate(records));
+    }
+
+    // The records passing the filter, as they are
+    public <T extends Map<String, ?>> Iterator<T> filter(Iterator<T> records) {
+        return Spliterators.iterator(filter(Spliterators.spliteratorUnknownSize(records, Spliterator.ORDERED)));
+    }
+
+    public <T extends Map<String, ?>> Spliterator<T> filter(Spliterator<T> records) {
+        return new Stage<>(records, new Selection<>());
+    }
+
+    public <T extends Map<String, ?>> Publisher<T> filter(Publisher<T> records) {
+        return subscriber -> subscribe(records, subscriber, new Selection<>());
+    }
+
+    // Adapters to and from java.util.concurrent.Flow, on Java 9 and later:
+    // toFlow() returns a Flow.Publisher, fromFlow() takes one
+    public static Object toFlow(Publisher<?> publisher) {
+        return FlowBridge.toFlow(publisher);
+    }
+
+    public static <T> Publisher<T> fromFlow(Object flowPublisher) {
+        return FlowBridge.fromFlow(flowPublisher);
+    }
+
+    private <T, R> void subscribe(Publisher<? extends T> records, Subscriber<? super R> subscriber, Chunk<T, R> chunk) {
+        Processor<T, R> processor = new Processor<>(subscriber, chunk);
+        subscriber.onSubscribe(processor);
+        records.subscribe(processor);
+    }
+
+    // A chunk of records and their results. The results of a chunk are all
+    // evaluated together; if that fails, they're evaluated again one by one,
+    // to keep the results of the records before the failing one.
+    private abstract class Chunk<T, R> {
+        final EvaluationContext context = new EvaluationContext();
+        private final Object[] records = new Object[chunkSize];
+        final Object[] results = new Object[chunkSize];
+        private final Object[][] columns = new Object[names.length][chunkSize];
+        // the same columns, when they're all integers
+        private final long[][] longs = new long[names.length][];
+        int count;
+        private int next;
+        private int size;
+        // thrown after the results before it
+        private RuntimeException failure;
+        // of the next chunk, for its seed
+        private long index;
+
+        // the result of a record, null if it's filtered out
+        abstract R evaluateOne(T record, EvaluationContext context) throws EvalException;
+
+        // the results of all the records into results[], how many there are
+        abstract int evaluateAll(ColumnBatch batch) throws EvalException;
+
+        @SuppressWarnings("unchecked")
+        T record(int i) {
+            return (T) records[i];
+        }
+
+        final void add(T record) {
+            records[count++] = record;
+        }
+
+        final boolean isFull() {
+            return count == records.length;
+        }
+
+        final boolean hasResult() {
+            return next < size;
+        }
+
+        @SuppressWarnings("unchecked")
+        final R take() {
+            R ret = (R) results[next];
+            results[next++] = null;
+            return ret;
+        }
+
+        final int remaining() {
+            return size - next;
+        }
+
+        // the failure, once the results before it are taken; only once
+        final RuntimeException takeFailure() {
+            if (next < size)
+                return null;
+            RuntimeException ret = failure;
+            failure = null;
+            return ret;
+        }
+
+        // evaluates the records added, then drops them
+        final void evaluate() {
+            next = size = 0;
+            if (count == 0)
+                return;
+            if (seeded)
+                context.setRandomSeed(EvaluationContext.derivedSeed(seed, index++));
+            try {
+                size = evaluateAll(batch());
+            } catch (EvalException | RuntimeException e) {
+                Arrays.fill(results, null);
+                size = 0;
+                evaluateEach();
+            }
+            for (Object[] column : columns)
+                Arrays.fill(column, 0, count, null);
+            Arrays.fill(records, 0, count, null);
+            count = 0;
+        }
+
+        // The values of the variables by column. The columns of integers (and
+        // NULLs) are passed as long[]s, that the batch operations can compare
+        // without making an Operand for each row, with the same results.
+        private ColumnBatch batch() {
+            ColumnBatch ret = new ColumnBatch(count);
+            for (int i = 0; i < names.length; i++) {
+                Object[] column = columns[i];
+                boolean integers = true;
+                for (int row = 0; row < count; row++) {
+                    Object value = ((Map<?, ?>) records[row]).get(names[i]);
+                    column[row] = value;
+                    integers &= value == null || value instanceof Long || value instanceof Integer
+                            || value instanceof Short || value instanceof Byte;
+                }
+                if (!integers) {
+                    ret.set(names[i], column);
+                    continue;
+                }
+                if (longs[i] == null)
+                    longs[i] = new long[chunkSize];
+                long[] values = longs[i];
+                BitSet nulls = null;
+                for (int row = 0; row < count; row++) {
+                    if (column[row] != null) {
+                        values[row] = ((Number) column[row]).longValue();
+                    } else {
+                        if (nulls == null)
+                            nulls = new BitSet(count);
+                        nulls.set(row);
+                    }
+                }
+                ret.set(names[i], values, nulls);
+            }
+            return ret;
+        }
+
+        private void evaluateEach() {
+            for (int i = 0; i < count; i++) {
+                try {
+                    R result = evaluateOne(record(i), context);
+                    if (result != null)
+                        results[size++] = result;
+                } catch (EvalException e) {
+                    failure = new IllegalArgumentException(e.getMessage(), e);
+                    return;
+                } catch (RuntimeException e) {
+                    failure = e;
+                    return;
+                }
+            }
+        }
+
+        // the rows passing the filter, null for all
+        final int[] select(ColumnBatch batch) throws EvalException {
+            if (filter == null)
+                return null;
+            ResultColumn passed = filter.evaluateBatch(batch, context);
+            int[] ret = new int[batch.size()];
+            int n = 0;
+            for (int row = 0; row < ret.length; row++)
+                if (passed.getBoolean(row))
+                    ret[n++] = row;
+            return Arrays.copyOf(ret, n);
+        }
+    }
+
+    private final class Projections extends Chunk<Map<String, ?>, Operand[]> {
+        @Override
+        Operand[] evaluateOne(Map<String, ?> record, EvaluationContext context) throws EvalException {
+            if (filter != null && !filter.evaluateBoolean(record, context))
+                return null;
+            Operand[] ret = new Operand[projections.length];
+            for (int i = 0; i < ret.length; i++)
+                ret[i] = projections[i].evaluate(record, context);
+            return ret;
+        }
+
+        @Override
+        int evaluateAll(ColumnBatch batch) throws EvalException {
+            int[] rows = select(batch);
+            int size = rows == null ? batch.size() : rows.length;
+            if (size == 0)
+                return 0;
+            ResultColumn[] values = new ResultColumn[projections.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = rows == null ? projections[i].evaluateBatch(batch, context)
+                        : projections[i].evaluateBatch(batch, rows, context);
+            for (int j = 0; j < size; j++) {
+                int row = rows == null ? j : rows[j];
+                Operand[] result = new Operand[values.length];
+                for (int i = 0; i < values.length; i++)
+                    result[i] = values[i].get(row);
+                results[j] = result;
+            }
+            return size;
+        }
+    }
+
+    private final class Selection<T extends Map<String, ?>> extends Chunk<T, T> {
+        @Override
+        T evaluateOne(T record, EvaluationContext context) throws EvalException {
+            return filter == null || filter.evaluateBoolean(record, context) ? record : null;
+        }
+
+        @Override
+        int evaluateAll(ColumnBatch batch) throws EvalException {
+            int[] rows = select(batch);
+            int size = rows == null ? batch.size() : rows.length;
+            for (int j = 0; j < size; j++)
+                results[j] = record(rows == null ? j : rows[j]);
+            return size;
+        }
+    }
+
+    private static final class Stage<T, R> implements Spliterator<R> {
+        private final Spliterator<? extends T> source;
+        private final Chunk<T, R> chunk;
+        private final Consumer<T> reader;
+        private boolean done;
+
+        Stage(Spliterator<? extends T> source, Chunk<T, R> chunk) {
+            this.source = source;
+            this.chunk = chunk;
+            this.reader = chunk::add;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super R> action) {
+            while (!chunk.hasResult())
+                if (!fill())
+                    return false;
+            action.accept(chunk.take());
+            return true;
+        }
+
+        // reads and evaluates a chunk of records, false at the end of the
+        // stream; the records filtered out may leave it without results
+        private boolean fill() {
+            RuntimeException failure = chunk.takeFailure();
+            if (failure != null) {
+                done = true;
+                throw failure;
+            }
+            if (done)
+                return false;
+            while (!chunk.isFull() && !done)
+                if (!source.tryAdvance(reader))
+                    done = true;
+            chunk.evaluate();
+            return true;
+        }
+
+        @Override
+        public Spliterator<R> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return done ? chunk.remaining() : source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    // The Subscription of a Subscriber of results. The signals to the
+    // Subscriber are made by a single thread at a time, the one that finds
+    // no other in drain(); the others leave their work to it.
+    private abstract static class Emitter<R> implements Subscription {
+        final Subscriber<? super R> downstream;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        volatile boolean cancelled;
+        // signalled as soon as possible
+        private volatile Throwable error;
+        // no more signals
+        volatile boolean finished;
+
+        Emitter(Subscriber<? super R> downstream) {
+            this.downstream = downstream;
+        }
+
+        // emits up to demand results, returning how many
+        abstract long emit(long demand);
+
+        // called once, when finished
+        abstract void release();
+
+        @Override
+        public final void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " results, must be positive");
+            } else {
+                long r, u;
+                do {
+                    r = requested.get();
+                    u = r + n < 0 ? Long.MAX_VALUE : r + n;
+                } while (!requested.compareAndSet(r, u));
+            }
+            drain();
+        }
+
+        @Override
+        public final void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        final void fail(Throwable t) {
+            error = t;
+            drain();
+        }
+
+        final void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                try {
+                    step();
+                } catch (RuntimeException | Error e) {
+                    finished = true;
+                    release();
+                    throw e;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void step() {
+            if (finished)
+                return;
+            if (cancelled) {
+                finished = true;
+                release();
+                return;
+            }
+            Throwable t = error;
+            if (t != null) {
+                finish(t);
+                return;
+            }
+            long demand = requested.get();
+            long emitted = emit(demand);
+            if (emitted != 0 && demand != Long.MAX_VALUE)
+                requested.addAndGet(-emitted);
+        }
+
+        // t: null to complete
+        final void finish(Throwable t) {
+            finished = true;
+            release();
+            if (t == null)
+                downstream.onComplete();
+            else
+                downstream.onError(t);
+        }
+    }
+
+    // Pulls the results from a Spliterator, in the thread of request()
+    private static final class Puller<R> implements Publisher<R> {
+        private final Spliterator<R> results;
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+
+        Puller(Spliterator<R> results) {
+            this.results = results;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super R> subscriber) {
+            boolean first = subscribed.compareAndSet(false, true);
+            Emitter<R> emitter = new Emitter<R>(subscriber) {
+                private final Consumer<R> next = downstream::onNext;
+
+                @Override
+                long emit(long demand) {
+                    long emitted = 0;
+                    while (first && emitted != demand && !cancelled) {
+                        boolean more;
+                        try {
+                            more = results.tryAdvance(next);
+                        } catch (RuntimeException e) {
+                            finish(e);
+                            return emitted;
+                        }
+                        if (!more) {
+                            finish(null);
+                            return emitted;
+                        }
+                        emitted++;
+                    }
+                    return emitted;
+                }
+
+                @Override
+                void release() {
+                }
+            };
+            subscriber.onSubscribe(emitter);
+            if (!first)
+                emitter.fail(new IllegalStateException("The results are published to a single Subscriber"));
+        }
+    }
+
+    // Subscribes to the records on behalf of a Subscriber of the results. The
+    // records received are kept in the inbox until the thread in drain()
+    // evaluates them, as a chunk; more are requested when the results run out
+    // while the Subscriber wants some, a chunk at a time.
+    private final class Processor<T, R> extends Emitter<R> implements Subscriber<T> {
+        private final Chunk<T, R> chunk;
+        private final Object[] inbox = new Object[chunkSize];
+        // guarded by inbox
+        private int received;
+        private long receivedTotal;
+        private volatile Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile Throwable upstreamFailure;
+        // records requested, by drain() only
+        private long requestedTotal;
+
+        Processor(Subscriber<? super R> downstream, Chunk<T, R> chunk) {
+            super(downstream);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            if (finished)
+                subscription.cancel();
+            else
+                drain();
+        }
+
+        @Override
+        public void onNext(T record) {
+            synchronized (inbox) {
+                if (received < inbox.length) {
+                    inbox[received++] = record;
+                    receivedTotal++;
+                } else {
+                    upstreamFailure = new IllegalStateException("More records than requested");
+                    upstreamDone = true;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            upstreamFailure = throwable;
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        long emit(long demand) {
+            long emitted = 0;
+            while (true) {
+                while (emitted != demand && chunk.hasResult() && !cancelled) {
+                    downstream.onNext(chunk.take());
+                    emitted++;
+                }
+                if (chunk.hasResult() || cancelled)
+                    return emitted;
+                RuntimeException failure = chunk.takeFailure();
+                if (failure != null) {
+                    finish(failure);
+                    return emitted;
+                }
+
+                // read before the inbox: once done, no more records come
+                boolean done = upstreamDone;
+                long total;
+                synchronized (inbox) {
+                    for (int i = 0; i < received; i++) {
+                        chunk.add(castRecord(inbox[i]));
+                        inbox[i] = null;
+                    }
+                    received = 0;
+                    total = receivedTotal;
+                }
+                if (chunk.count > 0) {
+                    chunk.evaluate();
+                    continue;
+                }
+                if (done) {
+                    finish(upstreamFailure);
+                    return emitted;
+                }
+                Subscription s = upstream;
+                if (emitted == demand || s == null || requestedTotal != total)
+                    return emitted;
+                requestedTotal += chunkSize;
+                s.request(chunkSize);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private T castRecord(Object record) {
+            return (T) record;
+        }
+
+        @Override
+        void release() {
+            Subscription s = upstream;
+            if (s != null && !upstreamDone)
+                s.cancel();
+        }
+    }
+}
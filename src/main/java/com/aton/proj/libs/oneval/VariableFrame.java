@@ -0,0 +1,143 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+import com.aton.proj.libs.oneval.internals.Coercion;
+import com.aton.proj.libs.oneval.internals.Frame;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.Variable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+// The variables of a single evaluation, each converted to an Operand the
+// first time it's used and then kept in decoded[], by Variable.getIndex().
+// The frames of an EvaluationContext are reused, see EvaluationContext.frame().
+abstract class VariableFrame implements Frame {
+    Operand[] decoded;
+    // set by RuleSet only
+    Operand[] memo;
+    // set from the EvaluationContext, if seeded
+    Random random;
+
+    VariableFrame(Operand[] decoded) {
+        this.decoded = decoded;
+    }
+
+    abstract Operand load(Variable variable);
+
+    @Override
+    public final Operand[] memo() {
+        return memo;
+    }
+
+    @Override
+    public final Random random() {
+        return random;
+    }
+
+    @Override
+    public final Operand get(Variable variable) {
+        Operand ret = decoded[variable.getIndex()];
+        if (ret == null)
+            decoded[variable.getIndex()] = ret = load(variable);
+        return ret;
+    }
+
+    static final class OfMap extends VariableFrame {
+        private Map<String, ?> variables;
+
+        OfMap(Map<String, ?> variables, Operand[] decoded) {
+            super(decoded);
+            this.variables = variables;
+        }
+
+        OfMap reset(Map<String, ?> variables, Operand[] decoded) {
+            this.decoded = decoded;
+            this.variables = variables;
+            return this;
+        }
+
+        @Override
+        Operand load(Variable variable) {
+            if (variables == null)
+                return Operand.NULL;
+            return Coercion.toOperand(variable.getType(), variables.get(variable.getId()));
+        }
+    }
+
+    static final class OfBindings extends VariableFrame {
+        private Bindings bindings;
+
+        OfBindings(Bindings bindings, Operand[] decoded) {
+            super(decoded);
+            this.bindings = bindings;
+        }
+
+        OfBindings reset(Bindings bindings, Operand[] decoded) {
+            this.decoded = decoded;
+            this.bindings = bindings;
+            return this;
+        }
+
+        @Override
+        Operand load(Variable variable) {
+            return bindings.operand(variable);
+        }
+    }
+
+    static final class OfResolver extends VariableFrame {
+        // marks the slots of resolved[] not resolved yet
+        private static final Object UNRESOLVED = new Object();
+
+        private VariableResolver resolver;
+        private Object[] resolved;
+
+        OfResolver(VariableResolver resolver, Object[] resolved, int slots, Operand[] decoded) {
+            super(decoded);
+            this.resolver = resolver;
+            this.resolved = resolved;
+            Arrays.fill(resolved, 0, slots, UNRESOLVED);
+        }
+
+        OfResolver reset(VariableResolver resolver, Object[] resolved, int slots, Operand[] decoded) {
+            this.decoded = decoded;
+            this.resolver = resolver;
+            this.resolved = resolved;
+            Arrays.fill(resolved, 0, slots, UNRESOLVED);
+            return this;
+        }
+
+        // by slot, not by Variable: $a and %a share a single call
+        @Override
+        Operand load(Variable variable) {
+            Object value = resolved[variable.getSlot()];
+            if (value == UNRESOLVED)
+                resolved[variable.getSlot()] = value = resolver.resolve(variable.getId());
+            return Coercion.toOperand(variable.getType(), value);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval;
+
+// Supplies the value of a variable when the evaluation first needs it, for
+// values that are expensive to compute: the variables that the evaluation
+// doesn't reach (e.g. behind a false guard of an &&) are never resolved, and
+// the others are resolved once per evaluation, whatever their sigils.
+//
+// The values are the same accepted in a Map (Strings, numbers, booleans, ...,
+// or null for a missing variable); see Coercion.
+@FunctionalInterface
+public interface VariableResolver {
+    Object resolve(String name);
+}
@@ -0,0 +1,267 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+// A concurrent cache bounded by the total weight of its entries.
+//
+// Hits are lock-free: they only read a ConcurrentHashMap and set a
+// "referenced" bit on the entry. Eviction uses the CLOCK (second chance)
+// approximation of LRU over the entries in insertion order. Concurrent misses
+// on the same key are collapsed, so the loader runs once per key and the
+// other callers wait for its result.
+public final class BoundedCache<K, V> {
+    private static final int LOADING = 0;
+    private static final int LIVE = 1;
+    private static final int RETIRED = 2;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final Object evictionLock = new Object();
+    private final AtomicLong weight = new AtomicLong();
+    // the replaced and invalidated nodes that may still be in the clock
+    private final AtomicInteger retired = new AtomicInteger();
+    private final long maximumWeight;
+    private final ToLongBiFunction<? super K, ? super V> weigher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(long maximumSize) {
+        this(maximumSize, (k, v) -> 1L);
+    }
+
+    public BoundedCache(long maximumWeight, ToLongBiFunction<? super K, ? super V> weigher) {
+        if (maximumWeight <= 0)
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            Node<K, V> created = new Node<>(key);
+            node = map.putIfAbsent(key, created);
+            if (node == null)
+                return load(created, loader);
+        }
+
+        hits.increment();
+        if (!node.referenced)
+            node.referenced = true;
+        return node.get();
+    }
+
+    // Returns the cached value, or null if absent (or still being loaded).
+    public V getIfPresent(K key) {
+        Node<K, V> node = map.get(key);
+        V value = node == null ? null : node.value;
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!node.referenced)
+            node.referenced = true;
+        return value;
+    }
+
+    public void put(K key, V value) {
+        Node<K, V> created = new Node<>(key);
+        Node<K, V> previous = map.put(key, created);
+        if (previous != null)
+            discard(previous);
+        complete(created, value);
+    }
+
+    private V load(Node<K, V> node, Function<? super K, ? extends V> loader) {
+        misses.increment();
+        V value;
+        try {
+            value = loader.apply(node.key);
+            if (value == null)
+                throw new NullPointerException("The cache loader returned null");
+        } catch (RuntimeException | Error e) {
+            map.remove(node.key, node);
+            node.state.set(RETIRED);
+            node.fail(e);
+            throw e;
+        }
+        complete(node, value);
+        return value;
+    }
+
+    private void complete(Node<K, V> node, V value) {
+        long w = Math.max(1L, weigher.applyAsLong(node.key, value));
+        node.weight = w;
+        node.complete(value);
+        weight.addAndGet(w);
+        if (!node.state.compareAndSet(LOADING, LIVE)) {
+            // invalidated while loading
+            weight.addAndGet(-w);
+            return;
+        }
+        clock.offer(node);
+        if (weight.get() > maximumWeight)
+            evict();
+    }
+
+    private boolean retire(Node<K, V> node) {
+        if (node.state.getAndSet(RETIRED) != LIVE)
+            return false;
+        weight.addAndGet(-node.weight);
+        return true;
+    }
+
+    // Retires a node dropped from the map by put() or invalidate(). Being
+    // still in the clock, the node (and its value) would only be unlinked by
+    // evict(), which may never run if the cache stays small: once the
+    // retired nodes outnumber the live ones, they're swept away
+    private void discard(Node<K, V> node) {
+        if (!retire(node))
+            return;
+        if (retired.incrementAndGet() > Math.max(64, map.size())) {
+            synchronized (evictionLock) {
+                retired.set(0);
+                clock.removeIf(n -> n.state.get() == RETIRED);
+            }
+        }
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            // every node gets at most one second chance per round, so a burst
+            // of hits can't keep the hand spinning forever
+            int secondChances = map.size();
+            while (weight.get() > maximumWeight) {
+                Node<K, V> node = clock.poll();
+                if (node == null)
+                    return;
+                if (map.get(node.key) != node)
+                    continue; // already replaced or invalidated
+                if (node.referenced && secondChances-- > 0) {
+                    node.referenced = false;
+                    clock.offer(node);
+                    continue;
+                }
+                if (map.remove(node.key, node)) {
+                    retire(node);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        Node<K, V> node = map.remove(key);
+        if (node != null)
+            discard(node);
+    }
+
+    public void clear() {
+        for (K key : map.keySet())
+            invalidate(key);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long weight() {
+        return weight.get();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final AtomicInteger state = new AtomicInteger(LOADING);
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private volatile V value;
+        private volatile Throwable failure;
+        private volatile boolean referenced;
+        private volatile long weight;
+
+        private Node(K key) {
+            this.key = key;
+        }
+
+        private void complete(V value) {
+            this.value = value;
+            loaded.countDown();
+        }
+
+        private void fail(Throwable failure) {
+            this.failure = failure;
+            loaded.countDown();
+        }
+
+        private V get() {
+            V v = value;
+            if (v != null)
+                return v;
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    loaded.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            Throwable t = failure;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            return value;
+        }
+    }
+}
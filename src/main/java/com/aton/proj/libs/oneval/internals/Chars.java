@@ -0,0 +1,121 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+// The String methods used by the string functions, for any CharSequence (see
+// Operand.chars()), with the same results; Strings go to the String methods.
+public final class Chars {
+    private Chars() {
+    }
+
+    public static boolean contentEquals(CharSequence s1, CharSequence s2) {
+        if (s1 instanceof String)
+            return ((String) s1).contentEquals(s2);
+        if (s2 instanceof String)
+            return ((String) s2).contentEquals(s1);
+        int length = s1.length();
+        if (length != s2.length())
+            return false;
+        for (int i = 0; i < length; i++)
+            if (s1.charAt(i) != s2.charAt(i))
+                return false;
+        return true;
+    }
+
+    // same as String.hashCode()
+    public static int hashCode(CharSequence s) {
+        if (s instanceof String)
+            return s.hashCode();
+        int ret = 0;
+        for (int i = 0; i < s.length(); i++)
+            ret = 31 * ret + s.charAt(i);
+        return ret;
+    }
+
+    // same as String.compareTo()
+    public static int compare(CharSequence s1, CharSequence s2) {
+        if (s1 instanceof String && s2 instanceof String)
+            return ((String) s1).compareTo((String) s2);
+        int l1 = s1.length(), l2 = s2.length();
+        for (int i = 0; i < Math.min(l1, l2); i++) {
+            char c1 = s1.charAt(i), c2 = s2.charAt(i);
+            if (c1 != c2)
+                return c1 - c2;
+        }
+        return l1 - l2;
+    }
+
+    public static boolean startsWith(CharSequence s, CharSequence prefix) {
+        if (s instanceof String && prefix instanceof String)
+            return ((String) s).startsWith((String) prefix);
+        return regionMatches(s, 0, prefix);
+    }
+
+    public static boolean endsWith(CharSequence s, CharSequence suffix) {
+        if (s instanceof String && suffix instanceof String)
+            return ((String) s).endsWith((String) suffix);
+        return regionMatches(s, s.length() - suffix.length(), suffix);
+    }
+
+    public static int indexOf(CharSequence s, CharSequence target) {
+        if (s instanceof String && target instanceof String)
+            return ((String) s).indexOf((String) target);
+        int last = s.length() - target.length();
+        if (target.length() == 0)
+            return 0;
+        char first = target.charAt(0);
+        for (int i = 0; i <= last; i++)
+            if (s.charAt(i) == first && regionMatches(s, i, target))
+                return i;
+        return -1;
+    }
+
+    // same as String.equalsIgnoreCase()
+    public static boolean equalsIgnoreCase(CharSequence s1, CharSequence s2) {
+        if (s1 instanceof String && s2 instanceof String)
+            return ((String) s1).equalsIgnoreCase((String) s2);
+        int length = s1.length();
+        if (length != s2.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c1 = s1.charAt(i), c2 = s2.charAt(i);
+            if (c1 != c2 && Character.toUpperCase(c1) != Character.toUpperCase(c2)
+                    && Character.toLowerCase(Character.toUpperCase(c1))
+                    != Character.toLowerCase(Character.toUpperCase(c2)))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(CharSequence s, int offset, CharSequence other) {
+        int length = other.length();
+        if (offset < 0 || offset > s.length() - length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (s.charAt(offset + i) != other.charAt(i))
+                return false;
+        return true;
+    }
+}
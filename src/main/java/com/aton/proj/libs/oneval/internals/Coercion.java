@@ -0,0 +1,119 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+// Turns the value of a variable into an Operand of the type given by its
+// sigil. Values that aren't Strings give the same result as their String
+// form (toString()) would, but numbers are converted directly, without
+// formatting and parsing them back.
+public final class Coercion {
+    private Coercion() {
+    }
+
+    public static Operand toOperand(ValuedItem.Type type, Object value) {
+        if (value == null)
+            return Operand.NULL;
+        if (value instanceof String)
+            return fromString(type, (String) value);
+        if (value instanceof CharSequence)
+            return fromChars(type, (CharSequence) value);
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return fromLong(type, ((Number) value).longValue());
+        if (value instanceof Double)
+            return fromDouble(type, (Double) value);
+        if (value instanceof Boolean && type == ValuedItem.Type.BOOL)
+            return Operand.boolOperand((Boolean) value);
+        if (type == ValuedItem.Type.NUM) {
+            if (value instanceof BigDecimal)
+                return Operand.numOperand((BigDecimal) value);
+            if (value instanceof BigInteger)
+                return Operand.numOperand(new BigDecimal((BigInteger) value));
+        }
+        return fromString(type, value.toString());
+    }
+
+    public static Operand fromString(ValuedItem.Type type, String value) {
+        if (value == null)
+            return Operand.NULL;
+        switch (type) {
+            case STRING:
+                return Operand.strOperand(value);
+            case NUM:
+                return Operand.parseNumOperand(value);
+            case BOOL:
+                return Operand.boolOperand("1".equals(value) || "true".equalsIgnoreCase(value));
+            default:
+                return Operand.NULL;
+        }
+    }
+
+    // Same as fromString(type, value.toString()), without the copy for a
+    // STRING (see Operand.strOperand(CharSequence)) or a NUM
+    public static Operand fromChars(ValuedItem.Type type, CharSequence value) {
+        switch (type) {
+            case STRING:
+                return Operand.strOperand(value);
+            case NUM:
+                return Operand.parseNumOperand(value);
+            case BOOL:
+                return Operand.boolOperand(Chars.contentEquals("1", value) || Chars.equalsIgnoreCase("true", value));
+            default:
+                return Operand.NULL;
+        }
+    }
+
+    public static Operand fromLong(ValuedItem.Type type, long value) {
+        switch (type) {
+            case STRING:
+                return Operand.strOperand(Long.toString(value));
+            case NUM:
+                return Operand.numOperand(value, 0);
+            case BOOL:
+                return Operand.boolOperand(value == 1);
+            default:
+                return Operand.NULL;
+        }
+    }
+
+    // Like Double.toString(value) would be: NaN and the infinities aren't
+    // numbers, and "1.0" is not a true BOOL
+    public static Operand fromDouble(ValuedItem.Type type, double value) {
+        switch (type) {
+            case STRING:
+                return Operand.strOperand(Double.toString(value));
+            case NUM:
+                if (value == (long) value && Math.abs(value) < 1L << 53)
+                    return Operand.numOperand((long) value, 0);
+                return Operand.numOperand(BigDecimal.valueOf(value));
+            case BOOL:
+                return Operand.FALSE;
+            default:
+                return Operand.NULL;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Merges the identical subtrees of a set of expression trees, so that each
+// distinct subexpression is a single Tree however many times it appears, and
+// counts where each one is used. The subtrees calling functions that aren't
+// pure (e.g. rand()) are never merged, as each call has to happen.
+//
+// The trees must be bound to the same variables (the same Variable for the
+// same name and type), as they are compared by identity.
+public final class CommonSubexpressions {
+    private final Map<List<Object>, Tree> unique = new HashMap<>();
+    private final Map<Tree, Integer> uses = new IdentityHashMap<>();
+    // the subtrees calling impure functions, left out of unique
+    private final Set<Tree> impure = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // The tree with its subtrees merged with those seen so far, as an
+    // expression on its own
+    public Tree add(Tree tree) {
+        Tree ret = intern(tree);
+        uses.merge(ret, 1, Integer::sum);
+        return ret;
+    }
+
+    private Tree intern(Tree tree) {
+        Tree[] children = new Tree[tree.children.length];
+        boolean pure = tree.function() == null || tree.function().pure;
+        for (int i = 0; i < children.length; i++) {
+            children[i] = intern(tree.children[i]);
+            pure &= !impure.contains(children[i]);
+        }
+        Tree ret;
+        if (pure) {
+            List<Object> key = key(tree.item, children);
+            ret = unique.get(key);
+            if (ret != null)
+                return ret;
+            unique.put(key, ret = children.length == 0 ? tree : new Tree(tree.item, children));
+        } else {
+            impure.add(ret = new Tree(tree.item, children));
+        }
+        for (Tree child : children)
+            uses.merge(child, 1, Integer::sum);
+        return ret;
+    }
+
+    // Operands are compared by value, Functions and Variables by identity,
+    // and so are the children, already merged
+    private static List<Object> key(Item item, Tree[] children) {
+        Object[] ret = new Object[children.length + 1];
+        ret[0] = item;
+        System.arraycopy(children, 0, ret, 1, children.length);
+        return Arrays.asList(ret);
+    }
+
+    // The function calls used more than once among the trees added, which
+    // are worth evaluating once and keeping the result of
+    public List<Tree> shared() {
+        List<Tree> ret = new ArrayList<>();
+        for (Map.Entry<Tree, Integer> e : uses.entrySet())
+            if (e.getValue() > 1 && e.getKey().function() != null)
+                ret.add(e.getKey());
+        return ret;
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormat;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalField;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A SimpleDateFormat pattern, as used by epochToStr() and strToEpoch(),
+// translated to an immutable DateTimeFormatter with the same results.
+//
+// The translation covers the numeric fields, the literals, the offsets (Z and
+// X) and, when formatting, the names of months, days, eras and AM/PM, taken
+// from the same DateFormatSymbols SimpleDateFormat uses. Anything else (zone
+// names, week based fields, non-ASCII digits, other calendars) and the dates
+// before 1900 or so, where the calendars and the time zone data differ, go
+// through a clone of a SimpleDateFormat made once.
+//
+// The patterns are cached by pattern and locale, as the default locale may
+// change; NodeCompiler resolves the literal ones at compile time.
+public final class DatePattern {
+    private static final BoundedCache<Key, DatePattern> CACHE = new BoundedCache<>(1024);
+
+    // 1582-10-15T00:00Z, the first Gregorian day of GregorianCalendar, plus
+    // a day for the offsets
+    private static final long GREGORIAN_CUTOVER = -12219292800L + 86400;
+    // TimeZone has the transitions since 1900 only, and uses no local mean
+    // time: the offsets are the same after the first transition of the zone
+    // since then (plus a day, as above)
+    private static final long TIME_ZONES_SINCE = -2208988800L + 86400;
+    private static final Map<ZoneId, Long> FIRST_TRANSITIONS = new ConcurrentHashMap<>();
+
+    private final String pattern;
+    private final Locale locale;
+    private final SimpleDateFormat prototype;
+    // null where SimpleDateFormat must be used
+    private final DateTimeFormatter formatter;
+    private final DateTimeFormatter parser;
+
+    private DatePattern(Key key) {
+        pattern = key.pattern;
+        locale = key.locale;
+        // throws on bad patterns, as it always did
+        prototype = new SimpleDateFormat(pattern, locale);
+
+        // not instanceof: the BuddhistCalendar of th_TH is a GregorianCalendar
+        boolean iso = prototype.getCalendar().getClass() == GregorianCalendar.class
+                && prototype.getNumberFormat() instanceof DecimalFormat
+                && ((DecimalFormat) prototype.getNumberFormat()).getDecimalFormatSymbols().getZeroDigit() == '0';
+        DateTimeFormatter translated = iso ? translate(false) : null;
+        formatter = translated != null && agrees(translated) ? translated : null;
+        parser = iso ? translate(true) : null;
+    }
+
+    public static DatePattern of(String pattern) {
+        return CACHE.get(new Key(pattern, Locale.getDefault(Locale.Category.FORMAT)), DatePattern::new);
+    }
+
+    // false if the default locale changed since this was made
+    public boolean isCurrent() {
+        return locale.equals(Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    public static ZoneId zone(String id) throws EvalException {
+        try {
+            return ZoneId.of(id);
+        } catch (DateTimeException e) {
+            throw new EvalException("Unknown time zone: " + id);
+        }
+    }
+
+    public String format(long epochSecond, ZoneId zone) {
+        // past Long.MAX_VALUE / 1000, the millis of the Date overflow
+        if (formatter == null || epochSecond < since(zone) || epochSecond > Long.MAX_VALUE / 1000)
+            return fallback(zone).format(new Date(epochSecond * 1000));
+        return formatter.format(Instant.ofEpochSecond(epochSecond).atZone(zone));
+    }
+
+    // The epoch in seconds, truncated as getTime() / 1000 would be
+    public long parse(String text, ZoneId zone) throws EvalException {
+        if (parser != null) {
+            try {
+                TemporalAccessor parsed = parser.parse(text, new ParsePosition(0));
+                LocalDateTime local = LocalDateTime.from(parsed);
+                // Calendar takes the standard time, the later one, when
+                // the clocks go back
+                long seconds = parsed.isSupported(ChronoField.OFFSET_SECONDS)
+                        ? local.toEpochSecond(ZoneOffset.ofTotalSeconds(parsed.get(ChronoField.OFFSET_SECONDS)))
+                        : local.atZone(zone).withLaterOffsetAtOverlap().toEpochSecond();
+                if (seconds >= since(zone) && local.getYear() < 1_000_000)
+                    return (seconds * 1000 + local.getNano() / 1_000_000) / 1000;
+            } catch (DateTimeException e) {
+                // SimpleDateFormat tells what's wrong, or is more lenient
+            }
+        }
+        try {
+            return fallback(zone).parse(text).getTime() / 1000;
+        } catch (ParseException pe) {
+            throw new EvalException(pe.getMessage());
+        }
+    }
+
+    // where the formatter agrees with SimpleDateFormat
+    private static long since(ZoneId zone) {
+        if (zone instanceof ZoneOffset)
+            return GREGORIAN_CUTOVER;
+        Long ret = FIRST_TRANSITIONS.get(zone);
+        if (ret == null) {
+            List<ZoneOffsetTransition> transitions = zone.getRules().getTransitions();
+            ret = transitions.isEmpty()
+                    ? GREGORIAN_CUTOVER : Math.max(TIME_ZONES_SINCE, transitions.get(0).toEpochSecond());
+            FIRST_TRANSITIONS.put(zone, ret);
+        }
+        return ret;
+    }
+
+    private SimpleDateFormat fallback(ZoneId zone) {
+        SimpleDateFormat ret = (SimpleDateFormat) prototype.clone();
+        ret.setTimeZone(TimeZone.getTimeZone(zone));
+        return ret;
+    }
+
+    // The names of a few locales also depend on the rest of the pattern (like
+    // the standalone month names, for a month alone): some dates, covering
+    // all the months, days of the week and AM/PM, tell whether they're the
+    // same
+    private boolean agrees(DateTimeFormatter formatter) {
+        SimpleDateFormat format = fallback(ZoneOffset.UTC);
+        for (int i = 0; i < 14; i++) {
+            // 2001-01-01, a Monday, then 29 days and 5 hours later each time
+            long epochSecond = 978307200L + i * (29 * 86400 + 5 * 3600 + 61);
+            if (!format.format(new Date(epochSecond * 1000))
+                    .equals(formatter.format(Instant.ofEpochSecond(epochSecond).atZone(ZoneOffset.UTC))))
+                return false;
+        }
+        return true;
+    }
+
+    // null if the pattern can't be translated exactly
+    private DateTimeFormatter translate(boolean parsing) {
+        List<Object> tokens = tokens(pattern);
+        DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+        DateFormatSymbols symbols = prototype.getDateFormatSymbols();
+        boolean hours12 = false, hours24 = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i) instanceof String) {
+                builder.appendLiteral((String) tokens.get(i));
+                continue;
+            }
+            char c = (char) ((int) tokens.get(i) >> 16);
+            int count = (int) tokens.get(i) & 0xFFFF;
+            // SimpleDateFormat parses a number followed by another one with
+            // count digits, the others with as many digits as there are
+            boolean abutting = i + 1 < tokens.size() && isNumber(tokens.get(i + 1));
+            TemporalField field;
+            switch (c) {
+                case 'y':
+                    if (count == 2) {
+                        // the parsing of two-digit years depends on the date
+                        if (parsing)
+                            return null;
+                        builder.appendValueReduced(ChronoField.YEAR_OF_ERA, 2, 2, 2000);
+                        continue;
+                    }
+                    field = ChronoField.YEAR_OF_ERA;
+                    break;
+                case 'M':
+                    if (count <= 2) {
+                        field = ChronoField.MONTH_OF_YEAR;
+                        break;
+                    }
+                    if (parsing)
+                        return null;
+                    builder.appendText(ChronoField.MONTH_OF_YEAR,
+                            texts(count == 3 ? symbols.getShortMonths() : symbols.getMonths(), 1));
+                    continue;
+                case 'd':
+                    field = ChronoField.DAY_OF_MONTH;
+                    break;
+                case 'H':
+                    field = ChronoField.HOUR_OF_DAY;
+                    hours24 = true;
+                    break;
+                case 'k':
+                    field = ChronoField.CLOCK_HOUR_OF_DAY;
+                    hours24 = true;
+                    break;
+                case 'K':
+                    field = ChronoField.HOUR_OF_AMPM;
+                    hours12 = true;
+                    break;
+                case 'h':
+                    field = ChronoField.CLOCK_HOUR_OF_AMPM;
+                    hours12 = true;
+                    break;
+                case 'm':
+                    field = ChronoField.MINUTE_OF_HOUR;
+                    break;
+                case 's':
+                    field = ChronoField.SECOND_OF_MINUTE;
+                    break;
+                case 'S':
+                    field = ChronoField.MILLI_OF_SECOND;
+                    break;
+                case 'Z':
+                    builder.appendOffset("+HHMM", "+0000");
+                    continue;
+                case 'X':
+                    builder.appendOffset(count == 1 ? "+HH" : count == 2 ? "+HHMM" : "+HH:MM", "Z");
+                    continue;
+                default:
+                    // only formatted: their parsing is too lenient to match
+                    if (parsing)
+                        return null;
+                    switch (c) {
+                        case 'D':
+                            field = ChronoField.DAY_OF_YEAR;
+                            break;
+                        case 'F':
+                            field = ChronoField.ALIGNED_WEEK_OF_MONTH;
+                            break;
+                        case 'u':
+                            field = ChronoField.DAY_OF_WEEK;
+                            break;
+                        case 'E':
+                            // DateFormatSymbols count from Sunday = 1
+                            String[] days = count <= 3 ? symbols.getShortWeekdays() : symbols.getWeekdays();
+                            Map<Long, String> names = new HashMap<>();
+                            for (int day = 1; day <= 7; day++)
+                                names.put((long) day, days[day % 7 + 1]);
+                            builder.appendText(ChronoField.DAY_OF_WEEK, names);
+                            continue;
+                        case 'G':
+                            builder.appendText(ChronoField.ERA, texts(symbols.getEras(), 0));
+                            continue;
+                        case 'a':
+                            builder.appendText(ChronoField.AMPM_OF_DAY, texts(symbols.getAmPmStrings(), 0));
+                            continue;
+                        default:
+                            // week based fields, zone names
+                            return null;
+                    }
+            }
+
+            if (!parsing) {
+                // padded to count digits
+                builder.appendValue(field, count, 19, SignStyle.NORMAL);
+            } else if (abutting) {
+                builder.appendValue(field, count, count, SignStyle.NOT_NEGATIVE);
+                // no adjacent value parsing: the width of each is fixed
+                builder.optionalStart().optionalEnd();
+            } else {
+                builder.appendValue(field, 1, 19, SignStyle.NORMAL);
+            }
+        }
+        if (!parsing)
+            return builder.toFormatter(locale);
+
+        // what SimpleDateFormat leaves at the start of the epoch
+        if (hours12 && hours24)
+            return null;
+        builder.parseDefaulting(ChronoField.YEAR_OF_ERA, 1970)
+                .parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
+                .parseDefaulting(ChronoField.DAY_OF_MONTH, 1)
+                .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
+                .parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0)
+                .parseDefaulting(ChronoField.MILLI_OF_SECOND, 0);
+        if (hours12)
+            builder.parseDefaulting(ChronoField.AMPM_OF_DAY, 0);
+        else if (!hours24)
+            builder.parseDefaulting(ChronoField.HOUR_OF_DAY, 0);
+        return builder.toFormatter(locale).withResolverStyle(ResolverStyle.LENIENT);
+    }
+
+    // The pattern as literal Strings and fields, as the letter << 16 | count
+    private static List<Object> tokens(String pattern) {
+        List<Object> ret = new ArrayList<>();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // quoted text, '' being a quote
+                StringBuilder literal = new StringBuilder();
+                i++;
+                if (i < pattern.length() && pattern.charAt(i) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    for (; i < pattern.length(); i++) {
+                        if (pattern.charAt(i) == '\'') {
+                            if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                                literal.append('\'');
+                                i++;
+                                continue;
+                            }
+                            break;
+                        }
+                        literal.append(pattern.charAt(i));
+                    }
+                    i++;
+                }
+                ret.add(literal.toString());
+            } else if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+                int count = 1;
+                while (i + count < pattern.length() && pattern.charAt(i + count) == c)
+                    count++;
+                ret.add(c << 16 | count);
+                i += count;
+            } else {
+                ret.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isNumber(Object token) {
+        if (token instanceof String)
+            return false;
+        char c = (char) ((int) token >> 16);
+        int count = (int) token & 0xFFFF;
+        return "ydHkKhmsSDFuwWY".indexOf(c) >= 0 || c == 'M' && count <= 2;
+    }
+
+    // names[i] is the text of the value first + i
+    private static Map<Long, String> texts(String[] names, int first) {
+        Map<Long, String> ret = new HashMap<>();
+        for (int i = 0; i < names.length; i++)
+            if (!names[i].isEmpty())
+                ret.put((long) (first + i), names[i]);
+        return ret;
+    }
+
+    private static final class Key {
+        final String pattern;
+        final Locale locale;
+
+        Key(String pattern, Locale locale) {
+            this.pattern = pattern;
+            this.locale = locale;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return pattern.equals(key.pattern) && locale.equals(key.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pattern, locale);
+        }
+    }
+}
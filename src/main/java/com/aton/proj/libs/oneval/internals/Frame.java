@@ -0,0 +1,41 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.util.Random;
+
+// Where the compiled expressions get the values of their variables from,
+// during a single evaluation.
+public interface Frame {
+    Operand get(Variable variable) throws EvalException;
+
+    // The results of the subexpressions shared by the expressions of a
+    // RuleSet, by index, null until evaluated; see nodes.MemoNode
+    Operand[] memo();
+
+    // The generator of rand(), null for the one of the current thread; see
+    // EvaluationContext.setRandomSeed()
+    Random random();
+}
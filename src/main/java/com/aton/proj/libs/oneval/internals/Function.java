@@ -46,7 +46,7 @@ public enum Function implements Item {
     MIN("min", Type.BINARY, 3, Associativity.LEFT, new Min()),
     MAX("max", Type.BINARY, 3, Associativity.LEFT, new Max()),
     SCALE("scale", Type.TERNARY, 3, Associativity.LEFT, new Scale()),
-    RANDF("rand", Type.BINARY, 3, Associativity.LEFT, new Rand()),
+    RANDF("rand", Type.BINARY, 3, Associativity.LEFT, new Rand(), false),
     SIGNUM("signum", Type.UNARY_PREFIX, 3, null, new Signum()),
     LENGTH("len", Type.UNARY_PREFIX, 3, null, new Length()),
     EQUALSIGNORECASE("equalsIgnCase", Type.BINARY, 3, null, new EqualsIgnCase()),
@@ -65,9 +65,11 @@ public enum Function implements Item {
     ENDSWITH("endsWith", Type.BINARY, 3, null, new EndsWith()),
     CONTAINS("contains", Type.BINARY, 3, null, new Contains()),
     INDEXOF("indexOf", Type.BINARY, 3, null, new IndexOf()),
-    EPOCH("getEpoch", Type.ZERARY, 3, null, new Epoch()),
-    STRTOEPOCH("strToEpoch", Type.BINARY, 3, null, new StrToEpoch()),
-    EPOCHTOSTR("epochToStr", Type.BINARY, 3, null, new EpochToStr()),
+    EPOCH("getEpoch", Type.ZERARY, 3, null, new Epoch(), false),
+    STRTOEPOCH("strToEpoch", Type.BINARY, 3, null, new StrToEpoch(), false),
+    EPOCHTOSTR("epochToStr", Type.BINARY, 3, null, new EpochToStr(), false),
+    STRTOEPOCH_TZ("strToEpochTz", Type.TERNARY, 3, null, new StrToEpochTz(), false),
+    EPOCHTOSTR_TZ("epochToStrTz", Type.TERNARY, 3, null, new EpochToStrTz(), false),
     EQUAL("==", Type.BINARY, 9, Associativity.LEFT, new Equals()),
     NOT_EQUAL("!=", Type.BINARY, 9, Associativity.LEFT, new NotEquals()),
     GREATER_EQ(">=", Type.BINARY, 8, Associativity.LEFT, new GreaterThanOrEqual()),
@@ -97,8 +99,27 @@ public enum Function implements Item {
         LEFT, RIGHT
     }
 
+    // The fixed arity methods are the ones used by the evaluator, and avoid
+    // allocating an array for each call; the defaults fall back to perform(),
+    // so implementing just that is still enough.
     public interface Performable {
         Operand perform(Operand... operands) throws EvalException;
+
+        default Operand perform0() throws EvalException {
+            return perform();
+        }
+
+        default Operand perform1(Operand o1) throws EvalException {
+            return perform(o1);
+        }
+
+        default Operand perform2(Operand o1, Operand o2) throws EvalException {
+            return perform(o1, o2);
+        }
+
+        default Operand perform3(Operand o1, Operand o2, Operand o3) throws EvalException {
+            return perform(o1, o2, o3);
+        }
     }
 
     public final String literal;
@@ -106,21 +127,29 @@ public enum Function implements Item {
     public final int priority;
     public final Associativity associativity;
     public final Performable action;
+    // false if the result may change between calls with the same operands,
+    // which rules out evaluating it once at compile time or caching it: e.g.
+    // the date functions, which depend on the default time zone and locale
+    // (the month and day names, even with an explicit zone)
+    public final boolean pure;
 
     Function(String literal, Type type, int priority,
              Associativity associativity, Performable action) {
+        this(literal, type, priority, associativity, action, true);
+    }
+
+    Function(String literal, Type type, int priority,
+             Associativity associativity, Performable action, boolean pure) {
         this.literal = literal;
         this.type = type;
         this.priority = priority;
         this.associativity = associativity;
         this.action = action;
+        this.pure = pure;
     }
 
     public static Function getOperation(String token) {
         token = token.trim();
-        for (Function op : Function.values())
-            if (op.literal.equalsIgnoreCase(token))
-                return op;
-        return null;
+        return Keywords.lookup(token, 0, token.length());
     }
 }
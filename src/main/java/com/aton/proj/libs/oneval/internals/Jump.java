@@ -0,0 +1,52 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+// A (conditional) jump in the evaluator program, used to skip the operands
+// that don't need to be evaluated: the right side of && and || when the left
+// side decides the result, the untaken branch of if, and the fallback of
+// onNull when the first operand isn't NULL.
+public final class Jump implements Item {
+    public enum Kind {
+        // jump if the top of the stack is FALSE, leaving it there
+        IF_FALSE,
+        // jump if the top of the stack is TRUE, leaving it there
+        IF_TRUE,
+        // jump if the top of the stack is not NULL, leaving it there;
+        // otherwise it's popped
+        IF_NOT_NULL,
+        // pop the top of the stack, that must be a BOOL, and jump if FALSE
+        UNLESS,
+        ALWAYS
+    }
+
+    public final Kind kind;
+    public final int target;
+
+    public Jump(Kind kind, int target) {
+        this.kind = kind;
+        this.target = target;
+    }
+}
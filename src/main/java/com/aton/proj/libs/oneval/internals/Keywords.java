@@ -0,0 +1,89 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+// Case insensitive lookup table from Function.literal to Function.
+//
+// It's an open addressing hash table kept at a low load factor, so that
+// literals land at most a few slots away from their hash; the hash folds the
+// case of the characters, so a lookup hashes the token once, in place, and
+// compares it with (almost always) a single candidate.
+final class Keywords {
+    private static final Function[] TABLE;
+    private static final int MASK;
+
+    static {
+        Function[] values = Function.values();
+        int size = Integer.highestOneBit(values.length) << 3;
+        TABLE = new Function[size];
+        MASK = size - 1;
+        for (Function op : values) {
+            int h = hash(op.literal, 0, op.literal.length()) & MASK;
+            while (TABLE[h] != null)
+                h = (h + 1) & MASK;
+            TABLE[h] = op;
+        }
+    }
+
+    private Keywords() {
+    }
+
+    static Function lookup(CharSequence src, int start, int len) {
+        int h = hash(src, start, len) & MASK;
+        Function op;
+        while ((op = TABLE[h]) != null) {
+            if (matches(op.literal, src, start, len))
+                return op;
+            h = (h + 1) & MASK;
+        }
+        return null;
+    }
+
+    private static int hash(CharSequence src, int start, int len) {
+        int h = len;
+        for (int i = start; i < start + len; i++)
+            h = 31 * h + fold(src.charAt(i));
+        return h ^ (h >>> 16);
+    }
+
+    // same folding done by String.equalsIgnoreCase()
+    private static char fold(char c) {
+        if (c < 128)
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static boolean matches(String literal, CharSequence src, int start, int len) {
+        if (literal.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            char l = literal.charAt(i);
+            char c = src.charAt(start + i);
+            if (l != c && fold(l) != fold(c))
+                return false;
+        }
+        return true;
+    }
+}
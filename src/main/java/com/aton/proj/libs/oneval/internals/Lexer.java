@@ -0,0 +1,250 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+
+// Single-pass scanner for expressions. Every call to next() consumes one
+// token and exposes it as an already typed Item (an Operand for literals, a
+// Variable or a Function), together with its offset in the source string.
+public final class Lexer {
+    private static final String NULL_CONST = "NULL";
+    private static final String TRUE_CONST = "true";
+    private static final String FALSE_CONST = "false";
+
+    private final String source;
+    private final char[] src;
+    private int pos;
+
+    private Item item;
+    private int offset;
+
+    public Lexer(String expression) {
+        this.source = expression;
+        this.src = expression.toCharArray();
+    }
+
+    public Item item() {
+        return item;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    // Returns false when the end of the expression has been reached.
+    public boolean next() throws ParseException {
+        // a '-' is a sign (and not a subtraction) unless it follows something
+        // that produces a value
+        boolean afterValue = item instanceof ValuedItem || item == Function.CLOSE_BRACKET;
+
+        skipBlanks();
+        if (pos >= src.length) {
+            item = null;
+            return false;
+        }
+
+        offset = pos;
+        char c = src[pos];
+
+        if (c == '"' || c == '\'')
+            item = scanString(c);
+        else if (c == '$' || c == '%' || c == '?')
+            item = scanVariable(c);
+        else if (startsNumber(pos))
+            item = scanNumber(false);
+        else if (c == '-' && !afterValue && startsNumber(skipBlanks(pos + 1))) {
+            pos = skipBlanks(pos + 1);
+            item = scanNumber(true);
+        } else if (isWordStart(c))
+            item = scanWord();
+        else
+            item = scanSymbol();
+        return true;
+    }
+
+    private Operand scanString(char quote) throws ParseException {
+        int start = ++pos;
+        StringBuilder escaped = null;
+        while (pos < src.length) {
+            char c = src[pos];
+            if (c == quote) {
+                String str = escaped == null
+                        ? new String(src, start, pos - start)
+                        : escaped.append(src, start, pos - start).toString();
+                pos++;
+                return Operand.strOperand(str);
+            }
+            if (c == '\\') {
+                if (escaped == null)
+                    escaped = new StringBuilder(pos - start + 16);
+                escaped.append(src, start, pos - start);
+                if (++pos >= src.length)
+                    break;
+                escaped.append(src[pos]);
+                start = ++pos;
+                continue;
+            }
+            pos++;
+        }
+        throw new ParseException("String literal not properly closed", offset);
+    }
+
+    private Variable scanVariable(char sigil) {
+        int start = ++pos;
+        while (pos < src.length && isAllowedForVarName(src[pos]))
+            pos++;
+        String id = new String(src, start, pos - start);
+        if (sigil == '%')
+            return new Variable(ValuedItem.Type.NUM, id);
+        if (sigil == '$')
+            return new Variable(ValuedItem.Type.STRING, id);
+        return new Variable(ValuedItem.Type.BOOL, id);
+    }
+
+    private boolean startsNumber(int i) {
+        if (i >= src.length)
+            return false;
+        if (isDigit(src[i]))
+            return true;
+        return src[i] == '.' && i + 1 < src.length && isDigit(src[i + 1]);
+    }
+
+    private Operand scanNumber(boolean negative) {
+        int start = pos;
+        while (pos < src.length && isDigit(src[pos]))
+            pos++;
+        if (pos < src.length && src[pos] == '.') {
+            pos++;
+            while (pos < src.length && isDigit(src[pos]))
+                pos++;
+        }
+        if (pos < src.length && (src[pos] == 'e' || src[pos] == 'E')) {
+            int exp = pos + 1;
+            if (exp < src.length && (src[exp] == '+' || src[exp] == '-'))
+                exp++;
+            if (exp < src.length && isDigit(src[exp])) {
+                pos = exp;
+                while (pos < src.length && isDigit(src[pos]))
+                    pos++;
+            }
+        }
+
+        BigDecimal bd = new BigDecimal(src, start, pos - start);
+        return Operand.numOperand(negative ? bd.negate() : bd);
+    }
+
+    private Item scanWord() throws ParseException {
+        int start = pos;
+        while (pos < src.length && isWordPart(src[pos]))
+            pos++;
+        int len = pos - start;
+
+        if (matches(NULL_CONST, false, start, len))
+            return Operand.NULL;
+        if (matches(TRUE_CONST, true, start, len))
+            return Operand.TRUE;
+        if (matches(FALSE_CONST, true, start, len))
+            return Operand.FALSE;
+
+        Function op = Keywords.lookup(source, start, len);
+        if (op != null)
+            return op;
+
+        throw new ParseException("Unknown function: " + new String(src, start, len), start);
+    }
+
+    private Function scanSymbol() throws ParseException {
+        Function op = null;
+        if (pos + 1 < src.length)
+            op = Keywords.lookup(source, pos, 2);
+        if (op != null) {
+            pos += 2;
+            return op;
+        }
+
+        op = Keywords.lookup(source, pos, 1);
+        char c = src[pos++];
+        if (op == Function.GREATER && followedByEquals())
+            return Function.GREATER_EQ;
+        if (op == Function.LESSER && followedByEquals())
+            return Function.LESSER_EQ;
+        if (op == null && c == '!' && followedByEquals())
+            return Function.NOT_EQUAL;
+        if (op == null)
+            throw new ParseException("Unexpected character '" + c + "'", offset);
+        return op;
+    }
+
+    // '>=', '<=' and '!=' have always been accepted with blanks in between
+    private boolean followedByEquals() {
+        int i = skipBlanks(pos);
+        if (i < src.length && src[i] == '=') {
+            pos = i + 1;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean matches(String keyword, boolean ignoreCase, int start, int len) {
+        if (keyword.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            char k = keyword.charAt(i);
+            char c = src[start + i];
+            if (k != c && !(ignoreCase && Character.toLowerCase(k) == Character.toLowerCase(c)))
+                return false;
+        }
+        return true;
+    }
+
+    private void skipBlanks() {
+        pos = skipBlanks(pos);
+    }
+
+    private int skipBlanks(int i) {
+        while (i < src.length && src[i] <= ' ')
+            i++;
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c == '_');
+    }
+
+    private static boolean isWordPart(char c) {
+        return isWordStart(c) || isDigit(c);
+    }
+
+    private static boolean isAllowedForVarName(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || (c == '_') || (c == '-');
+    }
+}
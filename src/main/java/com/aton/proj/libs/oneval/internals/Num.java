@@ -0,0 +1,126 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.math.BigDecimal;
+
+// Arithmetic on NUM operands. When both are compact (see Operand) it's done
+// on the unscaled longs, going through BigDecimal only if that would
+// overflow; the results are the same either way.
+public final class Num {
+    private static final long[] POWERS_OF_10 = new long[19];
+
+    static {
+        POWERS_OF_10[0] = 1;
+        for (int i = 1; i < POWERS_OF_10.length; i++)
+            POWERS_OF_10[i] = POWERS_OF_10[i - 1] * 10;
+    }
+
+    private Num() {
+    }
+
+    public static Operand add(Operand o1, Operand o2) {
+        if (o1.isCompact() && o2.isCompact()) {
+            int scale = Math.max(o1.scale(), o2.scale());
+            try {
+                return Operand.numOperand(Math.addExact(rescale(o1, scale), rescale(o2, scale)), scale);
+            } catch (ArithmeticException e) {
+                // overflow
+            }
+        }
+        return Operand.numOperand(decimal(o1).add(decimal(o2)));
+    }
+
+    public static Operand subtract(Operand o1, Operand o2) {
+        if (o1.isCompact() && o2.isCompact()) {
+            int scale = Math.max(o1.scale(), o2.scale());
+            try {
+                return Operand.numOperand(Math.subtractExact(rescale(o1, scale), rescale(o2, scale)), scale);
+            } catch (ArithmeticException e) {
+                // overflow
+            }
+        }
+        return Operand.numOperand(decimal(o1).subtract(decimal(o2)));
+    }
+
+    public static Operand multiply(Operand o1, Operand o2) {
+        if (o1.isCompact() && o2.isCompact()) {
+            long scale = (long) o1.scale() + o2.scale();
+            if (scale == (int) scale) {
+                try {
+                    return Operand.numOperand(Math.multiplyExact(o1.unscaled(), o2.unscaled()), (int) scale);
+                } catch (ArithmeticException e) {
+                    // overflow
+                }
+            }
+        }
+        return Operand.numOperand(decimal(o1).multiply(decimal(o2)));
+    }
+
+    // same as BigDecimal.compareTo()
+    public static int compare(Operand o1, Operand o2) {
+        if (o1.isCompact() && o2.isCompact()) {
+            long u1 = o1.unscaled(), u2 = o2.unscaled();
+            int signum = Long.signum(u1);
+            if (signum != Long.signum(u2))
+                return Integer.compare(signum, Long.signum(u2));
+            if (o1.scale() == o2.scale())
+                return Long.compare(u1, u2);
+            int scale = Math.max(o1.scale(), o2.scale());
+            try {
+                return Long.compare(rescale(o1, scale), rescale(o2, scale));
+            } catch (ArithmeticException e) {
+                // overflow
+            }
+        }
+        return decimal(o1).compareTo(decimal(o2));
+    }
+
+    public static Operand abs(Operand o1) {
+        if (o1.isCompact() && o1.unscaled() != Long.MIN_VALUE)
+            return o1.unscaled() >= 0 ? o1 : Operand.numOperand(-o1.unscaled(), o1.scale());
+        return Operand.numOperand(decimal(o1).abs());
+    }
+
+    public static int signum(Operand o1) {
+        if (o1.isCompact())
+            return Long.signum(o1.unscaled());
+        return decimal(o1).signum();
+    }
+
+    // the unscaled value of a compact operand brought to a greater scale
+    private static long rescale(Operand o, int scale) {
+        long diff = (long) scale - o.scale();
+        if (diff == 0)
+            return o.unscaled();
+        if (diff >= POWERS_OF_10.length)
+            throw new ArithmeticException("overflow");
+        return Math.multiplyExact(o.unscaled(), POWERS_OF_10[(int) diff]);
+    }
+
+    private static BigDecimal decimal(Operand o) {
+        return (BigDecimal) o.getValue();
+    }
+}
@@ -25,46 +25,153 @@
 package com.aton.proj.libs.oneval.internals;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Objects;
 
 public final class Operand extends ValuedItem {
-    private Operand(Type type, String strValue, BigDecimal numValue, Boolean boolValue) {
+    private Operand(Type type, CharSequence chars, BigDecimal numValue, Boolean boolValue) {
         super(type);
-        this.strValue = strValue;
+        this.chars = chars;
+        this.strValue = chars instanceof String ? (String) chars : null;
         this.numValue = numValue;
         this.boolValue = boolValue;
+        this.compact = false;
+        this.unscaled = 0;
+        this.scale = 0;
+    }
+
+    private Operand(long unscaled, int scale, BigDecimal numValue) {
+        super(Type.NUM);
+        this.chars = null;
+        this.numValue = numValue;
+        this.boolValue = null;
+        this.compact = true;
+        this.unscaled = unscaled;
+        this.scale = scale;
     }
 
     public static final Operand NULL = new Operand(Type.NULL, null, null, null);
     public static final Operand TRUE = new Operand(Type.BOOL, null, null, Boolean.TRUE);
     public static final Operand FALSE = new Operand(Type.BOOL, null, null, Boolean.FALSE);
 
+    // the small integers, shared like the Longs of Long.valueOf(); counts,
+    // codes, flags, ... are mostly these
+    private static final int SMALL_MIN = -128;
+    private static final Operand[] SMALL = new Operand[1024 + 128];
+
+    static {
+        for (int i = 0; i < SMALL.length; i++)
+            SMALL[i] = canonical(i + SMALL_MIN, 0);
+    }
+
+    // the powers of 10 that are exact as doubles
+    private static final double[] EXACT_POWERS_OF_10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     public static Operand strOperand(String str) {
         if (str == null)
             throw new IllegalArgumentException("NULL argument for string operand");
         return new Operand(Type.STRING, str, null, null);
     }
 
+    // A STRING over the chars, without copying them: e.g. a StringBuilder, or
+    // a ByteSlice of a network buffer. They must not change while the
+    // operand is in use; the String is made only if getValue() is called.
+    public static Operand strOperand(CharSequence chars) {
+        if (chars instanceof String)
+            return strOperand((String) chars);
+        if (chars == null)
+            throw new IllegalArgumentException("NULL argument for string operand");
+        return new Operand(Type.STRING, chars, null, null);
+    }
+
     public static Operand numOperand(BigDecimal num) {
         if (num == null)
             throw new IllegalArgumentException("NULL argument for string operand");
-        return new Operand(Type.NUM, null, num.stripTrailingZeros(), null);
+        if (num.precision() <= 18)
+            return numOperand(num.unscaledValue().longValue(), num.scale());
+        BigDecimal stripped = num.stripTrailingZeros();
+        BigInteger unscaledValue = stripped.unscaledValue();
+        if (unscaledValue.bitLength() < Long.SIZE)
+            return new Operand(unscaledValue.longValue(), stripped.scale(), stripped);
+        return new Operand(Type.NUM, null, stripped, null);
+    }
+
+    // The number unscaled * 10^-scale, like BigDecimal.valueOf(unscaled, scale)
+    public static Operand numOperand(long unscaled, int scale) {
+        if (scale == 0 && unscaled >= SMALL_MIN && unscaled < SMALL_MIN + SMALL.length)
+            return SMALL[(int) unscaled - SMALL_MIN];
+        return canonical(unscaled, scale);
+    }
+
+    private static Operand canonical(long unscaled, int scale) {
+        if (unscaled == 0)
+            return new Operand(0, 0, null);
+        while (unscaled % 10 == 0 && scale > Integer.MIN_VALUE) {
+            unscaled /= 10;
+            scale--;
+        }
+        return new Operand(unscaled, scale, null);
+    }
+
+    // Same as numOperand(new BigDecimal(num)), without going through a
+    // BigDecimal for plain decimals of up to 18 digits
+    public static Operand parseNumOperand(CharSequence num) {
+        int len = num.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (num.charAt(0) == '-' || num.charAt(0) == '+')) {
+            negative = num.charAt(0) == '-';
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0, scale = 0;
+        boolean point = false;
+        for (; i < len; i++) {
+            char c = num.charAt(i);
+            if (c >= '0' && c <= '9' && digits < 18) {
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+                if (point)
+                    scale++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return numOperand(new BigDecimal(num.toString()));
+            }
+        }
+        if (digits == 0)
+            return numOperand(new BigDecimal(num.toString()));
+        return numOperand(negative ? -unscaled : unscaled, scale);
     }
 
     public static Operand boolOperand(boolean val) {
         return val ? TRUE : FALSE;
     }
 
-    private final String strValue;
-    private final BigDecimal numValue;
+    // strValue is chars, or made from it when first asked for
+    private final CharSequence chars;
+    private String strValue;
     private final Boolean boolValue;
 
+    // A NUM whose unscaled value fits in a long is kept as unscaled and scale
+    // (stripped of trailing zeros, like the BigDecimals), which most of the
+    // arithmetic works on directly, see Num; the BigDecimal is only made when
+    // asked for. The representation of a given number is always the same,
+    // compact or not.
+    private final boolean compact;
+    private final long unscaled;
+    private final int scale;
+    private BigDecimal numValue;
+
     public Object getValue() {
         switch (getType()) {
             case STRING:
-                return strValue;
+                return string();
             case NUM:
-                return numValue;
+                return decimal();
             case BOOL:
                 return boolValue;
             default:
@@ -72,11 +179,54 @@ public final class Operand extends ValuedItem {
         }
     }
 
+    private String string() {
+        String ret = strValue;
+        if (ret == null)
+            strValue = ret = chars.toString();
+        return ret;
+    }
+
+    // The value of a STRING, as it was given (see strOperand(CharSequence))
+    public CharSequence chars() {
+        return chars;
+    }
+
+    // This operand, with the value of a STRING copied to a String if it
+    // isn't one, for the results that outlive the evaluation
+    public Operand materialized() {
+        if (chars == null || chars instanceof String)
+            return this;
+        return strOperand(string());
+    }
+
+    private BigDecimal decimal() {
+        BigDecimal ret = numValue;
+        if (ret == null)
+            numValue = ret = BigDecimal.valueOf(unscaled, scale);
+        return ret;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    // only meaningful if isCompact()
+    public long unscaled() {
+        return unscaled;
+    }
+
+    // only meaningful if isCompact()
+    public int scale() {
+        return scale;
+    }
+
     public int coalesceToInt(String err) throws EvalException {
         if (getType() != Type.NUM)
             throw new EvalException(err);
+        if (compact && scale == 0 && unscaled == (int) unscaled)
+            return (int) unscaled;
         try {
-            return numValue.intValueExact();
+            return decimal().intValueExact();
         } catch (ArithmeticException e) {
             throw new EvalException(err);
         }
@@ -85,19 +235,48 @@ public final class Operand extends ValuedItem {
     public long coalesceToLong(String err) throws EvalException {
         if (getType() != Type.NUM)
             throw new EvalException(err);
+        if (compact && scale == 0)
+            return unscaled;
         try {
-            return numValue.longValueExact();
+            return decimal().longValueExact();
         } catch (ArithmeticException e) {
             throw new EvalException(err);
         }
     }
 
+    // The nearest double, as BigDecimal.doubleValue() would give
+    public double coalesceToDouble(String err) throws EvalException {
+        if (getType() != Type.NUM)
+            throw new EvalException(err);
+        // both exact as doubles, so the quotient or product is correctly rounded
+        if (compact && Math.abs(unscaled) < 1L << 53 && Math.abs(scale) < EXACT_POWERS_OF_10.length) {
+            if (scale >= 0)
+                return unscaled / EXACT_POWERS_OF_10[scale];
+            return unscaled * EXACT_POWERS_OF_10[-scale];
+        }
+        return decimal().doubleValue();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Operand operand = (Operand) o;
-        return Objects.equals(strValue, operand.strValue) && Objects.equals(getValue(), operand.getValue());
+        if (getType() != operand.getType()) return false;
+        if (compact || operand.compact)
+            return compact == operand.compact && unscaled == operand.unscaled && scale == operand.scale;
+        if (chars != null)
+            return Chars.contentEquals(chars, operand.chars);
+        return Objects.equals(getValue(), operand.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        if (compact)
+            return 31 * Long.hashCode(unscaled) + scale;
+        if (chars != null)
+            return Chars.hashCode(chars);
+        return Objects.hash(getType(), getValue());
     }
 
     @Override
@@ -0,0 +1,275 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import com.aton.proj.libs.oneval.internals.operations.GreaterThan;
+import com.aton.proj.libs.oneval.internals.operations.GreaterThanOrEqual;
+import com.aton.proj.libs.oneval.internals.operations.LesserThan;
+import com.aton.proj.libs.oneval.internals.operations.LesserThanOrEqual;
+
+import java.util.*;
+
+// Tells, for the variables of an evaluation, which rules of a set may be TRUE
+// and have to be evaluated: the others are FALSE for sure.
+//
+// It looks at the guard of each rule, the first operand of its && chain (or
+// the whole rule, if it isn't an &&), when it's
+// - a variable == a literal (or the other way around), for any type;
+// - equalsIgnCase of a $variable and a STRING literal;
+// - a comparison (>, >=, <, <=) of a %variable with a NUM literal.
+// The rules are indexed by guard: hashed by the literal for the first two,
+// sorted by it for the last one. Where the guard is FALSE, the lazy && is
+// FALSE without evaluating anything else, so skipping the rule gives the same
+// result; where it fails instead (e.g. NULL < 1), or the variable itself
+// can't be decoded, the rule is evaluated to fail the same way. The rules
+// without such a guard are always evaluated.
+public final class RuleIndex {
+    private final int size;
+    private final int[] unindexed;
+    private final Variable[] variables;
+    private final Guards[] guards;
+
+    // the guards on a single variable
+    private static final class Guards {
+        final Map<Operand, int[]> equal = new HashMap<>();
+        final Map<String, int[]> equalIgnCase = new HashMap<>();
+        // true when the variable is at least/most the bound, sorted by bound
+        // ascending/descending
+        Range[] atLeast = new Range[0];
+        Range[] atMost = new Range[0];
+        int[] ranges;
+        int[] all;
+    }
+
+    private static final class Range {
+        final Operand bound;
+        final Function op;
+        final boolean literalFirst;
+        final int rule;
+
+        Range(Operand bound, Function op, boolean literalFirst, int rule) {
+            this.bound = bound;
+            this.op = op;
+            this.literalFirst = literalFirst;
+            this.rule = rule;
+        }
+
+        boolean holds(Operand value) {
+            int comparison = literalFirst ? Num.compare(bound, value) : Num.compare(value, bound);
+            switch (op) {
+                case GREATER:
+                    return GreaterThan.holds(comparison);
+                case GREATER_EQ:
+                    return GreaterThanOrEqual.holds(comparison);
+                case LESSER:
+                    return LesserThan.holds(comparison);
+                default:
+                    return LesserThanOrEqual.holds(comparison);
+            }
+        }
+
+        // whether it holds for the values above the bound, rather than below
+        boolean upward() {
+            boolean greater = op == Function.GREATER || op == Function.GREATER_EQ;
+            return greater != literalFirst;
+        }
+    }
+
+    private RuleIndex(int size, int[] unindexed, Variable[] variables, Guards[] guards) {
+        this.size = size;
+        this.unindexed = unindexed;
+        this.variables = variables;
+        this.guards = guards;
+    }
+
+    // rules: bound to the same variables, as in a RuleSet
+    public static RuleIndex build(List<Tree> rules) {
+        List<Integer> unindexed = new ArrayList<>();
+        Map<Variable, Guards> byVariable = new LinkedHashMap<>();
+        Map<Variable, Map<Object, List<Integer>>> equal = new HashMap<>();
+        Map<Variable, Map<Object, List<Integer>>> equalIgnCase = new HashMap<>();
+        Map<Variable, List<Range>> ranges = new HashMap<>();
+        Map<Variable, List<Integer>> all = new HashMap<>();
+
+        for (int rule = 0; rule < rules.size(); rule++) {
+            Tree guard = rules.get(rule);
+            while (guard.function() == Function.AND)
+                guard = guard.children[0];
+            Function op = guard.function();
+            Variable var = null;
+            Operand literal = null;
+            boolean literalFirst = false;
+            if (op != null && guard.children.length == 2) {
+                Item i1 = guard.children[0].item, i2 = guard.children[1].item;
+                if (i1 instanceof Variable && i2 instanceof Operand) {
+                    var = (Variable) i1;
+                    literal = (Operand) i2;
+                } else if (i1 instanceof Operand && i2 instanceof Variable) {
+                    var = (Variable) i2;
+                    literal = (Operand) i1;
+                    literalFirst = true;
+                }
+            }
+            if (var == null) {
+                unindexed.add(rule);
+                continue;
+            }
+
+            boolean indexed = true;
+            switch (op) {
+                case EQUAL:
+                    equal.computeIfAbsent(var, v -> new HashMap<>())
+                            .computeIfAbsent(literal, l -> new ArrayList<>()).add(rule);
+                    break;
+                case EQUALSIGNORECASE:
+                    if (var.getType() == ValuedItem.Type.STRING && literal.getType() == ValuedItem.Type.STRING)
+                        equalIgnCase.computeIfAbsent(var, v -> new HashMap<>())
+                                .computeIfAbsent(fold((String) literal.getValue()), l -> new ArrayList<>()).add(rule);
+                    else
+                        indexed = false;
+                    break;
+                case GREATER:
+                case GREATER_EQ:
+                case LESSER:
+                case LESSER_EQ:
+                    if (var.getType() == ValuedItem.Type.NUM && literal.getType() == ValuedItem.Type.NUM)
+                        ranges.computeIfAbsent(var, v -> new ArrayList<>())
+                                .add(new Range(literal, op, literalFirst, rule));
+                    else
+                        indexed = false;
+                    break;
+                default:
+                    indexed = false;
+            }
+            if (indexed) {
+                byVariable.computeIfAbsent(var, v -> new Guards());
+                all.computeIfAbsent(var, v -> new ArrayList<>()).add(rule);
+            } else {
+                unindexed.add(rule);
+            }
+        }
+
+        for (Map.Entry<Variable, Guards> e : byVariable.entrySet()) {
+            Variable var = e.getKey();
+            Guards g = e.getValue();
+            for (Map.Entry<Object, List<Integer>> eq : equal.getOrDefault(var, Collections.emptyMap()).entrySet())
+                g.equal.put((Operand) eq.getKey(), toArray(eq.getValue()));
+            for (Map.Entry<Object, List<Integer>> eq : equalIgnCase.getOrDefault(var, Collections.emptyMap())
+                    .entrySet())
+                g.equalIgnCase.put((String) eq.getKey(), toArray(eq.getValue()));
+            List<Range> atLeast = new ArrayList<>(), atMost = new ArrayList<>();
+            for (Range range : ranges.getOrDefault(var, Collections.emptyList()))
+                (range.upward() ? atLeast : atMost).add(range);
+            atLeast.sort((r1, r2) -> Num.compare(r1.bound, r2.bound));
+            atMost.sort((r1, r2) -> Num.compare(r2.bound, r1.bound));
+            g.atLeast = atLeast.toArray(new Range[0]);
+            g.atMost = atMost.toArray(new Range[0]);
+            int[] rangeRules = new int[g.atLeast.length + g.atMost.length];
+            for (int i = 0; i < rangeRules.length; i++)
+                rangeRules[i] = i < g.atLeast.length ? g.atLeast[i].rule : g.atMost[i - g.atLeast.length].rule;
+            g.ranges = rangeRules;
+            g.all = toArray(all.get(var));
+        }
+        return new RuleIndex(rules.size(), toArray(unindexed), byVariable.keySet().toArray(new Variable[0]),
+                byVariable.values().toArray(new Guards[0]));
+    }
+
+    // The rules to evaluate, given the variables in frame
+    public BitSet candidates(Frame frame) {
+        BitSet ret = new BitSet(size);
+        for (int rule : unindexed)
+            ret.set(rule);
+        for (int i = 0; i < variables.length; i++) {
+            Guards g = guards[i];
+            Operand value;
+            try {
+                value = frame.get(variables[i]);
+            } catch (EvalException | RuntimeException e) {
+                // the rules fail on their guard, let them
+                set(ret, g.all);
+                continue;
+            }
+            set(ret, g.equal.get(value));
+            switch (value.getType()) {
+                case STRING:
+                    if (!g.equalIgnCase.isEmpty())
+                        set(ret, g.equalIgnCase.get(fold((String) value.getValue())));
+                    set(ret, g.ranges);
+                    break;
+                case NUM:
+                    for (Range range : g.atLeast) {
+                        if (Num.compare(range.bound, value) > 0)
+                            break;
+                        if (range.holds(value))
+                            ret.set(range.rule);
+                    }
+                    for (Range range : g.atMost) {
+                        if (Num.compare(range.bound, value) < 0)
+                            break;
+                        if (range.holds(value))
+                            ret.set(range.rule);
+                    }
+                    break;
+                case NULL:
+                    // comparisons with NULL fail
+                    set(ret, g.ranges);
+                    break;
+                case BOOL:
+                    // a ?variable has == guards only, looked up above;
+                    // another variable fails as below
+                    if (variables[i].getType() != ValuedItem.Type.BOOL)
+                        set(ret, g.all);
+                    break;
+                default:
+                    // not the type of the variable: let the rules fail as
+                    // they would
+                    set(ret, g.all);
+            }
+        }
+        return ret;
+    }
+
+    private static void set(BitSet bits, int[] rules) {
+        if (rules != null)
+            for (int rule : rules)
+                bits.set(rule);
+    }
+
+    // Equal for the Strings that are equalsIgnoreCase(), as it compares
+    // them a char at a time
+    private static String fold(String s) {
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        return new String(chars);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] ret = new int[list.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = list.get(i);
+        return ret;
+    }
+}
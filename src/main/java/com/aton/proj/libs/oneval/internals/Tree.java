@@ -0,0 +1,158 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals;
+
+import java.text.ParseException;
+import java.util.List;
+
+// The expression as a tree, rebuilt from the RPN: every Function has its
+// operands as children, Operands and Variables are the leaves.
+public final class Tree {
+    public final Item item;
+    public final Tree[] children;
+    // The type of the result when it isn't NULL, or null if it can't be told
+    // at compile time: it's known for literals, variables (from their sigil)
+    // and most functions. It's only a hint for choosing specialized code,
+    // which has to check the actual types anyway.
+    public final ValuedItem.Type type;
+
+    private static final Tree[] NO_CHILDREN = new Tree[0];
+
+    public Tree(Item item, Tree[] children) {
+        this.item = item;
+        this.children = children;
+        this.type = item instanceof ValuedItem ? ((ValuedItem) item).getType() : resultType((Function) item, children);
+    }
+
+    public static Tree fromRpn(List<Item> rpn) throws ParseException {
+        Tree[] stack = new Tree[rpn.size()];
+        int sp = 0;
+        for (Item item : rpn) {
+            if (item instanceof ValuedItem) {
+                stack[sp++] = new Tree(item, NO_CHILDREN);
+                continue;
+            }
+            int opNum = ((Function) item).type.getOpNum();
+            if (sp < opNum)
+                throw new ParseException("Wrong number of operands", 0);
+            Tree[] children = new Tree[opNum];
+            sp -= opNum;
+            System.arraycopy(stack, sp, children, 0, opNum);
+            stack[sp++] = new Tree(item, children);
+        }
+        if (sp != 1)
+            throw new ParseException("Wrong number of operands", 0);
+        return stack[0];
+    }
+
+    public Function function() {
+        return item instanceof Function ? (Function) item : null;
+    }
+
+    // The deepest the evaluation stack can get while evaluating this tree:
+    // the i-th operand is evaluated with the previous i ones on the stack.
+    public int maxStackDepth() {
+        int max = 1;
+        for (int i = 0; i < children.length; i++)
+            max = Math.max(max, i + children[i].maxStackDepth());
+        return max;
+    }
+
+    public void toRpn(List<Item> out) {
+        for (Tree child : children)
+            child.toRpn(out);
+        out.add(item);
+    }
+
+    private static ValuedItem.Type resultType(Function op, Tree[] o) {
+        switch (op) {
+            case TO_BOOL:
+            case EQUALSIGNORECASE:
+            case STARTSWITH:
+            case ENDSWITH:
+            case CONTAINS:
+            case EQUAL:
+            case NOT_EQUAL:
+            case GREATER_EQ:
+            case LESSER_EQ:
+            case GREATER:
+            case LESSER:
+            case AND:
+            case OR:
+            case NOT:
+                return ValuedItem.Type.BOOL;
+            case TO_NUM:
+            case SUBTRACT:
+            case DIVIDE:
+            case REMAINDER:
+            case POWER:
+            case ABS:
+            case SCALE:
+            case RANDF:
+            case SIGNUM:
+            case LENGTH:
+            case INDEXOF:
+            case EPOCH:
+            case STRTOEPOCH:
+            case STRTOEPOCH_TZ:
+                return ValuedItem.Type.NUM;
+            case TO_STR:
+            case SUBSTR:
+            case REPLACE:
+            case LPAD:
+            case RPAD:
+            case LEFT:
+            case RIGHT:
+            case TRIM:
+            case LTRIM:
+            case RTRIM:
+            case UPPER:
+            case LOWER:
+            case EPOCHTOSTR:
+            case EPOCHTOSTR_TZ:
+                return ValuedItem.Type.STRING;
+            case ADD:
+                if (o[0].type == ValuedItem.Type.STRING || o[1].type == ValuedItem.Type.STRING)
+                    return ValuedItem.Type.STRING;
+                return sameType(o[0], o[1]);
+            case MULTIPLY:
+                if (o[0].type == ValuedItem.Type.STRING)
+                    return ValuedItem.Type.STRING;
+                return sameType(o[0], o[1]);
+            case MIN:
+            case MAX:
+            case ONNULL:
+                return sameType(o[0], o[1]);
+            case IF:
+                return sameType(o[1], o[2]);
+            default:
+                return null;
+        }
+    }
+
+    private static ValuedItem.Type sameType(Tree n1, Tree n2) {
+        return n1.type == n2.type ? n1.type : null;
+    }
+}
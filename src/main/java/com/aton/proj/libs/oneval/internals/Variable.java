@@ -26,13 +26,33 @@ package com.aton.proj.libs.oneval.internals;
 
 public final class Variable extends ValuedItem {
     private final String id;
+    // assigned by the compiler, see Evaluator.getVariableSlots()
+    private final int slot;
+    private final int index;
 
     public Variable(ValuedItem.Type type, String id) {
+        this(type, id, -1, -1);
+    }
+
+    // slot: where the value is found among the variables of the expression;
+    // index: where it's kept once decoded, different from the slot only when
+    // the same variable is used with different types
+    public Variable(ValuedItem.Type type, String id, int slot, int index) {
         super(type);
         this.id = id;
+        this.slot = slot;
+        this.index = index;
     }
 
     public String getId() {
         return id;
     }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public int getIndex() {
+        return index;
+    }
 }
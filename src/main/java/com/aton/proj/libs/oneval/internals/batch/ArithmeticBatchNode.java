@@ -0,0 +1,89 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Function;
+
+// +, - and * of two vectors of longs into longs, as Num does them on
+// integers; the boxed rows and the overflows go through the generic
+// operation, as do the other kinds of operands.
+final class ArithmeticBatchNode extends BatchNode {
+    private final Function op;
+    private final BatchNode o1;
+    private final BatchNode o2;
+    private final int vector1;
+    private final int vector2;
+
+    ArithmeticBatchNode(Function op, BatchNode o1, BatchNode o2, int vector1, int vector2) {
+        this.op = op;
+        this.o1 = o1;
+        this.o2 = o2;
+        this.vector1 = vector1;
+        this.vector2 = vector2;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) throws EvalException {
+        Vector v1 = chunk.vectors[vector1];
+        Vector v2 = chunk.vectors[vector2];
+        o1.eval(chunk, sel, n, v1);
+        o2.eval(chunk, sel, n, v2);
+        if (v1.kind != BatchResults.LONG || v2.kind != BatchResults.LONG) {
+            out.kind(BatchResults.OPERAND);
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                out.operands[r] = op.action.perform2(v1.get(r), v2.get(r));
+            }
+            return;
+        }
+        out.kind(BatchResults.LONG);
+        long[] l1 = v1.longs, l2 = v2.longs;
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            if (!v1.boxed[r] && !v2.boxed[r]) {
+                try {
+                    out.longs[r] = apply(l1[r], l2[r]);
+                    out.boxed[r] = false;
+                    continue;
+                } catch (ArithmeticException e) {
+                    // overflow
+                }
+            }
+            out.set(r, op.action.perform2(v1.get(r), v2.get(r)));
+        }
+    }
+
+    private long apply(long a, long b) {
+        switch (op) {
+            case ADD:
+                return Math.addExact(a, b);
+            case SUBTRACT:
+                return Math.subtractExact(a, b);
+            default:
+                return Math.multiplyExact(a, b);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.*;
+
+// Turns the expression tree into a tree of BatchNodes, which evaluate a
+// chunk of rows at a time: each function is called in a tight loop over the
+// rows, with its operands already evaluated for all of them. The nodes get
+// their scratch space from the Chunk, by the numbers given here.
+//
+// &&, ||, if and onNull narrow the rows that their other operands are
+// evaluated on, so each row evaluates the same operations that a single
+// evaluation would. The values go from node to node in vectors of longs,
+// doubles or booleans where they can (see Vector): the comparisons, +, -, *
+// and the boolean operators work on those directly, the other operations
+// on Operands.
+public final class BatchCompiler {
+    private int vectors;
+    private int selections;
+
+    private BatchCompiler() {
+    }
+
+    // eager: evaluate all the operands of &&, ||, if and onNull anyway
+    public static BatchProgram compile(Tree tree, boolean eager) {
+        BatchCompiler compiler = new BatchCompiler();
+        BatchNode root = compiler.node(tree, eager);
+        // the last vector holds the result
+        return new BatchProgram(root, compiler.vectors + 1, compiler.selections);
+    }
+
+    private BatchNode node(Tree tree, boolean eager) {
+        if (tree.item instanceof Operand)
+            return new ConstBatchNode((Operand) tree.item);
+        if (tree.item instanceof Variable)
+            return new VarBatchNode((Variable) tree.item);
+
+        Function op = tree.function();
+        BatchNode[] o = new BatchNode[tree.children.length];
+        for (int i = 0; i < o.length; i++)
+            o[i] = node(tree.children[i], eager);
+
+        if (!eager) {
+            switch (op) {
+                case AND:
+                    return new AndBatchNode(o[0], o[1], vectors++, selections++);
+                case OR:
+                    return new OrBatchNode(o[0], o[1], vectors++, selections++);
+                case IF:
+                    return new IfBatchNode(o[0], o[1], o[2], vectors++, vectors++, selections++, selections++);
+                case ONNULL:
+                    return new OnNullBatchNode(o[0], o[1], vectors++, selections++);
+            }
+        }
+
+        int[] v = new int[o.length];
+        for (int i = 0; i < v.length; i++)
+            v[i] = vectors++;
+        switch (op) {
+            case GREATER:
+            case GREATER_EQ:
+            case LESSER:
+            case LESSER_EQ:
+            case EQUAL:
+            case NOT_EQUAL:
+                return new CompareBatchNode(op, o[0], o[1], v[0], v[1]);
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+                return new ArithmeticBatchNode(op, o[0], o[1], v[0], v[1]);
+            case NOT:
+                return new NotBatchNode(o[0], v[0]);
+            case RANDF:
+                return new RandBatchNode(o[0], o[1], v[0], v[1]);
+            default:
+                return new CallBatchNode(op, o, v);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.util.Random;
+
+// An expression compiled by BatchCompiler. It's immutable, and can evaluate
+// any number of batches at the same time.
+public final class BatchProgram {
+    private final BatchNode root;
+    private final int vectors;
+    private final int selections;
+
+    BatchProgram(BatchNode root, int vectors, int selections) {
+        this.root = root;
+        this.vectors = vectors;
+        this.selections = selections;
+    }
+
+    // Evaluates the given rows (ascending), or all of them if rows is null,
+    // of a batch of size rows whose variables, by slot, have the given
+    // columns. rand() draws from random, row after row, or from the
+    // generator of the current thread if null.
+    public BatchResults eval(Column[] columns, int size, int[] rows, Random random) throws EvalException {
+        BatchResults ret = new BatchResults(size);
+        if (rows == null)
+            eval(columns, null, 0, size, ret, random);
+        else
+            eval(columns, rows, 0, rows.length, ret, random);
+        return ret;
+    }
+
+    // Same as above, for the rows from (inclusive) to (exclusive), or the
+    // ones at those positions in rows if not null; the results go to into,
+    // by row.
+    public void eval(Column[] columns, int[] rows, int from, int to, BatchResults into, Random random)
+            throws EvalException {
+        Chunk chunk = new Chunk(columns, vectors, selections, random);
+        Vector out = chunk.vectors[vectors - 1];
+        int[] sel = new int[Chunk.SIZE];
+        for (int k = from; k < to; ) {
+            int start = rows == null ? k : rows[k];
+            int n = 0;
+            if (rows == null) {
+                for (; n < Chunk.SIZE && k < to; n++, k++)
+                    sel[n] = n;
+            } else {
+                for (; n < Chunk.SIZE && k < to && rows[k] < start + Chunk.SIZE; n++, k++)
+                    sel[n] = rows[k] - start;
+            }
+            chunk.start = start;
+            root.eval(chunk, sel, n, out);
+            into.store(out, start, sel, n);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.Coercion;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+
+// The results of a BatchProgram, by row, kept as the root node made them:
+// longs, doubles or booleans for the rows of chunks evaluated to primitives,
+// Operands for the others, null for the rows not evaluated. The chunks can
+// be stored by different threads, as long as they are different rows.
+public final class BatchResults {
+    public static final int OPERAND = 0;
+    public static final int LONG = 1;
+    public static final int DOUBLE = 2;
+    public static final int BOOLEAN = 3;
+
+    private final Operand[] operands;
+    private final byte[] kinds;
+    private long[] longs;
+    private double[] doubles;
+    private boolean[] booleans;
+
+    public BatchResults(int size) {
+        operands = new Operand[size];
+        kinds = new byte[size];
+    }
+
+    public int size() {
+        return operands.length;
+    }
+
+    public int kind(int row) {
+        return kinds[row];
+    }
+
+    // null if not evaluated
+    public Operand get(int row) {
+        switch (kinds[row]) {
+            case LONG:
+                return Operand.numOperand(longs[row], 0);
+            case DOUBLE:
+                return Coercion.fromDouble(ValuedItem.Type.NUM, doubles[row]);
+            case BOOLEAN:
+                return Operand.boolOperand(booleans[row]);
+            default:
+                return operands[row];
+        }
+    }
+
+    // Only for the rows of that kind
+    public long getLong(int row) {
+        return longs[row];
+    }
+
+    public double getDouble(int row) {
+        return doubles[row];
+    }
+
+    public boolean getBoolean(int row) {
+        return booleans[row];
+    }
+
+    public boolean isTrue(int row) {
+        return kinds[row] == BOOLEAN ? booleans[row] : operands[row] == Operand.TRUE;
+    }
+
+    // The rows sel[0..n) of the chunk starting at start
+    void store(Vector values, int start, int[] sel, int n) {
+        if (values.kind == OPERAND) {
+            for (int i = 0; i < n; i++)
+                operands[start + sel[i]] = values.operands[sel[i]];
+            return;
+        }
+        byte kind = (byte) values.kind;
+        long[] l = kind == LONG ? longs() : null;
+        double[] d = kind == DOUBLE ? doubles() : null;
+        boolean[] b = kind == BOOLEAN ? booleans() : null;
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            int row = start + r;
+            if (values.boxed[r]) {
+                operands[row] = values.operands[r];
+                continue;
+            }
+            kinds[row] = kind;
+            if (l != null)
+                l[row] = values.longs[r];
+            else if (d != null)
+                d[row] = values.doubles[r];
+            else
+                b[row] = values.booleans[r];
+        }
+    }
+
+    // made by the first chunk that needs them, whatever its thread
+    private synchronized long[] longs() {
+        if (longs == null)
+            longs = new long[operands.length];
+        return longs;
+    }
+
+    private synchronized double[] doubles() {
+        if (doubles == null)
+            doubles = new double[operands.length];
+        return doubles;
+    }
+
+    private synchronized boolean[] booleans() {
+        if (booleans == null)
+            booleans = new boolean[operands.length];
+        return booleans;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Operand;
+
+// Evaluates each operand for the whole chunk into its own vector, then the
+// operation in a loop over the rows, on Operands (see the typed nodes for
+// the operations on primitives).
+final class CallBatchNode extends BatchNode {
+    private final Function.Performable action;
+    private final BatchNode[] operands;
+    // the vectors of the operands
+    private final int[] vectors;
+
+    CallBatchNode(Function op, BatchNode[] operands, int[] vectors) {
+        this.action = op.action;
+        this.operands = operands;
+        this.vectors = vectors;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) throws EvalException {
+        Vector[] v = new Vector[operands.length];
+        for (int i = 0; i < operands.length; i++)
+            operands[i].eval(chunk, sel, n, v[i] = chunk.vectors[vectors[i]]);
+
+        out.kind(BatchResults.OPERAND);
+        Operand[] o = out.operands;
+        switch (operands.length) {
+            case 0:
+                for (int i = 0; i < n; i++)
+                    o[sel[i]] = action.perform0();
+                break;
+            case 1: {
+                Vector v1 = v[0];
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    o[r] = action.perform1(v1.get(r));
+                }
+                break;
+            }
+            case 2: {
+                Vector v1 = v[0], v2 = v[1];
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    o[r] = action.perform2(v1.get(r), v2.get(r));
+                }
+                break;
+            }
+            default: {
+                Vector v1 = v[0], v2 = v[1], v3 = v[2];
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    o[r] = action.perform3(v1.get(r), v2.get(r), v3.get(r));
+                }
+            }
+        }
+    }
+}
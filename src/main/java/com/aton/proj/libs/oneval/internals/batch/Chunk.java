@@ -0,0 +1,50 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import java.util.Random;
+
+// The rows of a batch being evaluated, SIZE at a time: the nodes address
+// them by their offset from start. It also holds the scratch space of the
+// nodes, the vectors and selections numbered by BatchCompiler.
+final class Chunk {
+    static final int SIZE = 1024;
+
+    final Column[] columns;
+    int start;
+    final Vector[] vectors;
+    final int[][] selections;
+    // the generator of rand(), null for the one of the current thread
+    final Random random;
+
+    Chunk(Column[] columns, int vectors, int selections, Random random) {
+        this.columns = columns;
+        this.random = random;
+        this.vectors = new Vector[vectors];
+        for (int i = 0; i < vectors; i++)
+            this.vectors[i] = new Vector();
+        this.selections = new int[selections][SIZE];
+    }
+}
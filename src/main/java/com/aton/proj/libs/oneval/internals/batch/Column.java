@@ -0,0 +1,117 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.Coercion;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+
+import java.util.BitSet;
+
+// The values of a variable for all the rows of a batch. The primitive ones
+// have an optional BitSet of the rows that are NULL; the values are
+// converted according to the sigil of the variable, see Coercion.
+public abstract class Column {
+    // for the variables without a column
+    public static final Column NULLS = new Column() {
+        @Override
+        public Operand get(ValuedItem.Type type, int row) {
+            return Operand.NULL;
+        }
+    };
+
+    public abstract Operand get(ValuedItem.Type type, int row);
+
+    public static final class OfLongs extends Column {
+        final long[] values;
+        final BitSet nulls;
+
+        public OfLongs(long[] values, BitSet nulls) {
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        boolean isNull(int row) {
+            return nulls != null && nulls.get(row);
+        }
+
+        @Override
+        public Operand get(ValuedItem.Type type, int row) {
+            return isNull(row) ? Operand.NULL : Coercion.fromLong(type, values[row]);
+        }
+    }
+
+    public static final class OfDoubles extends Column {
+        final double[] values;
+        final BitSet nulls;
+
+        public OfDoubles(double[] values, BitSet nulls) {
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        boolean isNull(int row) {
+            return nulls != null && nulls.get(row);
+        }
+
+        @Override
+        public Operand get(ValuedItem.Type type, int row) {
+            return isNull(row) ? Operand.NULL : Coercion.fromDouble(type, values[row]);
+        }
+    }
+
+    public static final class OfBooleans extends Column {
+        final boolean[] values;
+        final BitSet nulls;
+
+        public OfBooleans(boolean[] values, BitSet nulls) {
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        boolean isNull(int row) {
+            return nulls != null && nulls.get(row);
+        }
+
+        @Override
+        public Operand get(ValuedItem.Type type, int row) {
+            return isNull(row) ? Operand.NULL : Coercion.toOperand(type, values[row]);
+        }
+    }
+
+    // Strings, or any value accepted in a Map; null for NULL
+    public static final class OfObjects extends Column {
+        private final Object[] values;
+
+        public OfObjects(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Operand get(ValuedItem.Type type, int row) {
+            return Coercion.toOperand(type, values[row]);
+        }
+    }
+}
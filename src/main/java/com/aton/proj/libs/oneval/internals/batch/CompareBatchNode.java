@@ -0,0 +1,133 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.operations.GreaterThan;
+import com.aton.proj.libs.oneval.internals.operations.GreaterThanOrEqual;
+import com.aton.proj.libs.oneval.internals.operations.LesserThan;
+import com.aton.proj.libs.oneval.internals.operations.LesserThanOrEqual;
+
+import java.math.BigDecimal;
+
+// A comparison, made on the primitives when both operands are longs or
+// doubles, in any mix; the boxed rows, and the other kinds of operands, go
+// through the generic operation.
+final class CompareBatchNode extends BatchNode {
+    private final Function op;
+    private final BatchNode o1;
+    private final BatchNode o2;
+    private final int vector1;
+    private final int vector2;
+
+    CompareBatchNode(Function op, BatchNode o1, BatchNode o2, int vector1, int vector2) {
+        this.op = op;
+        this.o1 = o1;
+        this.o2 = o2;
+        this.vector1 = vector1;
+        this.vector2 = vector2;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) throws EvalException {
+        Vector v1 = chunk.vectors[vector1];
+        Vector v2 = chunk.vectors[vector2];
+        o1.eval(chunk, sel, n, v1);
+        o2.eval(chunk, sel, n, v2);
+        out.kind(BatchResults.BOOLEAN);
+        if (v1.kind == BatchResults.LONG && v2.kind == BatchResults.LONG) {
+            long[] l1 = v1.longs, l2 = v2.longs;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (v1.boxed[r] || v2.boxed[r]) {
+                    out.set(r, op.action.perform2(v1.get(r), v2.get(r)));
+                } else {
+                    out.booleans[r] = holds(op, Long.compare(l1[r], l2[r]));
+                    out.boxed[r] = false;
+                }
+            }
+            return;
+        }
+        boolean numbers = isNumber(v1) && isNumber(v2);
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            if (!numbers || v1.boxed[r] || v2.boxed[r]) {
+                out.set(r, op.action.perform2(v1.get(r), v2.get(r)));
+            } else {
+                out.booleans[r] = holds(op, compare(v1, v2, r));
+                out.boxed[r] = false;
+            }
+        }
+    }
+
+    private static boolean isNumber(Vector v) {
+        return v.kind == BatchResults.LONG || v.kind == BatchResults.DOUBLE;
+    }
+
+    // Same as Num.compare() of the NUMs, the doubles being finite
+    private static int compare(Vector v1, Vector v2, int r) {
+        if (v1.kind == BatchResults.LONG) {
+            return v2.kind == BatchResults.LONG ? Long.compare(v1.longs[r], v2.longs[r])
+                    : compare(v1.longs[r], v2.doubles[r]);
+        }
+        if (v2.kind == BatchResults.LONG)
+            return -compare(v2.longs[r], v1.doubles[r]);
+        double d1 = v1.doubles[r], d2 = v2.doubles[r];
+        // not Double.compare(): -0.0 is 0
+        return d1 < d2 ? -1 : d1 > d2 ? 1 : 0;
+    }
+
+    // As the NUM of the double, BigDecimal.valueOf(d): its decimal form. Below
+    // 2^53 that's on the same side of every long as d, so d is compared
+    // exactly; above, 2^60 is 1152921504606846976 but reads 1152921504606846980
+    private static int compare(long l, double d) {
+        if (Math.abs(d) >= 0x1p53)
+            return BigDecimal.valueOf(l).compareTo(BigDecimal.valueOf(d));
+        long integer = (long) d;
+        if (l != integer)
+            return Long.compare(l, integer);
+        // exact, as integer is d without its fraction
+        double fraction = d - integer;
+        return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+    }
+
+    private static boolean holds(Function op, int comparison) {
+        switch (op) {
+            case GREATER:
+                return GreaterThan.holds(comparison);
+            case GREATER_EQ:
+                return GreaterThanOrEqual.holds(comparison);
+            case LESSER:
+                return LesserThan.holds(comparison);
+            case LESSER_EQ:
+                return LesserThanOrEqual.holds(comparison);
+            case EQUAL:
+                return comparison == 0;
+            default:
+                return comparison != 0;
+        }
+    }
+}
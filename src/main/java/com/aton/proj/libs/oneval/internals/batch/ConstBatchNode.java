@@ -0,0 +1,71 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+
+// A literal: integers that fit in a long and BOOLs go in vectors of
+// primitives
+final class ConstBatchNode extends BatchNode {
+    final Operand value;
+    private final int kind;
+    private final long longValue;
+
+    ConstBatchNode(Operand value) {
+        this.value = value;
+        Long l = null;
+        if (value.getType() == ValuedItem.Type.NUM) {
+            try {
+                l = value.coalesceToLong("");
+            } catch (EvalException e) {
+                // not an integer, or too large
+            }
+        }
+        this.kind = l != null ? BatchResults.LONG
+                : value.getType() == ValuedItem.Type.BOOL ? BatchResults.BOOLEAN : BatchResults.OPERAND;
+        this.longValue = l != null ? l : 0;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) {
+        out.kind(kind);
+        if (kind == BatchResults.OPERAND) {
+            for (int i = 0; i < n; i++)
+                out.operands[sel[i]] = value;
+            return;
+        }
+        boolean isTrue = value == Operand.TRUE;
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            if (kind == BatchResults.LONG)
+                out.longs[r] = longValue;
+            else
+                out.booleans[r] = isTrue;
+            out.boxed[r] = false;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.nodes.Ops;
+
+// Splits the rows by the condition, and evaluates each branch on its own:
+// the first into the result, the other into a vector of its own, copied
+// into the result
+final class IfBatchNode extends BatchNode {
+    private final BatchNode cond;
+    private final BatchNode then;
+    private final BatchNode otherwise;
+    private final int condVector;
+    private final int otherwiseVector;
+    private final int thenSelection;
+    private final int otherwiseSelection;
+
+    IfBatchNode(BatchNode cond, BatchNode then, BatchNode otherwise, int condVector, int otherwiseVector,
+                int thenSelection, int otherwiseSelection) {
+        this.cond = cond;
+        this.then = then;
+        this.otherwise = otherwise;
+        this.condVector = condVector;
+        this.otherwiseVector = otherwiseVector;
+        this.thenSelection = thenSelection;
+        this.otherwiseSelection = otherwiseSelection;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) throws EvalException {
+        Vector c = chunk.vectors[condVector];
+        cond.eval(chunk, sel, n, c);
+        int[] t = chunk.selections[thenSelection];
+        int[] o = chunk.selections[otherwiseSelection];
+        int nt = 0, no = 0;
+        boolean booleans = c.kind == BatchResults.BOOLEAN;
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            if (booleans && !c.boxed[r] ? c.booleans[r] : Ops.condition(c.get(r)))
+                t[nt++] = r;
+            else
+                o[no++] = r;
+        }
+        if (nt == 0) {
+            otherwise.eval(chunk, o, no, out);
+            return;
+        }
+        then.eval(chunk, t, nt, out);
+        if (no > 0) {
+            Vector v = chunk.vectors[otherwiseVector];
+            otherwise.eval(chunk, o, no, v);
+            for (int i = 0; i < no; i++)
+                out.copy(v, o[i]);
+        }
+    }
+}
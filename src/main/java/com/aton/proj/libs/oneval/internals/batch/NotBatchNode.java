@@ -0,0 +1,57 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Function;
+
+// ~ of a vector of booleans into booleans; the boxed rows, and the other
+// kinds of operands, go through the generic operation
+final class NotBatchNode extends BatchNode {
+    private final BatchNode o1;
+    private final int vector;
+
+    NotBatchNode(BatchNode o1, int vector) {
+        this.o1 = o1;
+        this.vector = vector;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) throws EvalException {
+        Vector v = chunk.vectors[vector];
+        o1.eval(chunk, sel, n, v);
+        out.kind(BatchResults.BOOLEAN);
+        boolean booleans = v.kind == BatchResults.BOOLEAN;
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            if (booleans && !v.boxed[r]) {
+                out.booleans[r] = !v.booleans[r];
+                out.boxed[r] = false;
+            } else {
+                out.set(r, Function.NOT.action.perform1(v.get(r)));
+            }
+        }
+    }
+}
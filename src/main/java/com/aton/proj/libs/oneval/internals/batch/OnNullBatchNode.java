@@ -0,0 +1,59 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+// Evaluates the fallback only on the rows where the value is NULL, into a
+// vector of its own, copied into the result
+final class OnNullBatchNode extends BatchNode {
+    private final BatchNode o1;
+    private final BatchNode o2;
+    private final int vector;
+    private final int selection;
+
+    OnNullBatchNode(BatchNode o1, BatchNode o2, int vector, int selection) {
+        this.o1 = o1;
+        this.o2 = o2;
+        this.vector = vector;
+        this.selection = selection;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) throws EvalException {
+        o1.eval(chunk, sel, n, out);
+        int[] nulls = chunk.selections[selection];
+        int m = 0;
+        for (int i = 0; i < n; i++)
+            if (out.isNull(sel[i]))
+                nulls[m++] = sel[i];
+        if (m == 0)
+            return;
+        Vector v = chunk.vectors[vector];
+        o2.eval(chunk, nulls, m, v);
+        for (int i = 0; i < m; i++)
+            out.copy(v, nulls[i]);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.operations.Rand;
+
+// RAND, drawing from the generator of the chunk in the order of the rows
+final class RandBatchNode extends BatchNode {
+    private final BatchNode o1;
+    private final BatchNode o2;
+    private final int vector1;
+    private final int vector2;
+
+    RandBatchNode(BatchNode o1, BatchNode o2, int vector1, int vector2) {
+        this.o1 = o1;
+        this.o2 = o2;
+        this.vector1 = vector1;
+        this.vector2 = vector2;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) throws EvalException {
+        Vector v1 = chunk.vectors[vector1];
+        Vector v2 = chunk.vectors[vector2];
+        o1.eval(chunk, sel, n, v1);
+        o2.eval(chunk, sel, n, v2);
+        out.kind(BatchResults.OPERAND);
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            out.operands[r] = Rand.perform(chunk.random, v1.get(r), v2.get(r));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+import com.aton.proj.libs.oneval.internals.Variable;
+
+// A variable: NUMs from the columns of longs and doubles, and BOOLs from the
+// columns of booleans, go in vectors of primitives; the NaNs and infinities
+// fail through Column.get(), as in the other engines
+final class VarBatchNode extends BatchNode {
+    final Variable variable;
+
+    VarBatchNode(Variable variable) {
+        this.variable = variable;
+    }
+
+    @Override
+    void eval(Chunk chunk, int[] sel, int n, Vector out) {
+        Column column = chunk.columns[variable.getSlot()];
+        ValuedItem.Type type = variable.getType();
+        int start = chunk.start;
+        if (type == ValuedItem.Type.NUM && column instanceof Column.OfLongs) {
+            Column.OfLongs c = (Column.OfLongs) column;
+            out.kind(BatchResults.LONG);
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                boolean isNull = c.isNull(start + r);
+                if (!isNull)
+                    out.longs[r] = c.values[start + r];
+                else
+                    out.operands[r] = Operand.NULL;
+                out.boxed[r] = isNull;
+            }
+        } else if (type == ValuedItem.Type.NUM && column instanceof Column.OfDoubles) {
+            Column.OfDoubles c = (Column.OfDoubles) column;
+            out.kind(BatchResults.DOUBLE);
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                double value = c.values[start + r];
+                boolean boxed = c.isNull(start + r) || Double.isNaN(value) || Double.isInfinite(value);
+                if (!boxed)
+                    out.doubles[r] = value;
+                else
+                    out.operands[r] = column.get(type, start + r);
+                out.boxed[r] = boxed;
+            }
+        } else if (type == ValuedItem.Type.BOOL && column instanceof Column.OfBooleans) {
+            Column.OfBooleans c = (Column.OfBooleans) column;
+            out.kind(BatchResults.BOOLEAN);
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                boolean isNull = c.isNull(start + r);
+                if (!isNull)
+                    out.booleans[r] = c.values[start + r];
+                else
+                    out.operands[r] = Operand.NULL;
+                out.boxed[r] = isNull;
+            }
+        } else {
+            out.kind(BatchResults.OPERAND);
+            for (int i = 0; i < n; i++)
+                out.operands[sel[i]] = column.get(type, start + sel[i]);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.batch;
+
+import com.aton.proj.libs.oneval.internals.Coercion;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+
+// The values of a node for the rows of a chunk, by offset. The node picks
+// the kind: longs (integer NUMs), doubles (NUMs of a column of doubles),
+// booleans (BOOLs), or Operands for anything else. In a primitive vector,
+// the rows whose value isn't of its kind (NULLs, a sum that overflowed, ...)
+// are boxed, with the value in operands[].
+//
+// Writing a kind makes the rows of the others meaningless: a node that
+// writes its result in several passes (if, onNull) gives each one a vector
+// of its own, and copies the rows.
+final class Vector {
+    int kind = BatchResults.OPERAND;
+    final Operand[] operands = new Operand[Chunk.SIZE];
+    // the primitive arrays, made on first use
+    boolean[] boxed;
+    long[] longs;
+    double[] doubles;
+    boolean[] booleans;
+
+    // Starts writing values of the given kind
+    void kind(int kind) {
+        this.kind = kind;
+        if (kind == BatchResults.OPERAND)
+            return;
+        if (boxed == null)
+            boxed = new boolean[Chunk.SIZE];
+        if (kind == BatchResults.LONG && longs == null)
+            longs = new long[Chunk.SIZE];
+        else if (kind == BatchResults.DOUBLE && doubles == null)
+            doubles = new double[Chunk.SIZE];
+        else if (kind == BatchResults.BOOLEAN && booleans == null)
+            booleans = new boolean[Chunk.SIZE];
+    }
+
+    boolean isBoxed(int r) {
+        return kind == BatchResults.OPERAND || boxed[r];
+    }
+
+    Operand get(int r) {
+        if (isBoxed(r))
+            return operands[r];
+        switch (kind) {
+            case BatchResults.LONG:
+                return Operand.numOperand(longs[r], 0);
+            case BatchResults.DOUBLE:
+                return Coercion.fromDouble(ValuedItem.Type.NUM, doubles[r]);
+            default:
+                return Operand.boolOperand(booleans[r]);
+        }
+    }
+
+    // A value of any kind; a BOOL goes unboxed in a vector of booleans
+    void set(int r, Operand value) {
+        if (kind == BatchResults.OPERAND) {
+            operands[r] = value;
+        } else if (kind == BatchResults.BOOLEAN && value.getType() == ValuedItem.Type.BOOL) {
+            booleans[r] = value == Operand.TRUE;
+            boxed[r] = false;
+        } else {
+            operands[r] = value;
+            boxed[r] = true;
+        }
+    }
+
+    // The value of row r of from, keeping the kind of this vector
+    void copy(Vector from, int r) {
+        if (from.kind != kind || from.isBoxed(r)) {
+            set(r, from.get(r));
+            return;
+        }
+        switch (kind) {
+            case BatchResults.LONG:
+                longs[r] = from.longs[r];
+                break;
+            case BatchResults.DOUBLE:
+                doubles[r] = from.doubles[r];
+                break;
+            default:
+                booleans[r] = from.booleans[r];
+        }
+        boxed[r] = false;
+    }
+
+    boolean isNull(int r) {
+        return isBoxed(r) && operands[r] == Operand.NULL;
+    }
+
+    boolean is(int r, boolean value) {
+        if (isBoxed(r))
+            return operands[r] == Operand.boolOperand(value);
+        return kind == BatchResults.BOOLEAN && booleans[r] == value;
+    }
+}
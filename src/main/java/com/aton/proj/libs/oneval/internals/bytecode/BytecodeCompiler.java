@@ -0,0 +1,390 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.bytecode;
+
+import com.aton.proj.libs.oneval.internals.*;
+import com.aton.proj.libs.oneval.internals.nodes.Node;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compiles a set of expression trees into the methods of a single generated
+// class, one per expression, with the operations called directly (or
+// inlined, for &&, ||, if and onNull) in place of the interpreter loop.
+//
+// The specializations are the same as the ones of NodeCompiler, through Ops.
+// The class is defined as a hidden class where available (Java 15+), or else
+// in a class loader of its own; either way it goes away with its Evaluators.
+public final class BytecodeCompiler {
+    private static final String PACKAGE = "com/aton/proj/libs/oneval/internals/";
+    private static final String OPERAND = PACKAGE + "Operand";
+    private static final String VARIABLE = PACKAGE + "Variable";
+    private static final String FRAME = PACKAGE + "Frame";
+    private static final String FUNCTION = PACKAGE + "Function";
+    private static final String PERFORMABLE = PACKAGE + "Function$Performable";
+    private static final String OPS = PACKAGE + "nodes/Ops";
+    private static final String SUPER = PACKAGE + "bytecode/CompiledExpressions";
+
+    private static final String OPERAND_D = 'L' + OPERAND + ';';
+    private static final String FUNCTION_D = 'L' + FUNCTION + ';';
+    private static final String EVAL_D = "(L" + FRAME + ";)" + OPERAND_D;
+    private static final String BINARY_D = '(' + OPERAND_D + OPERAND_D + ')' + OPERAND_D;
+    private static final String[] PERFORM_D = {
+            "()" + OPERAND_D,
+            '(' + OPERAND_D + ')' + OPERAND_D,
+            BINARY_D,
+            '(' + OPERAND_D + OPERAND_D + OPERAND_D + ')' + OPERAND_D
+    };
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+    private static final Method DEFINE_HIDDEN_CLASS = defineHiddenClass();
+    private static final Object NO_CLASS_OPTIONS = DEFINE_HIDDEN_CLASS == null ? null
+            : Array.newInstance(DEFINE_HIDDEN_CLASS.getParameterTypes()[2].getComponentType(), 0);
+
+    private final ClassWriter cw;
+    private final String name;
+    private final boolean eager;
+    private final Map<Operand, Integer> constants = new IdentityHashMap<>();
+    private final Map<Variable, Integer> variables = new IdentityHashMap<>();
+
+    private BytecodeCompiler(boolean eager) {
+        this.name = PACKAGE + "bytecode/Expressions$" + COUNTER.incrementAndGet();
+        this.cw = new ClassWriter(name, SUPER);
+        this.eager = eager;
+    }
+
+    // One Node per tree, all evaluated by the same generated class; null if
+    // the expressions are too large for the limits of the class file format.
+    // eager: evaluate all the operands of &&, ||, if and onNull anyway
+    public static Node[] compile(List<Tree> trees, boolean eager) {
+        if (trees.isEmpty())
+            return new Node[0];
+        BytecodeCompiler compiler = new BytecodeCompiler(eager);
+        CompiledExpressions expressions;
+        try {
+            expressions = compiler.compile(trees);
+        } catch (ClassTooLargeException e) {
+            return null;
+        }
+
+        Node[] ret = new Node[trees.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = new CompiledNode(trees.get(i).type, expressions, i);
+        return ret;
+    }
+
+    private CompiledExpressions compile(List<Tree> trees) {
+        constructor();
+        for (int i = 0; i < trees.size(); i++) {
+            Code code = new Code(2);
+            emit(trees.get(i), code);
+            code.op(Code.ARETURN, -1);
+            cw.method(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL, "e" + i, EVAL_D, code);
+        }
+        dispatcher(trees.size());
+
+        Operand[] k = new Operand[constants.size()];
+        for (Map.Entry<Operand, Integer> e : constants.entrySet())
+            k[e.getValue()] = e.getKey();
+        Variable[] v = new Variable[variables.size()];
+        for (Map.Entry<Variable, Integer> e : variables.entrySet())
+            v[e.getValue()] = e.getKey();
+
+        try {
+            return (CompiledExpressions) define(cw.toByteArray())
+                    .getConstructor(Operand[].class, Variable[].class)
+                    .newInstance(k, v);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void constructor() {
+        Code code = new Code(3);
+        code.op(Code.ALOAD_0, 1);
+        code.op(Code.ALOAD_1, 1);
+        code.op(Code.ALOAD_2, 1);
+        code.op(Code.INVOKESPECIAL, -3);
+        code.u2(cw.methodRef(SUPER, "<init>", "([" + OPERAND_D + "[L" + VARIABLE + ";)V"));
+        code.op(Code.RETURN, 0);
+        cw.method(ClassWriter.ACC_PUBLIC, "<init>", "([" + OPERAND_D + "[L" + VARIABLE + ";)V", code);
+    }
+
+    // eval(int expression, Frame frame): a tableswitch calling e<expression>
+    private void dispatcher(int count) {
+        // every case is aload_0, aload_2, invokevirtual, areturn
+        final int caseLength = 6;
+        Code code = new Code(3);
+        code.op(Code.ILOAD_1, 1);
+        int start = code.length();
+        code.op(Code.TABLESWITCH, -1);
+        while (code.length() % 4 != 0)
+            code.u1(0);
+        int first = code.length() + 4 * (count + 3) - start;
+        code.u4(first + count * caseLength);
+        code.u4(0);
+        code.u4(count - 1);
+        for (int i = 0; i < count; i++)
+            code.u4(first + i * caseLength);
+
+        for (int i = 0; i < count; i++) {
+            code.op(Code.ALOAD_0, 1);
+            code.op(Code.ALOAD_2, 1);
+            code.op(Code.INVOKEVIRTUAL, -1);
+            code.u2(cw.methodRef(name, "e" + i, EVAL_D));
+            code.op(Code.ARETURN, -1);
+        }
+        code.op(Code.NEW, 1);
+        code.u2(cw.classRef("java/lang/IllegalArgumentException"));
+        code.op(Code.DUP, 1);
+        code.op(Code.INVOKESPECIAL, -1);
+        code.u2(cw.methodRef("java/lang/IllegalArgumentException", "<init>", "()V"));
+        code.op(Code.ATHROW, -1);
+        cw.method(ClassWriter.ACC_PUBLIC, "eval", "(IL" + FRAME + ";)" + OPERAND_D, code);
+    }
+
+    private void emit(Tree tree, Code code) {
+        if (tree.item instanceof Operand) {
+            code.op(Code.ALOAD_0, 1);
+            code.op(Code.GETFIELD, 0);
+            code.u2(cw.fieldRef(SUPER, "constants", '[' + OPERAND_D));
+            push(code, index(constants, (Operand) tree.item));
+            code.op(Code.AALOAD, -1);
+            return;
+        }
+        if (tree.item instanceof Variable) {
+            code.op(Code.ALOAD_1, 1);
+            code.op(Code.ALOAD_0, 1);
+            code.op(Code.GETFIELD, 0);
+            code.u2(cw.fieldRef(SUPER, "variables", "[L" + VARIABLE + ';'));
+            push(code, index(variables, (Variable) tree.item));
+            code.op(Code.AALOAD, -1);
+            invokeInterface(code, FRAME, "get", "(L" + VARIABLE + ";)" + OPERAND_D, 2);
+            return;
+        }
+
+        Function op = tree.function();
+        Tree[] o = tree.children;
+        switch (op) {
+            case AND:
+            case OR:
+                if (!eager) {
+                    // action, o1; if o1 decides, drop the action and keep o1
+                    action(code, op);
+                    emit(o[0], code);
+                    code.op(Code.DUP, 1);
+                    getStatic(code, OPERAND, op == Function.AND ? "FALSE" : "TRUE", OPERAND_D);
+                    int evaluate = code.branch(Code.IF_ACMPNE, -2);
+                    code.op(Code.SWAP, 0);
+                    code.op(Code.POP, -1);
+                    int end = code.branch(Code.GOTO, 0);
+                    code.stack(code.stack() + 1);
+                    code.land(evaluate);
+                    emit(o[1], code);
+                    invokeInterface(code, PERFORMABLE, "perform2", BINARY_D, 3);
+                    code.land(end);
+                    return;
+                }
+                break;
+            case ONNULL:
+                if (!eager) {
+                    emit(o[0], code);
+                    code.op(Code.DUP, 1);
+                    getStatic(code, OPERAND, "NULL", OPERAND_D);
+                    int end = code.branch(Code.IF_ACMPNE, -2);
+                    code.op(Code.POP, -1);
+                    emit(o[1], code);
+                    code.land(end);
+                    return;
+                }
+                break;
+            case IF:
+                if (!eager) {
+                    emit(o[0], code);
+                    invokeStatic(code, OPS, "condition", '(' + OPERAND_D + ")Z", 0);
+                    int otherwise = code.branch(Code.IFEQ, -1);
+                    emit(o[1], code);
+                    int end = code.branch(Code.GOTO, 0);
+                    code.stack(code.stack() - 1);
+                    code.land(otherwise);
+                    emit(o[2], code);
+                    code.land(end);
+                    return;
+                }
+                break;
+            case RANDF:
+                code.op(Code.ALOAD_1, 1);
+                emit(o[0], code);
+                emit(o[1], code);
+                invokeStatic(code, OPS, "rand", "(L" + FRAME + ';' + OPERAND_D + OPERAND_D + ')' + OPERAND_D, -2);
+                return;
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+                if (isNum(o[0]) && isNum(o[1])) {
+                    emit(o[0], code);
+                    emit(o[1], code);
+                    String method = op == Function.ADD ? "numAdd" : op == Function.SUBTRACT ? "numSubtract" : "numMultiply";
+                    invokeStatic(code, OPS, method, BINARY_D, -1);
+                    return;
+                }
+                break;
+            case GREATER:
+            case GREATER_EQ:
+            case LESSER:
+            case LESSER_EQ:
+                if (isNum(o[0]) && isNum(o[1])) {
+                    getStatic(code, FUNCTION, op.name(), FUNCTION_D);
+                    emit(o[0], code);
+                    emit(o[1], code);
+                    invokeStatic(code, OPS, "numCompare", '(' + FUNCTION_D + OPERAND_D + OPERAND_D + ')' + OPERAND_D, -2);
+                    return;
+                }
+                break;
+            case EQUAL:
+            case NOT_EQUAL:
+                emit(o[0], code);
+                emit(o[1], code);
+                code.op(Code.INVOKEVIRTUAL, -1);
+                code.u2(cw.methodRef(OPERAND, "equals", "(Ljava/lang/Object;)Z"));
+                if (op == Function.NOT_EQUAL) {
+                    code.op(Code.ICONST_1, 1);
+                    code.op(Code.IXOR, -1);
+                }
+                invokeStatic(code, OPERAND, "boolOperand", "(Z)" + OPERAND_D, 0);
+                return;
+            case CONTAINS:
+            case STARTSWITH:
+            case ENDSWITH:
+                if (o[1].item instanceof Operand && o[1].type == ValuedItem.Type.STRING) {
+                    emit(o[0], code);
+                    emit(o[1], code);
+                    String method = op == Function.CONTAINS ? "strContains" : op == Function.STARTSWITH ? "strStartsWith" : "strEndsWith";
+                    invokeStatic(code, OPS, method, BINARY_D, -1);
+                    return;
+                }
+                break;
+        }
+
+        action(code, op);
+        for (Tree child : o)
+            emit(child, code);
+        invokeInterface(code, PERFORMABLE, "perform" + o.length, PERFORM_D[o.length], o.length + 1);
+    }
+
+    private static boolean isNum(Tree tree) {
+        return tree.type == ValuedItem.Type.NUM;
+    }
+
+    private static <T> int index(Map<T, Integer> indexes, T item) {
+        Integer ret = indexes.get(item);
+        if (ret == null) {
+            ret = indexes.size();
+            indexes.put(item, ret);
+        }
+        return ret;
+    }
+
+    private void push(Code code, int i) {
+        if (i <= 5) {
+            code.op(Code.ICONST_0 + i, 1);
+        } else if (i <= Byte.MAX_VALUE) {
+            code.op(Code.BIPUSH, 1);
+            code.u1(i);
+        } else if (i <= Short.MAX_VALUE) {
+            code.op(Code.SIPUSH, 1);
+            code.u2(i);
+        } else {
+            code.op(Code.LDC_W, 1);
+            code.u2(cw.integer(i));
+        }
+    }
+
+    // pushes op.action
+    private void action(Code code, Function op) {
+        getStatic(code, FUNCTION, op.name(), FUNCTION_D);
+        code.op(Code.GETFIELD, 0);
+        code.u2(cw.fieldRef(FUNCTION, "action", 'L' + PERFORMABLE + ';'));
+    }
+
+    private void getStatic(Code code, String owner, String field, String descriptor) {
+        code.op(Code.GETSTATIC, 1);
+        code.u2(cw.fieldRef(owner, field, descriptor));
+    }
+
+    private void invokeStatic(Code code, String owner, String method, String descriptor, int delta) {
+        code.op(Code.INVOKESTATIC, delta);
+        code.u2(cw.methodRef(owner, method, descriptor));
+    }
+
+    // args includes the receiver
+    private void invokeInterface(Code code, String owner, String method, String descriptor, int args) {
+        code.op(Code.INVOKEINTERFACE, 1 - args);
+        code.u2(cw.interfaceMethodRef(owner, method, descriptor));
+        code.u1(args);
+        code.u1(0);
+    }
+
+    private static Class<?> define(byte[] bytes) {
+        if (DEFINE_HIDDEN_CLASS != null) {
+            try {
+                MethodHandles.Lookup lookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(
+                        MethodHandles.lookup(), bytes, false, NO_CLASS_OPTIONS);
+                return lookup.lookupClass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return new Loader(BytecodeCompiler.class.getClassLoader()).define(bytes);
+    }
+
+    // MethodHandles.Lookup.defineHiddenClass(byte[], boolean, ClassOption...)
+    private static Method defineHiddenClass() {
+        try {
+            Class<?> options = Class.forName("[Ljava.lang.invoke.MethodHandles$Lookup$ClassOption;");
+            return MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+}
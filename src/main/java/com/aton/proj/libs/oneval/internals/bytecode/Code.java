@@ -0,0 +1,130 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.bytecode;
+
+import java.util.Arrays;
+
+// The body of a method being generated. It keeps track of the depth of the
+// operand stack, which the class file has to declare; after an unconditional
+// jump the depth where the code resumes has to be set by hand.
+final class Code {
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD_1 = 0x1b;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int AALOAD = 0x32;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int SWAP = 0x5f;
+    static final int IXOR = 0x82;
+    static final int IFEQ = 0x99;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int TABLESWITCH = 0xaa;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int NEW = 0xbb;
+    static final int ATHROW = 0xbf;
+
+    final int maxLocals;
+    private byte[] code = new byte[256];
+    private int length;
+    private int stack;
+    private int maxStack;
+
+    Code(int maxLocals) {
+        this.maxLocals = maxLocals;
+    }
+
+    // an instruction changing the stack depth by delta
+    void op(int opcode, int delta) {
+        u1(opcode);
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    void u1(int b) {
+        if (length == code.length)
+            code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) b;
+    }
+
+    void u2(int s) {
+        u1(s >> 8);
+        u1(s);
+    }
+
+    void u4(int i) {
+        u2(i >> 16);
+        u2(i);
+    }
+
+    // a jump, to be pointed to its target with land()
+    int branch(int opcode, int delta) {
+        int at = length;
+        op(opcode, delta);
+        u2(0);
+        return at;
+    }
+
+    void land(int branch) {
+        int offset = length - branch;
+        if (offset > Short.MAX_VALUE)
+            throw new ClassTooLargeException("Jump too long");
+        code[branch + 1] = (byte) (offset >> 8);
+        code[branch + 2] = (byte) offset;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int stack() {
+        return stack;
+    }
+
+    void stack(int depth) {
+        stack = depth;
+    }
+
+    int maxStack() {
+        return maxStack;
+    }
+
+    byte[] bytes() {
+        return Arrays.copyOf(code, length);
+    }
+}
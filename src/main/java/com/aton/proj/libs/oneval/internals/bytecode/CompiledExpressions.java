@@ -0,0 +1,46 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.bytecode;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Frame;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.Variable;
+
+// The superclass of the classes generated by BytecodeCompiler, each holding a
+// set of expressions. It must stay public, as must everything the generated
+// code uses, since the generated class may live in its own class loader.
+public abstract class CompiledExpressions {
+    // the literals and variables of the expressions, by index
+    protected final Operand[] constants;
+    protected final Variable[] variables;
+
+    protected CompiledExpressions(Operand[] constants, Variable[] variables) {
+        this.constants = constants;
+        this.variables = variables;
+    }
+
+    public abstract Operand eval(int expression, Frame frame) throws EvalException;
+}
@@ -0,0 +1,52 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.nodes;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Frame;
+import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+
+// The generic path: calls the operation of the function
+final class Call3Node extends Node {
+    private final Function.Performable action;
+    private final Node o1;
+    private final Node o2;
+    private final Node o3;
+
+    Call3Node(ValuedItem.Type type, Function op, Node o1, Node o2, Node o3) {
+        super(type);
+        this.action = op.action;
+        this.o1 = o1;
+        this.o2 = o2;
+        this.o3 = o3;
+    }
+
+    @Override
+    public Operand eval(Frame frame) throws EvalException {
+        return action.perform3(o1.eval(frame), o2.eval(frame), o3.eval(frame));
+    }
+}
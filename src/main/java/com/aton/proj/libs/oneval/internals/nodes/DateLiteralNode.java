@@ -0,0 +1,78 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.nodes;
+
+import com.aton.proj.libs.oneval.internals.DatePattern;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Frame;
+import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+import com.aton.proj.libs.oneval.internals.operations.EpochToStr;
+import com.aton.proj.libs.oneval.internals.operations.StrToEpoch;
+
+import java.time.ZoneId;
+
+// EPOCHTOSTR, STRTOEPOCH and their time zone versions with a literal
+// pattern, translated once, and the zone, if a literal, looked up once;
+// anything else goes through the generic operation
+final class DateLiteralNode extends Node {
+    private final Function op;
+    private final Node o1;
+    private final Operand literal;
+    // null for the versions without a zone
+    private final Node zone;
+    private final ZoneId zoneId;
+    // made again if the default locale changes; a race just makes it twice
+    private DatePattern pattern;
+
+    DateLiteralNode(ValuedItem.Type type, Function op, Node o1, Operand literal, DatePattern pattern, Node zone,
+                    ZoneId zoneId) {
+        super(type);
+        this.op = op;
+        this.o1 = o1;
+        this.literal = literal;
+        this.pattern = pattern;
+        this.zone = zone;
+        this.zoneId = zoneId;
+    }
+
+    @Override
+    public Operand eval(Frame frame) throws EvalException {
+        Operand v1 = o1.eval(frame);
+        Operand v3 = zone != null ? zone.eval(frame) : null;
+        boolean format = op == Function.EPOCHTOSTR || op == Function.EPOCHTOSTR_TZ;
+        if (v1.getType() != (format ? ValuedItem.Type.NUM : ValuedItem.Type.STRING)
+                || v3 != null && v3.getType() != ValuedItem.Type.STRING)
+            return v3 == null ? op.action.perform2(v1, literal) : op.action.perform3(v1, literal, v3);
+
+        DatePattern p = pattern;
+        if (!p.isCurrent())
+            pattern = p = DatePattern.of((String) literal.getValue());
+        ZoneId id = zoneId != null ? zoneId
+                : v3 != null ? DatePattern.zone((String) v3.getValue()) : ZoneId.systemDefault();
+        return format ? EpochToStr.format(v1, p, id) : StrToEpoch.parse(v1, p, id);
+    }
+}
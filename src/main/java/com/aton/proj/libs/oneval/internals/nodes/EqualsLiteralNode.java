@@ -0,0 +1,49 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.nodes;
+
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Frame;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+
+// == and != against a literal, like $eventType == 'LOGIN'
+final class EqualsLiteralNode extends Node {
+    private final Node o1;
+    private final Operand literal;
+    private final boolean negated;
+
+    EqualsLiteralNode(Node o1, Operand literal, boolean negated) {
+        super(ValuedItem.Type.BOOL);
+        this.o1 = o1;
+        this.literal = literal;
+        this.negated = negated;
+    }
+
+    @Override
+    public Operand eval(Frame frame) throws EvalException {
+        return Operand.boolOperand(literal.equals(o1.eval(frame)) != negated);
+    }
+}
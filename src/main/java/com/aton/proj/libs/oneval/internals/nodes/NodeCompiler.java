@@ -0,0 +1,182 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.nodes;
+
+import com.aton.proj.libs.oneval.internals.*;
+
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Turns the expression tree into a tree of Nodes, each evaluating its own
+// children directly.
+//
+// Where the types of the operands can be told from the variable sigils, the
+// literals and the functions producing them, the generic call is replaced by
+// a node specialized on them (e.g. NumAddNode for %a + %b), which skips the
+// type dispatch of the operation; all of them fall back to the operation when
+// the actual operands turn out to be something else, such as NULL.
+public final class NodeCompiler {
+    private NodeCompiler() {
+    }
+
+    // eager: evaluate all the operands of &&, ||, if and onNull anyway
+    public static Node compile(Tree tree, boolean eager) {
+        return compile(tree, eager, Collections.emptyMap(), new IdentityHashMap<>());
+    }
+
+    // Same as above, for trees sharing subtrees (see CommonSubexpressions):
+    // the ones in memo are evaluated once, and their result kept at their
+    // index in Frame.memo(). The nodes compiled so far are in compiled, so
+    // that all the trees get the same node for the same subtree.
+    public static Node compile(Tree tree, boolean eager, Map<Tree, Integer> memo, Map<Tree, Node> compiled) {
+        Node ret = compiled.get(tree);
+        if (ret == null) {
+            ret = node(tree, eager, memo, compiled);
+            Integer index = memo.get(tree);
+            if (index != null)
+                ret = new MemoNode(index, ret);
+            compiled.put(tree, ret);
+        }
+        return ret;
+    }
+
+    private static Node node(Tree tree, boolean eager, Map<Tree, Integer> memo, Map<Tree, Node> compiled) {
+        if (tree.item instanceof Operand)
+            return new ConstNode((Operand) tree.item);
+        if (tree.item instanceof Variable)
+            return new VarNode((Variable) tree.item);
+
+        Function op = tree.function();
+        ValuedItem.Type type = tree.type;
+        Tree[] t = tree.children;
+        Node[] o = new Node[t.length];
+        for (int i = 0; i < o.length; i++)
+            o[i] = compile(tree.children[i], eager, memo, compiled);
+
+        switch (op) {
+            case AND:
+                if (!eager)
+                    return new AndNode(o[0], o[1]);
+                break;
+            case OR:
+                if (!eager)
+                    return new OrNode(o[0], o[1]);
+                break;
+            case IF:
+                if (!eager)
+                    return new IfNode(type, o[0], o[1], o[2]);
+                break;
+            case ONNULL:
+                if (!eager)
+                    return new OnNullNode(type, o[0], o[1]);
+                break;
+            case RANDF:
+                return new RandNode(o[0], o[1]);
+            case ADD:
+                if (isNum(t[0]) && isNum(t[1]))
+                    return new NumAddNode(o[0], o[1]);
+                break;
+            case SUBTRACT:
+                if (isNum(t[0]) && isNum(t[1]))
+                    return new NumSubtractNode(o[0], o[1]);
+                break;
+            case MULTIPLY:
+                if (isNum(t[0]) && isNum(t[1]))
+                    return new NumMultiplyNode(o[0], o[1]);
+                break;
+            case GREATER:
+            case GREATER_EQ:
+            case LESSER:
+            case LESSER_EQ:
+                if (isNum(t[0]) && isNum(t[1]))
+                    return new NumCompareNode(op, o[0], o[1]);
+                break;
+            case EQUAL:
+            case NOT_EQUAL:
+                if (o[1] instanceof ConstNode)
+                    return new EqualsLiteralNode(o[0], ((ConstNode) o[1]).value, op == Function.NOT_EQUAL);
+                if (o[0] instanceof ConstNode)
+                    return new EqualsLiteralNode(o[1], ((ConstNode) o[0]).value, op == Function.NOT_EQUAL);
+                break;
+            case CONTAINS:
+                if (isStrLiteral(o[1]))
+                    return new StrContainsLiteralNode(o[0], ((ConstNode) o[1]).value);
+                break;
+            case STARTSWITH:
+                if (isStrLiteral(o[1]))
+                    return new StrStartsWithLiteralNode(o[0], ((ConstNode) o[1]).value);
+                break;
+            case ENDSWITH:
+                if (isStrLiteral(o[1]))
+                    return new StrEndsWithLiteralNode(o[0], ((ConstNode) o[1]).value);
+                break;
+            case EPOCHTOSTR:
+            case EPOCHTOSTR_TZ:
+            case STRTOEPOCH:
+            case STRTOEPOCH_TZ:
+                if (isStrLiteral(o[1])) {
+                    Operand literal = ((ConstNode) o[1]).value;
+                    DatePattern pattern;
+                    try {
+                        pattern = DatePattern.of((String) literal.getValue());
+                    } catch (IllegalArgumentException e) {
+                        break; // a bad pattern fails when evaluated, as always
+                    }
+                    Node zone = o.length > 2 ? o[2] : null;
+                    ZoneId zoneId = null;
+                    if (isStrLiteral(zone)) {
+                        try {
+                            zoneId = DatePattern.zone((String) ((ConstNode) zone).value.getValue());
+                        } catch (EvalException e) {
+                            // fails when evaluated
+                        }
+                    }
+                    return new DateLiteralNode(type, op, o[0], literal, pattern, zone, zoneId);
+                }
+                break;
+        }
+
+        switch (o.length) {
+            case 0:
+                return new Call0Node(type, op);
+            case 1:
+                return new Call1Node(type, op, o[0]);
+            case 2:
+                return new Call2Node(type, op, o[0], o[1]);
+            default:
+                return new Call3Node(type, op, o[0], o[1], o[2]);
+        }
+    }
+
+    private static boolean isNum(Tree tree) {
+        return tree.type == ValuedItem.Type.NUM;
+    }
+
+    private static boolean isStrLiteral(Node node) {
+        return node instanceof ConstNode && node.type == ValuedItem.Type.STRING;
+    }
+}
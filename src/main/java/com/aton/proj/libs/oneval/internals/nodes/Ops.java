@@ -0,0 +1,111 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.nodes;
+
+import com.aton.proj.libs.oneval.internals.Chars;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Frame;
+import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Num;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+import com.aton.proj.libs.oneval.internals.operations.GreaterThan;
+import com.aton.proj.libs.oneval.internals.operations.GreaterThanOrEqual;
+import com.aton.proj.libs.oneval.internals.operations.LesserThan;
+import com.aton.proj.libs.oneval.internals.operations.LesserThanOrEqual;
+import com.aton.proj.libs.oneval.internals.operations.Rand;
+
+// The operations specialized on the types of their operands, shared by the
+// nodes and the generated bytecode. Each one handles the expected types
+// inline, and leaves anything else to the generic operation.
+public final class Ops {
+    private Ops() {
+    }
+
+    public static Operand numAdd(Operand v1, Operand v2) throws EvalException {
+        if (v1.getType() != ValuedItem.Type.NUM || v2.getType() != ValuedItem.Type.NUM)
+            return Function.ADD.action.perform2(v1, v2);
+        return Num.add(v1, v2);
+    }
+
+    public static Operand numSubtract(Operand v1, Operand v2) throws EvalException {
+        if (v1.getType() != ValuedItem.Type.NUM || v2.getType() != ValuedItem.Type.NUM)
+            return Function.SUBTRACT.action.perform2(v1, v2);
+        return Num.subtract(v1, v2);
+    }
+
+    public static Operand numMultiply(Operand v1, Operand v2) throws EvalException {
+        if (v1.getType() != ValuedItem.Type.NUM || v2.getType() != ValuedItem.Type.NUM)
+            return Function.MULTIPLY.action.perform2(v1, v2);
+        return Num.multiply(v1, v2);
+    }
+
+    // op is one of >, >=, < and <=
+    public static Operand numCompare(Function op, Operand v1, Operand v2) throws EvalException {
+        if (v1.getType() != ValuedItem.Type.NUM || v2.getType() != ValuedItem.Type.NUM)
+            return op.action.perform2(v1, v2);
+        int comparison = Num.compare(v1, v2);
+        switch (op) {
+            case GREATER:
+                return Operand.boolOperand(GreaterThan.holds(comparison));
+            case GREATER_EQ:
+                return Operand.boolOperand(GreaterThanOrEqual.holds(comparison));
+            case LESSER:
+                return Operand.boolOperand(LesserThan.holds(comparison));
+            default:
+                return Operand.boolOperand(LesserThanOrEqual.holds(comparison));
+        }
+    }
+
+    public static Operand strContains(Operand v1, Operand literal) throws EvalException {
+        if (v1.getType() != ValuedItem.Type.STRING)
+            return Function.CONTAINS.action.perform2(v1, literal);
+        return Operand.boolOperand(Chars.indexOf(v1.chars(), literal.chars()) >= 0);
+    }
+
+    public static Operand strStartsWith(Operand v1, Operand literal) throws EvalException {
+        if (v1.getType() != ValuedItem.Type.STRING)
+            return Function.STARTSWITH.action.perform2(v1, literal);
+        return Operand.boolOperand(Chars.startsWith(v1.chars(), literal.chars()));
+    }
+
+    public static Operand strEndsWith(Operand v1, Operand literal) throws EvalException {
+        if (v1.getType() != ValuedItem.Type.STRING)
+            return Function.ENDSWITH.action.perform2(v1, literal);
+        return Operand.boolOperand(Chars.endsWith(v1.chars(), literal.chars()));
+    }
+
+    // rand(), drawing from the generator of the frame
+    public static Operand rand(Frame frame, Operand v1, Operand v2) throws EvalException {
+        return Rand.perform(frame.random(), v1, v2);
+    }
+
+    // the condition of an if
+    public static boolean condition(Operand c) throws EvalException {
+        if (c.getType() != ValuedItem.Type.BOOL)
+            throw new EvalException("First operand for IF must be BOOL");
+        return c == Operand.TRUE;
+    }
+}
@@ -26,27 +26,26 @@ package com.aton.proj.libs.oneval.internals.operations;
 
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Num;
 import com.aton.proj.libs.oneval.internals.Operand;
 import com.aton.proj.libs.oneval.internals.ValuedItem;
 
-import java.math.BigDecimal;
-
 public class Abs implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 1)
             throw new EvalException("Operands for ABS must be 1, are " + operands.length);
-        Operand o1 = operands[0];
+        return perform1(operands[0]);
+    }
 
+    @Override
+    public Operand perform1(Operand o1) throws EvalException {
         if (o1.getType() != ValuedItem.Type.NUM && o1.getType() != ValuedItem.Type.NULL)
             throw new EvalException("Operand for ABS must be [Num|Null]");
 
         if (o1.getType() == ValuedItem.Type.NULL)
             return o1;
 
-        assert o1.getValue() != null;
-
-        BigDecimal v1 = (BigDecimal) o1.getValue();
-        return Operand.numOperand(v1.abs());
+        return Num.abs(o1);
     }
 }
@@ -26,6 +26,7 @@ package com.aton.proj.libs.oneval.internals.operations;
 
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Num;
 import com.aton.proj.libs.oneval.internals.Operand;
 
 import java.math.BigDecimal;
@@ -35,9 +36,11 @@ public class Add implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for ADD must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         switch (o1.getType()) {
             case STRING:
                 switch (o2.getType()) {
@@ -61,9 +64,7 @@ public class Add implements Function.Performable {
                         assert o2.getValue() != null;
                         return Operand.strOperand(((BigDecimal) o1.getValue()).toString() + (String) o2.getValue());
                     case NUM:
-                        assert o1.getValue() != null;
-                        assert o2.getValue() != null;
-                        return Operand.numOperand(((BigDecimal) o1.getValue()).add((BigDecimal) o2.getValue()));
+                        return Num.add(o1, o2);
                     case BOOL:
                         throw new EvalException("Cannot ADD on BOOL");
                     case NULL:
@@ -35,9 +35,11 @@ public class Divide implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for DIVIDE must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         switch (o1.getType()) {
             case STRING:
                 throw new EvalException("Cannot DIVIDE on strings");
@@ -33,6 +33,11 @@ import java.math.BigDecimal;
 public class Epoch implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
+        return perform0();
+    }
+
+    @Override
+    public Operand perform0() throws EvalException {
         return Operand.numOperand(new BigDecimal(System.currentTimeMillis() / 1000L));
     }
 }
@@ -24,29 +24,36 @@
  */
 package com.aton.proj.libs.oneval.internals.operations;
 
+import com.aton.proj.libs.oneval.internals.DatePattern;
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
 import com.aton.proj.libs.oneval.internals.Operand;
 import com.aton.proj.libs.oneval.internals.ValuedItem;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.ZoneId;
 
 public class EpochToStr implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for EPOCHTOSTR must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         if (o1.getType() != ValuedItem.Type.NUM || o2.getType() != ValuedItem.Type.STRING)
             throw new EvalException("Operands for EPOCHTOSTR must be Num and String");
 
-        long v1 = o1.coalesceToLong("Second argument for EPOCHTOSTR must be an integer") * 1000;
         assert o2.getValue() != null;
         String v2 = (String) o2.getValue();
 
-        return Operand.strOperand(new SimpleDateFormat(v2).format(new Date(v1)));
+        return format(o1, DatePattern.of(v2), ZoneId.systemDefault());
+    }
+
+    // o1 is a NUM
+    public static Operand format(Operand o1, DatePattern pattern, ZoneId zone) throws EvalException {
+        long v1 = o1.coalesceToLong("Second argument for EPOCHTOSTR must be an integer");
+        return Operand.strOperand(pattern.format(v1, zone));
     }
 }
@@ -33,7 +33,11 @@ public class Equals implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for EQUALS must be 2, are " + operands.length);
+        return perform2(operands[0], operands[1]);
+    }
 
-        return Operand.boolOperand(operands[0].equals(operands[1]));
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
+        return Operand.boolOperand(o1.equals(o2));
     }
 }
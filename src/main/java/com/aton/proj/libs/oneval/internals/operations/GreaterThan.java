@@ -24,21 +24,23 @@
  */
 package com.aton.proj.libs.oneval.internals.operations;
 
+import com.aton.proj.libs.oneval.internals.Chars;
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Num;
 import com.aton.proj.libs.oneval.internals.Operand;
 import com.aton.proj.libs.oneval.internals.ValuedItem;
 
-import java.math.BigDecimal;
-
 public class GreaterThan implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for GREATER must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         if (o1.getType() != o2.getType()
                 && (o1.getType() == ValuedItem.Type.NULL || o2.getType() == ValuedItem.Type.NULL))
             throw new EvalException("Operands for GREATER must be of the same type or NULL");
@@ -53,12 +55,14 @@ public class GreaterThan implements Function.Performable {
 
         switch (o1.getType()) {
             case STRING: {
-                int comparison = ((String) o1.getValue()).compareTo((String) o2.getValue());
-                return Operand.boolOperand(comparison >= 0);
+                // a NUM or BOOL o2 fails as before, on the cast
+                CharSequence v2 = o2.getType() == ValuedItem.Type.STRING ? o2.chars() : (String) o2.getValue();
+                int comparison = Chars.compare(o1.chars(), v2);
+                return Operand.boolOperand(holds(comparison));
             }
             case NUM: {
-                int comparison = ((BigDecimal) o1.getValue()).compareTo((BigDecimal) o2.getValue());
-                return Operand.boolOperand(comparison >= 0);
+                int comparison = Num.compare(o1, o2);
+                return Operand.boolOperand(holds(comparison));
             }
             case BOOL:
                 return o1 != o2 ? o1 : Operand.FALSE;
@@ -66,4 +70,9 @@ public class GreaterThan implements Function.Performable {
 
         throw new EvalException("Invalid parameters combination for GREATER");
     }
+
+    // the result of the operation given the compareTo() of its operands
+    public static boolean holds(int comparison) {
+        return comparison >= 0;
+    }
 }
@@ -34,10 +34,11 @@ public class If implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 3)
             throw new EvalException("Operands for IF must be 3, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
-        Operand o3 = operands[2];
+        return perform3(operands[0], operands[1], operands[2]);
+    }
 
+    @Override
+    public Operand perform3(Operand o1, Operand o2, Operand o3) throws EvalException {
         if (o1.getType() != ValuedItem.Type.BOOL)
             throw new EvalException("First operand for IF must be BOOL");
 
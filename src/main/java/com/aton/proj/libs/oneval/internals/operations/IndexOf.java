@@ -24,6 +24,7 @@
  */
 package com.aton.proj.libs.oneval.internals.operations;
 
+import com.aton.proj.libs.oneval.internals.Chars;
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
 import com.aton.proj.libs.oneval.internals.Operand;
@@ -36,9 +37,11 @@ public class IndexOf implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for INDEXOF must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         if (!(o1.getType() == ValuedItem.Type.STRING || o1.getType() == ValuedItem.Type.NULL)
                 || o2.getType() != ValuedItem.Type.STRING)
             throw new EvalException("Operands for INDEXOF must be [String|Null] and String");
@@ -46,11 +49,9 @@ public class IndexOf implements Function.Performable {
         if (o1.getType() == ValuedItem.Type.NULL)
             return Operand.numOperand(new BigDecimal(-1));
 
-        assert o1.getValue() != null;
-        String v1 = (String) o1.getValue();
-        assert o2.getValue() != null;
-        String v2 = (String) o2.getValue();
+        CharSequence v1 = o1.chars();
+        CharSequence v2 = o2.chars();
 
-        return Operand.numOperand(new BigDecimal(v1.indexOf(v2)));
+        return Operand.numOperand(Chars.indexOf(v1, v2), 0);
     }
 }
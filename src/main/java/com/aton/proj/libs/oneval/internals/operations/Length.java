@@ -29,22 +29,24 @@ import com.aton.proj.libs.oneval.internals.Function;
 import com.aton.proj.libs.oneval.internals.Operand;
 import com.aton.proj.libs.oneval.internals.ValuedItem;
 
-import java.math.BigDecimal;
 
 public class Length implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 1)
             throw new EvalException("Operands for LENGTH must be 1, are " + operands.length);
-        Operand o1 = operands[0];
+        return perform1(operands[0]);
+    }
 
+    @Override
+    public Operand perform1(Operand o1) throws EvalException {
         if (o1.getType() == ValuedItem.Type.NULL)
             return o1;
 
-        assert o1.getValue() != null;
-
         if (o1.getType() == ValuedItem.Type.STRING)
-            return Operand.numOperand(new BigDecimal(((String) o1.getValue()).length()));
+            return Operand.numOperand(o1.chars().length(), 0);
+
+        assert o1.getValue() != null;
 
         throw new EvalException("Operand for LENGTH must be [String|Null]");
     }
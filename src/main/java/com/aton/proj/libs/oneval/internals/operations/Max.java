@@ -26,19 +26,20 @@ package com.aton.proj.libs.oneval.internals.operations;
 
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Num;
 import com.aton.proj.libs.oneval.internals.Operand;
 import com.aton.proj.libs.oneval.internals.ValuedItem;
 
-import java.math.BigDecimal;
-
 public class Max implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for MAX must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         if (o1.getType() != o2.getType()
                 && !(o1.getType() == ValuedItem.Type.NULL || o2.getType() == ValuedItem.Type.NULL))
             throw new EvalException("Operands for MAX must be of the same type or NULL");
@@ -60,7 +61,7 @@ public class Max implements Function.Performable {
                 return o2;
             }
             case NUM: {
-                int comparison = ((BigDecimal) o1.getValue()).compareTo((BigDecimal) o2.getValue());
+                int comparison = Num.compare(o1, o2);
                 if (comparison > 0)
                     return o1;
                 return o2;
@@ -34,8 +34,11 @@ public class Not implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 1)
             throw new EvalException("Operands for NOT must be 1, are " + operands.length);
-        Operand o1 = operands[0];
+        return perform1(operands[0]);
+    }
 
+    @Override
+    public Operand perform1(Operand o1) throws EvalException {
         if (o1.getType() != ValuedItem.Type.BOOL)
             throw new EvalException("Operand for NOT must be Boolean");
 
@@ -36,9 +36,11 @@ public class Power implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for POWER must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         if (!(o1.getType() == ValuedItem.Type.NUM || o1.getType() == ValuedItem.Type.NULL)
                 || o2.getType() != ValuedItem.Type.NUM)
             throw new EvalException("Operands for POWER must be [Num|Null] and Num");
@@ -31,17 +31,25 @@ import com.aton.proj.libs.oneval.internals.ValuedItem;
 
 import java.math.BigDecimal;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Rand implements Function.Performable {
-    private static final Random RND = new Random();
 
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for RAND must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
+
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
+        return perform(null, o1, o2);
+    }
 
+    // random is the generator of the frame, null for the one of the current
+    // thread: no lock is shared among the threads evaluating rand()
+    public static Operand perform(Random random, Operand o1, Operand o2) throws EvalException {
         if (o1.getType() != ValuedItem.Type.NUM || o2.getType() != ValuedItem.Type.NUM)
             throw new EvalException("Operands for RAND must be Num");
 
@@ -53,10 +61,8 @@ public class Rand implements Function.Performable {
         if (Double.compare(v1, v2) >= 0)
             throw new EvalException("Operand 1 must be less than operand 2 for RAND");
 
-        double ret;
-        synchronized (RND) {
-            ret = (RND.nextDouble() % (v2 - v1)) + v1;
-        }
+        Random rnd = random != null ? random : ThreadLocalRandom.current();
+        double ret = (rnd.nextDouble() % (v2 - v1)) + v1;
         return Operand.numOperand(new BigDecimal(ret));
     }
 }
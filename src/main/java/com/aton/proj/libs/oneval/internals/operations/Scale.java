@@ -37,10 +37,11 @@ public class Scale implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 3)
             throw new EvalException("Operands for SCALE must be 3, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
-        Operand o3 = operands[2];
+        return perform3(operands[0], operands[1], operands[2]);
+    }
 
+    @Override
+    public Operand perform3(Operand o1, Operand o2, Operand o3) throws EvalException {
         if ((o1.getType() != ValuedItem.Type.NUM && o1.getType() != ValuedItem.Type.NULL)
                 || o2.getType() != ValuedItem.Type.NUM
                 || o3.getType() != ValuedItem.Type.STRING)
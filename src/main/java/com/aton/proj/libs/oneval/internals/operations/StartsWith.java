@@ -24,6 +24,7 @@
  */
 package com.aton.proj.libs.oneval.internals.operations;
 
+import com.aton.proj.libs.oneval.internals.Chars;
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
 import com.aton.proj.libs.oneval.internals.Operand;
@@ -34,9 +35,11 @@ public class StartsWith implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for STARTSWITH must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         if (!(o1.getType() == ValuedItem.Type.STRING || o1.getType() == ValuedItem.Type.NULL)
                 || o2.getType() != ValuedItem.Type.STRING)
             throw new EvalException("Operands for STARTSWITH must be [String|Null] and String");
@@ -44,11 +47,9 @@ public class StartsWith implements Function.Performable {
         if (o1.getType() == ValuedItem.Type.NULL)
             return Operand.FALSE;
 
-        assert o1.getValue() != null;
-        String v1 = (String) o1.getValue();
-        assert o2.getValue() != null;
-        String v2 = (String) o2.getValue();
+        CharSequence v1 = o1.chars();
+        CharSequence v2 = o2.chars();
 
-        return Operand.boolOperand(v1.startsWith(v2));
+        return Operand.boolOperand(Chars.startsWith(v1, v2));
     }
 }
@@ -24,35 +24,37 @@
  */
 package com.aton.proj.libs.oneval.internals.operations;
 
+import com.aton.proj.libs.oneval.internals.DatePattern;
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
 import com.aton.proj.libs.oneval.internals.Operand;
 import com.aton.proj.libs.oneval.internals.ValuedItem;
 
-import java.math.BigDecimal;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 
 public class StrToEpoch implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for STRTOEPOCH must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         if (o1.getType() != ValuedItem.Type.STRING || o2.getType() != ValuedItem.Type.STRING)
             throw new EvalException("Operands for STRTOEPOCH must be String and String");
 
-        assert o1.getValue() != null;
-        String v1 = (String) o1.getValue();
         assert o2.getValue() != null;
         String v2 = (String) o2.getValue();
 
-        try {
-            return Operand.numOperand(new BigDecimal(new SimpleDateFormat(v2).parse(v1).getTime() / 1000));
-        } catch (ParseException pe) {
-            throw new EvalException(pe.getMessage());
-        }
+        return parse(o1, DatePattern.of(v2), ZoneId.systemDefault());
+    }
+
+    // o1 is a STRING
+    public static Operand parse(Operand o1, DatePattern pattern, ZoneId zone) throws EvalException {
+        assert o1.getValue() != null;
+        String v1 = (String) o1.getValue();
+        return Operand.numOperand(pattern.parse(v1, zone), 0);
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * CDDL HEADER START
+ *
+ * The contents of this file are subject to the terms of the
+ * Common Development and Distribution License, Version 1.0 only
+ * (the "License").  You may not use this file except in compliance
+ * with the License.
+ *
+ * You can obtain a copy of the license at usr/src/OPENSOLARIS.LICENSE
+ * or http://www.opensolaris.org/os/licensing.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL HEADER in each
+ * file and include the License file.
+ * If applicable, add the following below this CDDL HEADER, with the
+ * fields enclosed by brackets "[]" replaced with your own identifying
+ * information: Portions Copyright [yyyy] [name of copyright owner]
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2008 Aton S.p.A. (http://www.aton.eu).
+ * Use is subject to license terms.
+ */
+package com.aton.proj.libs.oneval.internals.operations;
+
+import com.aton.proj.libs.oneval.internals.DatePattern;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
+
+public class StrToEpochTz implements Function.Performable {
+    @Override
+    public Operand perform(Operand... operands) throws EvalException {
+        if (operands.length != 3)
+            throw new EvalException("Operands for STRTOEPOCHTZ must be 3, are " + operands.length);
+        return perform3(operands[0], operands[1], operands[2]);
+    }
+
+    @Override
+    public Operand perform3(Operand o1, Operand o2, Operand o3) throws EvalException {
+        if (o1.getType() != ValuedItem.Type.STRING || o2.getType() != ValuedItem.Type.STRING
+                || o3.getType() != ValuedItem.Type.STRING)
+            throw new EvalException("Operands for STRTOEPOCHTZ must be String, String and String");
+
+        assert o2.getValue() != null;
+        String v2 = (String) o2.getValue();
+        assert o3.getValue() != null;
+        String v3 = (String) o3.getValue();
+
+        return StrToEpoch.parse(o1, DatePattern.of(v2), DatePattern.zone(v3));
+    }
+}
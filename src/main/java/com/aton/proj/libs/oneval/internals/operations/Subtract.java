@@ -26,18 +26,19 @@ package com.aton.proj.libs.oneval.internals.operations;
 
 import com.aton.proj.libs.oneval.internals.EvalException;
 import com.aton.proj.libs.oneval.internals.Function;
+import com.aton.proj.libs.oneval.internals.Num;
 import com.aton.proj.libs.oneval.internals.Operand;
 
-import java.math.BigDecimal;
-
 public class Subtract implements Function.Performable {
     @Override
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 2)
             throw new EvalException("Operands for SUBTRACT must be 2, are " + operands.length);
-        Operand o1 = operands[0];
-        Operand o2 = operands[1];
+        return perform2(operands[0], operands[1]);
+    }
 
+    @Override
+    public Operand perform2(Operand o1, Operand o2) throws EvalException {
         switch (o1.getType()) {
             case STRING:
                 throw new EvalException("Cannot SUBTRACT on strings");
@@ -46,9 +47,7 @@ public class Subtract implements Function.Performable {
                     case STRING:
                         throw new EvalException("Cannot SUBTRACT on strings");
                     case NUM:
-                        assert o1.getValue() != null;
-                        assert o2.getValue() != null;
-                        return Operand.numOperand(((BigDecimal) o1.getValue()).subtract((BigDecimal) o2.getValue()));
+                        return Num.subtract(o1, o2);
                     case BOOL:
                         throw new EvalException("Cannot SUBTRACT on booleans");
                     case NULL:
@@ -35,8 +35,11 @@ public class ToBool implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 1)
             throw new EvalException("Operands for TO_BOOL must be 1, are " + operands.length);
-        Operand o1 = operands[0];
+        return perform1(operands[0]);
+    }
 
+    @Override
+    public Operand perform1(Operand o1) throws EvalException {
         switch (o1.getType()) {
             case STRING:
                 assert o1.getValue() != null;
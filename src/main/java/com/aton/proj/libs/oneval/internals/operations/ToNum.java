@@ -35,13 +35,16 @@ public class ToNum implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 1)
             throw new EvalException("Operands for TO_NUM must be 1, are " + operands.length);
-        Operand o1 = operands[0];
+        return perform1(operands[0]);
+    }
 
+    @Override
+    public Operand perform1(Operand o1) throws EvalException {
         switch (o1.getType()) {
             case STRING:
                 assert o1.getValue() != null;
                 String s1 = (String) o1.getValue();
-                return Operand.numOperand(new BigDecimal(s1));
+                return Operand.parseNumOperand(s1);
             case NUM:
                 return o1;
             case BOOL:
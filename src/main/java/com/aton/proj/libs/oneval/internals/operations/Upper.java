@@ -34,8 +34,11 @@ public class Upper implements Function.Performable {
     public Operand perform(Operand... operands) throws EvalException {
         if (operands.length != 1)
             throw new EvalException("Operands for UPPER must be 1, are " + operands.length);
-        Operand o1 = operands[0];
+        return perform1(operands[0]);
+    }
 
+    @Override
+    public Operand perform1(Operand o1) throws EvalException {
         if (o1.getType() == ValuedItem.Type.STRING) {
             assert o1.getValue() != null;
             return Operand.strOperand((((String) o1.getValue()).toUpperCase()));
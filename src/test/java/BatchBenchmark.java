@@ -0,0 +1,84 @@
+import com.aton.proj.libs.oneval.Bindings;
+import com.aton.proj.libs.oneval.ColumnBatch;
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.ResultColumn;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the throughput of a filter over a batch of rows, evaluated row by
+ * row (from a Map per row, or from Bindings) and by column.
+ */
+public class BatchBenchmark {
+    private static final String EXPRESSION = "%age >= 18 && %score > 700 && %region != 3 || ?vip";
+
+    public static void main(String[] args) throws ParseException, EvalException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Random random = new Random(42);
+        long[] age = new long[size];
+        long[] score = new long[size];
+        long[] region = new long[size];
+        boolean[] vip = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            age[i] = 10 + random.nextInt(70);
+            score[i] = 300 + random.nextInt(550);
+            region[i] = random.nextInt(10);
+            vip[i] = random.nextInt(100) == 0;
+        }
+        ColumnBatch batch = new ColumnBatch(size)
+                .set("age", age)
+                .set("score", score)
+                .set("region", region)
+                .set("vip", vip);
+
+        Evaluator eval = Evaluator.compile(EXPRESSION, CompileOption.NODE_TREE);
+        for (int round = 0; round < 3; round++) {
+            // the first rounds warm up
+            boolean print = round == 2;
+
+            long start = System.nanoTime();
+            int matches = 0;
+            EvaluationContext ctx = new EvaluationContext();
+            for (int i = 0; i < size; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("age", age[i]);
+                row.put("score", score[i]);
+                row.put("region", region[i]);
+                row.put("vip", vip[i]);
+                if (eval.evaluateBoolean(row, ctx))
+                    matches++;
+            }
+            if (print)
+                report("Map per row", size, matches, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            matches = 0;
+            Bindings bindings = eval.newBindings();
+            for (int i = 0; i < size; i++) {
+                bindings.set(0, age[i]).set(1, score[i]).set(2, region[i]).set(3, vip[i]);
+                if (eval.evaluateBoolean(bindings, ctx))
+                    matches++;
+            }
+            if (print)
+                report("Bindings", size, matches, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            ResultColumn results = eval.evaluateBatch(batch);
+            matches = results.selectTrue().length;
+            if (print)
+                report("ColumnBatch", size, matches, System.nanoTime() - start);
+        }
+    }
+
+    private static void report(String what, int rows, int matches, long elapsed) {
+        System.out.printf("%-15s %d rows (%d matches) in %d ms: %.0f rows/s%n",
+                what, rows, matches, elapsed / 1_000_000, rows * 1e9 / elapsed);
+    }
+}
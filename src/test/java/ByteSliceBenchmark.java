@@ -0,0 +1,72 @@
+import com.aton.proj.libs.oneval.ByteSlice;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures a predicate over request lines held in a byte buffer, binding the
+ * fields decoded to Strings or as ByteSlices over the buffer, with the bytes
+ * allocated for each line.
+ */
+public class ByteSliceBenchmark {
+    public static void main(String[] args) throws ParseException, EvalException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] methods = {"GET", "POST", "PUT", "DELETE"};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++)
+            sb.append(methods[i % methods.length]).append(' ')
+                    .append(i % 3 == 0 ? "/api/v1/orders/" : "/static/img/logo").append(i).append('\n');
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        Evaluator evaluator = Evaluator.compile("startsWith($path, '/api/') && $method == 'GET'");
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        // a variant at a time, switching at each round would keep the JIT
+        // busy with deoptimizations
+        for (boolean slices : new boolean[]{false, true}) {
+            for (int round = 0; round < 5; round++) {
+                long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long start = System.nanoTime();
+                int count = count(evaluator, buf, slices);
+                long elapsed = System.nanoTime() - start;
+                allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+                // the first rounds warm up
+                if (round == 4)
+                    System.out.printf("%-8s %d matches in %d ms: %.0f lines/s, %d bytes/line allocated%n",
+                            slices ? "Slices" : "Strings", count, elapsed / 1_000_000, size * 1e9 / elapsed,
+                            allocated / size);
+            }
+        }
+    }
+
+    private static int count(Evaluator evaluator, ByteBuffer buf, boolean slices) throws EvalException {
+        Map<String, Object> row = new HashMap<>();
+        int count = 0;
+        byte[] bytes = buf.array();
+        for (int pos = 0; pos < bytes.length; ) {
+            int space = pos;
+            while (bytes[space] != ' ')
+                space++;
+            int eol = space + 1;
+            while (bytes[eol] != '\n')
+                eol++;
+            if (slices) {
+                row.put("method", ByteSlice.utf8(buf, pos, space - pos));
+                row.put("path", ByteSlice.utf8(buf, space + 1, eol - space - 1));
+            } else {
+                row.put("method", new String(bytes, pos, space - pos, StandardCharsets.UTF_8));
+                row.put("path", new String(bytes, space + 1, eol - space - 1, StandardCharsets.UTF_8));
+            }
+            if (evaluator.evaluate(row).getValue() == Boolean.TRUE)
+                count++;
+            pos = eol + 1;
+        }
+        return count;
+    }
+}
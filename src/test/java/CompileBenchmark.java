@@ -0,0 +1,45 @@
+import com.aton.proj.libs.oneval.Evaluator;
+
+import java.text.ParseException;
+
+/**
+ * Measures the compile throughput of {@link Evaluator#compile(String)} over a
+ * mix of expressions shaped like the ones generated by rule editors.
+ */
+public class CompileBenchmark {
+    private static final String[] EXPRESSIONS = {
+            "%a == 0",
+            "(%a == %b) || ((%a + %b) == 1)",
+            "toNum(substr($myString, 13, 14)) + 1",
+            "$eventType == 'LOGIN' && %tenant == 42 && contains($payload, \"needle\")",
+            "if(startsWith(lower($country), 'it'), scale(%amount * 1.22, 2, 'ROUND'), %amount)",
+            "strToEpoch(epochToStr(getEpoch() - 1000, 'yyyy-MM-dd'), 'yyyy-MM-dd') < getEpoch()",
+            "onNull($nickname, upper(left($name, 1)) + lower(right($name, len($name) - 1)))",
+            "%m - 1 == -2 && -3 < %n && max(%x, -1.5) >= min(%y, 2) && ~?blocked",
+            "lPad(toString(rem(%id, 1000)), 8, '0') + '-' + rPad(trim($code), 4, '_')",
+            "equalsIgnCase($status, \"active\") && indexOf($tags, 'vip') != -1 || pow(%level, 2) > 100"
+    };
+
+    public static void main(String[] args) throws ParseException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // warm-up
+        run(rounds / 4);
+
+        long start = System.nanoTime();
+        int compiled = run(rounds);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("compiled %d expressions in %d ms: %.0f compiles/s%n",
+                compiled, elapsed / 1_000_000, compiled * 1e9 / elapsed);
+    }
+
+    private static int run(int rounds) throws ParseException {
+        int compiled = 0;
+        for (int r = 0; r < rounds; r++) {
+            Evaluator.compile(EXPRESSIONS[r % EXPRESSIONS.length]);
+            compiled++;
+        }
+        return compiled;
+    }
+}
@@ -0,0 +1,87 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.CsvEvaluator;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures a few expressions over a large CSV file, in GB/s of input: read
+ * line by line into Maps, or memory-mapped by CsvEvaluator.
+ */
+public class CsvBenchmark {
+    public static void main(String[] args) throws IOException, ParseException, EvalException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Path input = Files.createTempFile("oneval", ".csv");
+        Path output = Files.createTempFile("oneval", ".csv");
+        try {
+            Random random = new Random(42);
+            try (BufferedWriter out = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+                out.write("id,account,currency,amount,fee,booked,description,branch\n");
+                for (int i = 0; i < rows; i++)
+                    out.write(i + ",ACC" + random.nextInt(100_000) + "," + (random.nextBoolean() ? "EUR" : "USD")
+                            + "," + random.nextInt(1_000_000) / 100.0 + "," + random.nextInt(500) / 100.0
+                            + "," + random.nextBoolean() + ",Payment for invoice " + random.nextInt() + ","
+                            + "BR" + random.nextInt(300) + "\n");
+            }
+            double gb = Files.size(input) / 1e9;
+
+            Map<String, Evaluator> columns = new LinkedHashMap<>();
+            columns.put("net", Evaluator.compile("%amount - %fee", CompileOption.NODE_TREE));
+            columns.put("large", Evaluator.compile("?booked && %amount > 5000", CompileOption.NODE_TREE));
+            columns.put("eur", Evaluator.compile("if($currency == 'EUR', %amount, %amount * 0.9)",
+                    CompileOption.NODE_TREE));
+
+            for (int round = 0; round < 3; round++) {
+                // the first rounds warm up
+                boolean print = round == 2;
+
+                long start = System.nanoTime();
+                EvaluationContext ctx = new EvaluationContext();
+                try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+                     BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                    String[] header = in.readLine().split(",");
+                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                        String[] fields = line.split(",");
+                        Map<String, Object> row = new HashMap<>();
+                        for (int i = 0; i < header.length; i++)
+                            row.put(header[i], fields[i]);
+                        boolean first = true;
+                        for (Evaluator evaluator : columns.values()) {
+                            if (!first)
+                                out.write(',');
+                            out.write(String.valueOf(evaluator.evaluate(row, ctx).getValue()));
+                            first = false;
+                        }
+                        out.write('\n');
+                    }
+                }
+                if (print)
+                    report("Maps", gb, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                new CsvEvaluator(columns).evaluate(input, output);
+                if (print)
+                    report("Mapped", gb, System.nanoTime() - start);
+            }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static void report(String what, double gb, long elapsed) {
+        System.out.printf("%-7s %.3f GB in %d ms: %.3f GB/s%n", what, gb, elapsed / 1_000_000, gb * 1e9 / elapsed);
+    }
+}
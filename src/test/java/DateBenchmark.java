@@ -0,0 +1,47 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures epochToStr and strToEpoch, with a literal pattern in a node tree
+ * and with a pattern from a variable in the stack interpreter.
+ */
+public class DateBenchmark {
+    public static void main(String[] args) throws ParseException, EvalException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String[][] cases = {
+                {"literal format", "epochToStr(%t, 'yyyy-MM-dd HH:mm:ss')", "NODE_TREE"},
+                {"dynamic format", "epochToStr(%t, $pattern)", null},
+                {"literal parse", "strToEpoch($s, 'yyyy-MM-dd HH:mm:ss')", "NODE_TREE"},
+                {"dynamic parse", "strToEpoch($s, $pattern)", null},
+                {"zoned format", "epochToStrTz(%t, 'yyyy-MM-dd HH:mm:ss', 'America/New_York')", "NODE_TREE"},
+        };
+        Map<String, Object> row = new HashMap<>();
+        row.put("pattern", "yyyy-MM-dd HH:mm:ss");
+        for (String[] c : cases) {
+            Evaluator evaluator = c[2] == null ? Evaluator.compile(c[1])
+                    : Evaluator.compile(c[1], CompileOption.valueOf(c[2]));
+            for (int round = 0; round < 5; round++) {
+                // the first rounds warm up
+                boolean print = round == 4;
+
+                long start = System.nanoTime();
+                int length = 0;
+                for (int i = 0; i < size; i++) {
+                    long t = 1_600_000_000L + i * 7919L;
+                    row.put("t", t);
+                    row.put("s", "2021-01-" + (10 + i % 20) + " 1" + i % 10 + ":3" + i % 10 + ":00");
+                    length += evaluator.evaluate(row).getValue().toString().length();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (print)
+                    System.out.printf("%-15s %d chars in %d ms: %.0f evaluations/s%n", c[0], length,
+                            elapsed / 1_000_000, size * 1e9 / elapsed);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import com.aton.proj.libs.oneval.Bindings;
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the evaluation throughput of a few precompiled expressions, with
+ * and without a reused {@link EvaluationContext}, with the variables in a Map
+ * or in {@link Bindings}, on the stack interpreter, on the node tree and as
+ * bytecode.
+ */
+public class EvaluateBenchmark {
+    private static final String[] EXPRESSIONS = {
+            "%a == 0",
+            "(%a == %b) || ((%a + %b) == 1)",
+            "toNum(substr($myString, 13, 14)) + 1",
+            "$eventType == 'LOGIN' && %tenant == 42 && contains($payload, \"needle\")",
+            "if(startsWith(lower($country), 'it'), scale(%amount * 1.22, 2, 'ROUND'), %amount)",
+            "%amount * 3 - %tenant + %b > 100 && %a < 1"
+    };
+
+    public static void main(String[] args) throws ParseException, EvalException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        Map<String, String> vars = new HashMap<>();
+        vars.put("a", "0");
+        vars.put("b", "1");
+        vars.put("myString", "Hello, World 1!");
+        vars.put("eventType", "LOGIN");
+        vars.put("tenant", "42");
+        vars.put("payload", "a haystack with a needle inside");
+        vars.put("country", "Italy");
+        vars.put("amount", "1234.5");
+
+        Evaluator[] evaluators = new Evaluator[EXPRESSIONS.length];
+        Evaluator[] trees = new Evaluator[EXPRESSIONS.length];
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            evaluators[i] = Evaluator.compile(EXPRESSIONS[i]);
+            trees[i] = Evaluator.compile(EXPRESSIONS[i], CompileOption.NODE_TREE);
+        }
+        Evaluator[] bytecode = Evaluator.compileAll(Arrays.asList(EXPRESSIONS), CompileOption.BYTECODE)
+                .toArray(new Evaluator[0]);
+
+        // warm-up
+        run(evaluators, vars, rounds / 4, null);
+        run(evaluators, vars, rounds / 4, new EvaluationContext());
+        run(trees, vars, rounds / 4, null);
+        run(bytecode, vars, rounds / 4, null);
+
+        report("evaluate(Map)", rounds, run(evaluators, vars, rounds, null));
+        report("evaluate(Map, EvaluationContext)", rounds, run(evaluators, vars, rounds, new EvaluationContext()));
+        report("evaluate(Map), node tree", rounds, run(trees, vars, rounds, null));
+        report("evaluate(Map), bytecode", rounds, run(bytecode, vars, rounds, null));
+
+        Bindings[] bindings = new Bindings[EXPRESSIONS.length];
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            bindings[i] = evaluators[i].newBindings();
+            for (String name : evaluators[i].getVariableSlots())
+                bindings[i].set(name, vars.get(name));
+        }
+        EvaluationContext ctx = new EvaluationContext();
+        run(evaluators, bindings, rounds / 4, ctx);
+        report("evaluate(Bindings, EvaluationContext)", rounds, run(evaluators, bindings, rounds, ctx));
+    }
+
+    private static long run(Evaluator[] evaluators, Map<String, String> vars, int rounds, EvaluationContext ctx)
+            throws EvalException {
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            Evaluator e = evaluators[r % evaluators.length];
+            if (ctx == null)
+                e.evaluate(vars);
+            else
+                e.evaluate(vars, ctx);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long run(Evaluator[] evaluators, Bindings[] bindings, int rounds, EvaluationContext ctx)
+            throws EvalException {
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            int i = r % evaluators.length;
+            evaluators[i].evaluate(bindings[i], ctx);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String what, int rounds, long elapsed) {
+        System.out.printf("%-40s %d evaluations in %d ms: %.0f evaluations/s%n",
+                what, rounds, elapsed / 1_000_000, rounds * 1e9 / elapsed);
+    }
+}
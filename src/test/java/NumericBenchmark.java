@@ -0,0 +1,74 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the evaluation throughput of arithmetic on integer and
+ * fixed-scale amounts, the kind of values most numeric variables hold,
+ * passed as Strings or already typed.
+ */
+public class NumericBenchmark {
+    private static final String[] EXPRESSIONS = {
+            "%amount * %qty - %discount > %threshold",
+            "abs(%balance - %amount) <= 0.01 || signum(%balance) < 0",
+            "max(%qty, 10) * 3 + min(%amount, 100.50) == %threshold",
+            "%tenant == 42 && %amount + %fee >= 1000"
+    };
+
+    public static void main(String[] args) throws ParseException, EvalException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        Map<String, String> vars = new HashMap<>();
+        vars.put("amount", "1234.50");
+        vars.put("qty", "12");
+        vars.put("discount", "99.99");
+        vars.put("threshold", "10000");
+        vars.put("balance", "-20.75");
+        vars.put("tenant", "42");
+        vars.put("fee", "2.5");
+
+        Map<String, Object> typed = new HashMap<>();
+        typed.put("amount", new BigDecimal("1234.50"));
+        typed.put("qty", 12L);
+        typed.put("discount", new BigDecimal("99.99"));
+        typed.put("threshold", 10000L);
+        typed.put("balance", new BigDecimal("-20.75"));
+        typed.put("tenant", 42L);
+        typed.put("fee", 2.5);
+
+        for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.NODE_TREE}}) {
+            Evaluator[] evaluators = new Evaluator[EXPRESSIONS.length];
+            for (int i = 0; i < EXPRESSIONS.length; i++)
+                evaluators[i] = Evaluator.compile(EXPRESSIONS[i], options);
+            EvaluationContext ctx = new EvaluationContext();
+
+            String engine = options.length == 0 ? "interpreter" : "node tree";
+
+            // warm-up
+            run(evaluators, vars, rounds / 4, ctx);
+            run(evaluators, typed, rounds / 4, ctx);
+
+            report(engine + ", strings", rounds, run(evaluators, vars, rounds, ctx));
+            report(engine + ", typed", rounds, run(evaluators, typed, rounds, ctx));
+        }
+    }
+
+    private static long run(Evaluator[] evaluators, Map<String, ?> vars, int rounds, EvaluationContext ctx)
+            throws EvalException {
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            evaluators[r % evaluators.length].evaluate(vars, ctx);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String what, int rounds, long elapsed) {
+        System.out.printf("%-25s %d evaluations in %d ms: %.0f evaluations/s%n",
+                what, rounds, elapsed / 1_000_000, rounds * 1e9 / elapsed);
+    }
+}
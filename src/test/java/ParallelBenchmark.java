@@ -0,0 +1,82 @@
+import com.aton.proj.libs.oneval.ColumnBatch;
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.ParallelEvaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the throughput of ParallelEvaluator scales with the number of
+ * threads, over a list of Maps and over a ColumnBatch.
+ */
+public class ParallelBenchmark {
+    private static final String EXPRESSION = "%age >= 18 && %score * 2 > 1400 && $region != 'north' || ?vip";
+
+    public static void main(String[] args) throws ParseException, EvalException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(42);
+        String[] regions = {"north", "south", "east", "west"};
+        List<Map<String, Object>> rows = new ArrayList<>(size);
+        long[] age = new long[size];
+        long[] score = new long[size];
+        String[] region = new String[size];
+        boolean[] vip = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            age[i] = 10 + random.nextInt(70);
+            score[i] = 300 + random.nextInt(550);
+            region[i] = regions[random.nextInt(regions.length)];
+            vip[i] = random.nextInt(100) == 0;
+            Map<String, Object> row = new HashMap<>();
+            row.put("age", age[i]);
+            row.put("score", score[i]);
+            row.put("region", region[i]);
+            row.put("vip", vip[i]);
+            rows.add(row);
+        }
+        ColumnBatch batch = new ColumnBatch(size)
+                .set("age", age)
+                .set("score", score)
+                .set("region", region)
+                .set("vip", vip);
+
+        Evaluator eval = Evaluator.compile(EXPRESSION, CompileOption.NODE_TREE);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ParallelEvaluator parallel = new ParallelEvaluator(eval).setExecutor(pool);
+                // warm-up
+                for (int i = 0; i < 3; i++) {
+                    parallel.evaluate(rows);
+                    parallel.evaluate(batch);
+                }
+
+                long start = System.nanoTime();
+                parallel.evaluate(rows);
+                report(threads + " threads, Maps", size, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                parallel.evaluate(batch);
+                report(threads + " threads, batch", size, System.nanoTime() - start);
+            } finally {
+                pool.shutdown();
+            }
+            // ends with all the processors, even if they aren't a power of 2
+            if (threads < maxThreads && threads * 2 > maxThreads)
+                threads = maxThreads / 2;
+        }
+    }
+
+    private static void report(String what, int rows, long elapsed) {
+        System.out.printf("%-20s %d rows in %d ms: %.0f rows/s%n",
+                what, rows, elapsed / 1_000_000, rows * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,117 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures how the throughput of rand() scales with the number of threads
+ * evaluating it: with the generator of each thread, with a seeded
+ * EvaluationContext per thread, and, as a reference, the bare draws from a
+ * single Random behind a lock, like rand() used to do.
+ */
+public class RandBenchmark {
+    private static final String EXPRESSION = "rand(0, %max) < 500";
+    private static final Random SHARED = new Random();
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Evaluator eval = Evaluator.compile(EXPRESSION, CompileOption.NODE_TREE);
+        Map<String, Object> vars = Collections.singletonMap("max", 1000L);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            int perThread = count / threads;
+            try {
+                // warm-up
+                for (int i = 0; i < 3; i++) {
+                    run(pool, threads, perThread, t -> evaluate(eval, vars, new EvaluationContext(), perThread));
+                    run(pool, threads, perThread, t -> evaluate(eval, vars, seeded(t), perThread));
+                    run(pool, threads, perThread, t -> draw(perThread, true));
+                    run(pool, threads, perThread, t -> draw(perThread, false));
+                }
+
+                report(threads + " threads, rand()", count,
+                        run(pool, threads, perThread, t -> evaluate(eval, vars, new EvaluationContext(), perThread)));
+                report(threads + " threads, seeded", count,
+                        run(pool, threads, perThread, t -> evaluate(eval, vars, seeded(t), perThread)));
+                report(threads + " threads, locked Random", count,
+                        run(pool, threads, perThread, t -> draw(perThread, true)));
+                report(threads + " threads, thread's Random", count,
+                        run(pool, threads, perThread, t -> draw(perThread, false)));
+            } finally {
+                pool.shutdown();
+            }
+            // ends with all the threads asked for, even if they aren't a power of 2
+            if (threads < maxThreads && threads * 2 > maxThreads)
+                threads = maxThreads / 2;
+        }
+    }
+
+    private interface Task {
+        long run(int thread) throws EvalException;
+    }
+
+    // the elapsed nanoseconds, once all the threads are done
+    private static long run(ExecutorService pool, int threads, int perThread, Task task) throws Exception {
+        List<Future<Long>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> task.run(thread)));
+        }
+        long hits = 0;
+        for (Future<Long> f : results)
+            hits += f.get();
+        if (hits < 0 || hits > (long) threads * perThread)
+            throw new IllegalStateException();
+        return System.nanoTime() - start;
+    }
+
+    private static EvaluationContext seeded(int thread) {
+        EvaluationContext ret = new EvaluationContext();
+        ret.setRandomSeed(thread);
+        return ret;
+    }
+
+    private static long evaluate(Evaluator eval, Map<String, Object> vars, EvaluationContext ctx, int count)
+            throws EvalException {
+        long hits = 0;
+        for (int i = 0; i < count; i++)
+            if (eval.evaluateBoolean(vars, ctx))
+                hits++;
+        return hits;
+    }
+
+    private static long draw(int count, boolean locked) {
+        long hits = 0;
+        for (int i = 0; i < count; i++) {
+            double d;
+            if (locked) {
+                synchronized (SHARED) {
+                    d = SHARED.nextDouble();
+                }
+            } else {
+                d = ThreadLocalRandom.current().nextDouble();
+            }
+            if (d < 0.5)
+                hits++;
+        }
+        return hits;
+    }
+
+    private static void report(String what, int count, long elapsed) {
+        System.out.printf("%-28s %d in %d ms: %.0f/s%n",
+                what, count, elapsed / 1_000_000, count * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,64 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures an expression over rows whose referenced fields have few distinct
+ * values, while the rest of each row differs, evaluated as usual or with a
+ * result cache.
+ */
+public class ResultCacheBenchmark {
+    public static void main(String[] args) throws ParseException, EvalException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String expression = "lPad(replace(lower(trim($country)), 'i', 'x'), 8, '.') + '-' + upper($channel)"
+                + " == '......xt-WEB' && pow(%amount * %rate, 2) / 8 > 100 || startsWith(lower($channel), 'po')";
+
+        Random random = new Random(42);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("country", " " + new String[]{"IT", "FR", "DE", "ES", "UK"}[random.nextInt(5)] + " ");
+            row.put("channel", new String[]{"web", "app", "pos"}[random.nextInt(3)]);
+            row.put("amount", String.valueOf(random.nextInt(20) * 25));
+            row.put("rate", "1." + random.nextInt(3));
+            row.put("id", i);
+            rows.add(row);
+        }
+
+        Evaluator plain = Evaluator.compile(expression, CompileOption.NODE_TREE);
+        EvaluationContext ctx = new EvaluationContext();
+        for (int round = 0; round < 3; round++) {
+            // the first rounds warm up
+            Evaluator cached = plain.withResultCache(1 << 20);
+            boolean print = round == 2;
+
+            long start = System.nanoTime();
+            for (Map<String, Object> row : rows)
+                plain.evaluate(row, ctx);
+            if (print)
+                report("Plain", size, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (Map<String, Object> row : rows)
+                cached.evaluate(row, ctx);
+            if (print) {
+                report("Cached", size, System.nanoTime() - start);
+                System.out.printf("hit rate %.1f%%, %d bytes%n", 100.0 * cached.getResultCacheHitCount() / size,
+                        cached.getResultCacheWeight());
+            }
+        }
+    }
+
+    private static void report(String what, int size, long elapsed) {
+        System.out.printf("%-7s %d rows in %d ms: %.0f rows/s%n",
+                what, size, elapsed / 1_000_000, size * 1e9 / elapsed);
+    }
+}
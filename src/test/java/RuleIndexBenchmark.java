@@ -0,0 +1,55 @@
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.RuleSet;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures a RuleSet of tens of thousands of rules, most of which start by
+ * testing the type of the event or a threshold, against random events: only
+ * a few of the rules apply to each one.
+ */
+public class RuleIndexBenchmark {
+    public static void main(String[] args) throws ParseException, EvalException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 9)
+                expressions.add("%amount >= " + (i % 1000) * 100 + " && %tenant == " + i % 100);
+            else
+                expressions.add("$eventType == 'E" + i % 500 + "' && %tenant == " + i % 100
+                        + " && %amount > " + i % 1000);
+        }
+        RuleSet rules = RuleSet.compile(expressions);
+
+        Random random = new Random(42);
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("eventType", "E" + random.nextInt(600));
+            event.put("tenant", random.nextInt(100));
+            event.put("amount", random.nextInt(100_000));
+            events.add(event);
+        }
+        EvaluationContext ctx = new EvaluationContext();
+
+        for (int round = 0; round < 3; round++) {
+            // the first rounds warm up
+            long start = System.nanoTime();
+            int matches = 0;
+            for (int r = 0; r < rounds; r++)
+                matches += rules.matchAll(events.get(r % events.size()), ctx).cardinality();
+            long elapsed = System.nanoTime() - start;
+            if (round == 2)
+                System.out.printf("%d rules, %d events (%d matches) in %d ms: %.0f events/s%n",
+                        count, rounds, matches, elapsed / 1_000_000, rounds * 1e9 / elapsed);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.RuleSet;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the evaluation of a few thousand rules against the same event,
+ * one Evaluator each or all together in a RuleSet; the rules share
+ * subexpressions, as real ones do.
+ */
+public class RuleSetBenchmark {
+    private static final String[] COUNTRIES = {"it", "fr", "de", "es", "uk"};
+    private static final String[] CHANNELS = {"web", "app", "pos"};
+
+    public static void main(String[] args) throws ParseException, EvalException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            expressions.add("lower($country) == '" + COUNTRIES[i % COUNTRIES.length] + "'"
+                    + " && upper(trim($channel)) == '" + CHANNELS[i % CHANNELS.length].toUpperCase() + "'"
+                    + " && %amount * %rate > " + (i * 10)
+                    + " && len($customer) > " + (i % 7));
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("country", "IT");
+        event.put("channel", " web ");
+        event.put("amount", "1234.50");
+        event.put("rate", "1.1");
+        event.put("customer", "ACME Corporation");
+
+        List<Evaluator> evaluators = new ArrayList<>();
+        for (String expression : expressions)
+            evaluators.add(Evaluator.compile(expression, CompileOption.NODE_TREE));
+        RuleSet rules = RuleSet.compile(expressions);
+        EvaluationContext ctx = new EvaluationContext();
+
+        for (int round = 0; round < 3; round++) {
+            // the first rounds warm up
+            boolean print = round == 2;
+
+            long start = System.nanoTime();
+            int matches = 0;
+            for (int r = 0; r < rounds; r++)
+                for (Evaluator evaluator : evaluators)
+                    if (evaluator.evaluateBoolean(event, ctx))
+                        matches++;
+            if (print)
+                report("Evaluators", rounds, matches, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            matches = 0;
+            for (int r = 0; r < rounds; r++)
+                matches += rules.matchAll(event, ctx).cardinality();
+            if (print)
+                report("RuleSet", rounds, matches, System.nanoTime() - start);
+        }
+    }
+
+    private static void report(String what, int rounds, int matches, long elapsed) {
+        System.out.printf("%-12s %d events (%d matches) in %d ms: %.0f events/s%n",
+                what, rounds, matches, elapsed / 1_000_000, rounds * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,64 @@
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.EvaluationSession;
+import com.aton.proj.libs.oneval.RuleSet;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures keeping a thousand expressions up to date with an entity whose
+ * fields change one at a time: all of them evaluated again in a RuleSet, or
+ * only those affected in an EvaluationSession.
+ */
+public class SessionBenchmark {
+    public static void main(String[] args) throws ParseException, EvalException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int fields = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        Random random = new Random(42);
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int f1 = random.nextInt(fields), f2 = random.nextInt(fields), f3 = random.nextInt(fields);
+            expressions.add("%f" + f1 + " * %f" + f2 + " + len(lower($s" + f3 + ")) > " + i);
+        }
+        Map<String, Object> entity = new HashMap<>();
+        for (int f = 0; f < fields; f++) {
+            entity.put("f" + f, f);
+            entity.put("s" + f, "Value " + f);
+        }
+        RuleSet rules = RuleSet.compile(expressions);
+        EvaluationSession session = EvaluationSession.compile(expressions);
+        session.update(entity);
+        EvaluationContext ctx = new EvaluationContext();
+
+        for (int round = 0; round < 3; round++) {
+            // the first rounds warm up
+            boolean print = round == 2;
+
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                entity.put("f" + r % fields, r);
+                rules.evaluateAll(entity, ctx);
+            }
+            if (print)
+                report("RuleSet", rounds, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++)
+                session.update("f" + r % fields, r);
+            if (print)
+                report("Session", rounds, System.nanoTime() - start);
+        }
+    }
+
+    private static void report(String what, int rounds, long elapsed) {
+        System.out.printf("%-8s %d updates in %d ms: %.0f updates/s%n",
+                what, rounds, elapsed / 1_000_000, rounds * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,67 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares eager and short-circuit evaluation of rules whose cheap left side
+ * almost always decides the result, as is typical of event filters.
+ */
+public class ShortCircuitBenchmark {
+    private static final String[] EXPRESSIONS = {
+            "%cheapFlag == 1 && contains($bigPayload, 'x') && strToEpoch($date, 'yyyy-MM-dd') > 0",
+            "%cheapFlag == 0 || contains(upper($bigPayload), 'NEEDLE')",
+            "if(%cheapFlag == 1, strToEpoch($date, 'yyyy-MM-dd'), 0) == 0",
+            "onNull(%tenant, toNum(substr($bigPayload, 0, 2))) == 42"
+    };
+
+    public static void main(String[] args) throws ParseException, EvalException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        StringBuilder payload = new StringBuilder("42 ");
+        while (payload.length() < 4096)
+            payload.append("lorem ipsum dolor sit amet ");
+
+        // 1 event out of 100 takes the expensive path
+        Map<String, String> common = new HashMap<>();
+        common.put("cheapFlag", "0");
+        common.put("tenant", "42");
+        common.put("bigPayload", payload.toString());
+        common.put("date", "2020-01-31");
+        Map<String, String> rare = new HashMap<>(common);
+        rare.put("cheapFlag", "1");
+        rare.remove("tenant");
+
+        Evaluator[] eager = new Evaluator[EXPRESSIONS.length];
+        Evaluator[] lazy = new Evaluator[EXPRESSIONS.length];
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            eager[i] = Evaluator.compile(EXPRESSIONS[i], CompileOption.EAGER_EVALUATION);
+            lazy[i] = Evaluator.compile(EXPRESSIONS[i]);
+        }
+
+        // warm-up
+        run(eager, common, rare, rounds / 4);
+        run(lazy, common, rare, rounds / 4);
+
+        report("eager", rounds, run(eager, common, rare, rounds));
+        report("short-circuit", rounds, run(lazy, common, rare, rounds));
+    }
+
+    private static long run(Evaluator[] evaluators, Map<String, String> common, Map<String, String> rare, int rounds)
+            throws EvalException {
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            Map<String, String> vars = r % 100 == 0 ? rare : common;
+            evaluators[r % evaluators.length].evaluate(vars);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String what, int rounds, long elapsed) {
+        System.out.printf("%-20s %d evaluations in %d ms: %.0f evaluations/s%n",
+                what, rounds, elapsed / 1_000_000, rounds * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,114 @@
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.StreamEvaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures a filter-and-project stage over a stream of events, looping by
+ * hand with Evaluator.evaluate(), pulling the results from a StreamEvaluator,
+ * or having them pushed to a Subscriber, from a Publisher of the events.
+ */
+public class StreamBenchmark {
+    public static void main(String[] args) throws ParseException, EvalException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("level", i % 5);
+            event.put("amount", i % 1000);
+            event.put("source", "host" + i % 50);
+            events.add(event);
+        }
+        Evaluator filter = Evaluator.compile("%level >= 3 && %amount > 100");
+        Evaluator amount = Evaluator.compile("%amount * 2");
+        Evaluator source = Evaluator.compile("upper($source)");
+        StreamEvaluator stage = new StreamEvaluator(filter, amount, source);
+
+        for (int round = 0; round < 3; round++) {
+            // the first rounds warm up
+            boolean print = round == 2;
+
+            long start = System.nanoTime();
+            int count = 0;
+            for (Map<String, Object> event : events) {
+                if (filter.evaluateBoolean(event)) {
+                    Operand[] projected = {amount.evaluate(event), source.evaluate(event)};
+                    count += projected.length;
+                }
+            }
+            if (print)
+                report("Loop", size, count, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            count = 0;
+            for (Iterator<Operand[]> results = stage.evaluate(events.iterator()); results.hasNext(); )
+                count += results.next().length;
+            if (print)
+                report("Stream", size, count, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            Counter counter = new Counter();
+            stage.evaluate(publisher(events)).subscribe(counter);
+            if (print)
+                report("Publish", size, counter.count, System.nanoTime() - start);
+        }
+    }
+
+    // all the events, as fast as they're requested
+    private static StreamEvaluator.Publisher<Map<String, Object>> publisher(List<Map<String, Object>> events) {
+        return subscriber -> subscriber.onSubscribe(new StreamEvaluator.Subscription() {
+            private int next;
+
+            @Override
+            public void request(long n) {
+                for (long i = 0; i < n && next < events.size(); i++)
+                    subscriber.onNext(events.get(next++));
+                if (next == events.size()) {
+                    next++;
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                next = events.size() + 1;
+            }
+        });
+    }
+
+    // requests all the results, counting their values
+    private static final class Counter implements StreamEvaluator.Subscriber<Operand[]> {
+        int count;
+
+        @Override
+        public void onSubscribe(StreamEvaluator.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Operand[] item) {
+            count += item.length;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throw new IllegalStateException(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private static void report(String what, int size, int count, long elapsed) {
+        System.out.printf("%-7s %d events (%d values) in %d ms: %.0f events/s%n",
+                what, size, count, elapsed / 1_000_000, size * 1e9 / elapsed);
+    }
+}
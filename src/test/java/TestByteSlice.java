@@ -0,0 +1,120 @@
+import com.aton.proj.libs.oneval.ByteSlice;
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestByteSlice {
+    private static final String[] EXPRESSIONS = {
+            "startsWith($s, 'GET ')",
+            "endsWith($s, 'HTTP/1.1')",
+            "contains($s, '/index')",
+            "indexOf($s, 'index')",
+            "len($s)",
+            "$s == 'GET /index.html HTTP/1.1'",
+            "$s == $t",
+            "equalsIgnCase($s, 'get /INDEX.html http/1.1')",
+            "$s > 'GET'",
+            "$s <= $t",
+    };
+
+    // the chars of a String, that can't be copied
+    private static final class NoCopy implements CharSequence {
+        private final String s;
+
+        NoCopy(String s) {
+            this.s = s;
+        }
+
+        @Override
+        public int length() {
+            return s.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return s.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new NoCopy(s.substring(start, end));
+        }
+
+        @Override
+        public String toString() {
+            throw new AssertionError("Copied");
+        }
+    }
+
+    @Test
+    public void testSameResults() throws ParseException, EvalException {
+        String request = "GET /index.html HTTP/1.1";
+        ByteBuffer buf = ByteBuffer.wrap(("xx" + request + "yy").getBytes(StandardCharsets.US_ASCII));
+        String[] extra = {
+                "upper($s) + '!'",
+                "substr($s, 4, 11)",
+                "$s",
+                "if(startsWith($s, 'GET'), $s, 'other')",
+        };
+        for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.NODE_TREE}, {CompileOption.BYTECODE}}) {
+            for (String t : new String[]{request, "GET /", "POST"}) {
+                Map<String, Object> strings = new HashMap<>();
+                strings.put("s", request);
+                strings.put("t", t);
+                Map<String, Object> slices = new HashMap<>();
+                slices.put("s", ByteSlice.latin1(buf, 2, request.length()));
+                slices.put("t", ByteSlice.utf8(ByteBuffer.wrap(t.getBytes(StandardCharsets.UTF_8)), 0, t.length()));
+                Map<String, Object> noCopies = new HashMap<>();
+                noCopies.put("s", new NoCopy(request));
+                noCopies.put("t", new NoCopy(t));
+                for (String expression : EXPRESSIONS) {
+                    Evaluator evaluator = Evaluator.compile(expression, options);
+                    Operand expected = evaluator.evaluate(strings);
+                    assertEquals(expected, evaluator.evaluate(slices), expression);
+                    if (!expression.contains(">") && !expression.contains("<"))
+                        assertEquals(expected, evaluator.evaluate(noCopies), expression);
+                }
+                for (String expression : extra) {
+                    Evaluator evaluator = Evaluator.compile(expression, options);
+                    Operand result = evaluator.evaluate(slices);
+                    assertEquals(evaluator.evaluate(strings), result, expression);
+                    // the results outlive the buffers
+                    assertTrue(result.chars() instanceof String, expression);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSlices() throws ParseException, EvalException {
+        byte[] bytes = "caf\u00e9 ok".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        CharSequence utf8 = ByteSlice.utf8(buf, 0, bytes.length);
+        assertEquals("caf\u00e9 ok", utf8.toString());
+        assertTrue(utf8 instanceof String);
+        CharSequence ascii = ByteSlice.utf8(buf, bytes.length - 2, 2);
+        assertTrue(ascii instanceof ByteSlice);
+        assertEquals("ok", ascii.toString());
+        assertEquals("k", ascii.subSequence(1, 2).toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> ByteSlice.latin1(buf, 5, 10));
+        assertThrows(IndexOutOfBoundsException.class, () -> ascii.charAt(2));
+
+        // STRINGs are equal, and hash the same, whatever holds their chars
+        Operand s1 = Operand.strOperand("ok"), s2 = Operand.strOperand(ascii);
+        assertEquals(s1, s2);
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals(Operand.TRUE,
+                Evaluator.compile("%n + 1 == 43").evaluate(Collections.singletonMap("n", new StringBuilder("42"))));
+    }
+}
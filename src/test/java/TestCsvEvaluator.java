@@ -0,0 +1,234 @@
+import com.aton.proj.libs.oneval.CsvEvaluator;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCsvEvaluator {
+    private static final String[] EXPRESSIONS = {
+            "%amount * 2",
+            "upper($name) + '!'",
+            "?flag && %amount > 10",
+            "onNull($city, 'nowhere')",
+            "%amount / 4",
+    };
+
+    private Path input;
+    private Path output;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        input = Files.createTempFile("oneval", ".csv");
+        output = Files.createTempFile("oneval", ".csv");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+
+    @Test
+    public void testSameResults() throws IOException, ParseException, EvalException {
+        StringBuilder csv = new StringBuilder("id,name,unused,amount,flag,city\r\n");
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String name = i % 7 == 0 ? "\"Smith, \"\"Jr\"\"\"" : i % 5 == 0 ? "" : "n\u00e4me" + i;
+            String amount = i % 11 == 0 ? "-" + i + ".50" : i % 13 == 0 ? "1e3" : String.valueOf(i * 3);
+            String flag = i % 3 == 0 ? "TRUE" : i % 3 == 1 ? "0" : "1";
+            csv.append(i).append(',').append(name).append(",x,").append(amount).append(',').append(flag);
+            // the last field is missing on some lines
+            if (i % 4 != 0)
+                csv.append(',').append(i % 8 == 1 ? "\"Rome\"" : "Paris");
+            csv.append(i % 2 == 0 ? "\n" : "\r\n");
+            if (i % 50 == 0)
+                csv.append("\n");
+
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", i % 7 == 0 ? "Smith, \"Jr\"" : i % 5 == 0 ? null : "n\u00e4me" + i);
+            row.put("amount", amount);
+            row.put("flag", flag);
+            row.put("city", i % 4 == 0 ? null : i % 8 == 1 ? "Rome" : "Paris");
+            rows.add(row);
+        }
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Evaluator> columns = new LinkedHashMap<>();
+        for (String expression : EXPRESSIONS)
+            columns.put(expression, Evaluator.compile(expression));
+        StringBuilder expected = new StringBuilder(
+                "%amount * 2,upper($name) + '!',?flag && %amount > 10,\"onNull($city, 'nowhere')\",%amount / 4\n");
+        for (Map<String, Object> row : rows) {
+            for (int e = 0; e < EXPRESSIONS.length; e++) {
+                if (e > 0)
+                    expected.append(',');
+                expected.append(format(columns.get(EXPRESSIONS[e]).evaluate(row)));
+            }
+            expected.append('\n');
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            for (long partSize : new long[]{1, 100, 1000, 1 << 20}) {
+                long count = new CsvEvaluator(columns).setPartSize(partSize).setExecutor(pool).setMaxPartsInFlight(3)
+                        .evaluate(input, output);
+                assertEquals(rows.size(), count);
+                assertEquals(expected.toString(), new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String format(Operand result) {
+        switch (result.getType()) {
+            case NULL:
+                return "";
+            case NUM:
+                return ((BigDecimal) result.getValue()).toPlainString();
+            case STRING:
+                String s = (String) result.getValue();
+                return s.contains(",") || s.contains("\"") ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+            default:
+                return result.getValue().toString();
+        }
+    }
+
+    @Test
+    public void testRandomSeed() throws IOException, ParseException, EvalException {
+        StringBuilder csv = new StringBuilder("n\n");
+        for (int i = 0; i < 5000; i++)
+            csv.append(i).append('\n');
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+        CsvEvaluator evaluator = new CsvEvaluator(Collections.singletonMap("r", Evaluator.compile("rand(0, %n + 1)")))
+                .setPartSize(1000).setRandomSeed(7);
+        evaluator.evaluate(input, output);
+        byte[] first = Files.readAllBytes(output);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            evaluator.setExecutor(pool).setMaxPartsInFlight(3).evaluate(input, output);
+            assertArrayEquals(first, Files.readAllBytes(output));
+
+            evaluator.setRandomSeed(8).evaluate(input, output);
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(Arrays.equals(first, Files.readAllBytes(output)));
+    }
+
+    @Test
+    public void testPartialWrites() throws IOException, ParseException, EvalException {
+        StringBuilder csv = new StringBuilder("a\n");
+        StringBuilder expected = new StringBuilder("x\n");
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append('\n');
+            expected.append(i * 2).append('\n');
+        }
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // takes at most 3 bytes at a time, as a pipe may
+        WritableByteChannel out = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int n = Math.min(3, src.remaining());
+                for (int i = 0; i < n; i++)
+                    bytes.write(src.get());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            assertEquals(1000, new CsvEvaluator(Collections.singletonMap("x", Evaluator.compile("%a * 2")))
+                    .setPartSize(100).evaluate(in, out));
+        }
+        assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTsv() throws IOException, ParseException, EvalException {
+        Files.write(input, "a\tb\n1\tx,y\n2\t\n".getBytes(StandardCharsets.UTF_8));
+        Map<String, Evaluator> columns = new LinkedHashMap<>();
+        columns.put("sum", Evaluator.compile("%a + 1"));
+        columns.put("b", Evaluator.compile("onNull($b, '-') + ','"));
+        assertEquals(2, new CsvEvaluator(columns).setDelimiter('\t').evaluate(input, output));
+        assertEquals("sum\tb\n2\tx,y,\n3\t-,\n", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFailures() throws IOException, ParseException {
+        Files.write(input, "a,b\n1,2\n3,\n4,abc\n".getBytes(StandardCharsets.UTF_8));
+        Map<String, Evaluator> columns = new LinkedHashMap<>();
+        columns.put("x", Evaluator.compile("%a * %b"));
+        EvalException ee = assertThrows(EvalException.class,
+                () -> new CsvEvaluator(columns).setPartSize(4).evaluate(input, output));
+        assertTrue(ee.getMessage().startsWith("Line 3: "), ee.getMessage());
+
+        columns.put("x", Evaluator.compile("%a + onNull(%b, 0)"));
+        IllegalArgumentException iae = assertThrows(IllegalArgumentException.class,
+                () -> new CsvEvaluator(columns).evaluate(input, output));
+        assertTrue(iae.getMessage().startsWith("Line 4: "), iae.getMessage());
+
+        columns.put("x", Evaluator.compile("%c"));
+        assertThrows(IllegalArgumentException.class, () -> new CsvEvaluator(columns).evaluate(input, output));
+        assertThrows(IllegalArgumentException.class, () -> new CsvEvaluator(columns).setDelimiter('"'));
+
+        // the parts in flight are waited for, though they start later
+        StringBuilder csv = new StringBuilder("a,b\n3,\n");
+        for (int i = 0; i < 20; i++)
+            csv.append("1,2\n");
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+        columns.put("x", Evaluator.compile("%a * %b"));
+        AtomicInteger submitted = new AtomicInteger(), started = new AtomicInteger();
+        Executor late = task -> {
+            int index = submitted.getAndIncrement();
+            new Thread(() -> {
+                try {
+                    Thread.sleep(100L * index);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                started.incrementAndGet();
+                task.run();
+            }).start();
+        };
+        assertThrows(EvalException.class, () -> new CsvEvaluator(columns).setPartSize(4).setExecutor(late)
+                .setMaxPartsInFlight(3).evaluate(input, output));
+        assertEquals(3, submitted.get());
+        assertEquals(3, started.get());
+    }
+}
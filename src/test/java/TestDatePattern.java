@@ -0,0 +1,115 @@
+import com.aton.proj.libs.oneval.internals.DatePattern;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDatePattern {
+    private static final String[] PATTERNS = {
+            "yyyy-MM-dd", "yyyy-MM-dd HH:mm:ss", "dd/MM/yyyy", "yyyyMMdd", "yyyyMMddHHmmss", "Hmmss",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "yyyy-MM-dd'T'HH:mm:ssXXX", "yyyy-MM-dd'T'HH:mm:ssX",
+            "EEE, d MMM yyyy HH:mm:ss Z", "EEEE dd MMMM yyyy", "hh:mm a", "yy-M-d", "MM/dd/yy", "D F u", "G y",
+            "k:mm K:mm", "yyyy-MM-dd hh:mm:ss", "'It''s' yyyy", "''yyyy''", "MMMMM", "S SS SSSS", "z", "w W YYYY",
+    };
+    private static final String[] ZONES = {
+            "Europe/Rome", "UTC", "America/New_York", "Asia/Kolkata", "Australia/Lord_Howe", "America/St_Johns",
+            "+05:30",
+    };
+
+    @Test
+    public void testSameAsSimpleDateFormat() throws EvalException {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        Random random = new Random(42);
+        try {
+            for (Locale l : new Locale[]{Locale.US, Locale.ITALY, new Locale("ru", "RU"), new Locale("ar", "EG"),
+                    new Locale("th", "TH"), new Locale("th", "TH", "TH")}) {
+                Locale.setDefault(Locale.Category.FORMAT, l);
+                for (String id : ZONES) {
+                    ZoneId zone = ZoneId.of(id);
+                    for (String pattern : PATTERNS) {
+                        for (int i = 0; i < 40; i++) {
+                            // mostly around now, then from before 1582 to after 2200
+                            long epoch = i % 2 == 0 ? 1_000_000_000L + random.nextInt(1_000_000_000)
+                                    : random.nextLong() % 8_000_000_000L;
+                            SimpleDateFormat format = new SimpleDateFormat(pattern);
+                            format.setTimeZone(TimeZone.getTimeZone(zone));
+                            String text = format.format(new Date(epoch * 1000));
+                            String what = l + " " + id + " " + pattern + " " + epoch;
+                            assertEquals(text, DatePattern.of(pattern).format(epoch, zone), what);
+                            assertSameParse(pattern, text, zone);
+                        }
+                    }
+                }
+            }
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, locale);
+        }
+    }
+
+    @Test
+    public void testLenientParsing() throws EvalException {
+        String[][] inputs = {
+                {"yyyy-MM-dd", "2020-02-30"}, {"yyyy-MM-dd", "2020-13-01"}, {"yyyy-MM-dd", "2020-00-00"},
+                {"yyyy-MM-dd", "2020-1-5"}, {"yyyy-MM-dd", "2020-01-05 and more"}, {"yyyy-MM-dd", "2020-01--5"},
+                {"yyyy-MM-dd", ""}, {"yyyy-MM-dd", " 2020-01-01"}, {"yyyy-MM-dd", "1582-10-20"},
+                {"yyyy-MM-dd", "12345-01-01"}, {"yyyyMMdd", "20200105"}, {"yyyyMMdd", "2020015"},
+                {"yyyyMMdd", "202001055"}, {"dd/MM/yyyy", "5/1/2020"}, {"HH:mm", "10:00"}, {"hh:mm", "12:30"},
+                {"yyyy-MM-dd HH:mm", "2021-03-28 02:30"}, {"yyyy-MM-dd HH:mm", "2021-10-31 02:30"},
+                {"yyyy-MM-dd HH:mm", "2020-01-01 25:61"}, {"yyyy-MM-dd'T'HH:mm:ssXXX", "2020-01-01T10:00:00+05:30"},
+                {"yyyy-MM-dd'T'HH:mm:ssZ", "2020-01-01T10:00:00-0800"},
+                {"yyyy-MM-dd'T'HH:mm:ssZ", "2020-01-01T10:00:00GMT+02:00"},
+                {"yyyy-MM-dd HH:mm:ss.SSS", "1969-12-31 23:59:59.500"},
+                {"yyyy-MM-dd HH:mm:ss.SSS", "2020-01-01 00:00:00.12345"},
+        };
+        for (String id : ZONES)
+            for (String[] input : inputs)
+                assertSameParse(input[0], input[1], ZoneId.of(id));
+    }
+
+    @Test
+    public void testCache() throws EvalException {
+        assertSame(DatePattern.of("yyyy-MM-dd"), DatePattern.of("yyyy-MM-dd"));
+        assertThrows(IllegalArgumentException.class, () -> DatePattern.of("yyyy-MM-dd'"));
+        assertThrows(IllegalArgumentException.class, () -> DatePattern.of("yyyy-MM-dd ee"));
+        assertEquals(ZoneId.of("Asia/Kolkata"), DatePattern.zone("Asia/Kolkata"));
+        assertThrows(EvalException.class, () -> DatePattern.zone("Mars/Olympus_Mons"));
+
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        try {
+            Locale.setDefault(Locale.Category.FORMAT, Locale.US);
+            DatePattern us = DatePattern.of("MMMM");
+            assertEquals("January", us.format(0, ZoneId.of("UTC")));
+            Locale.setDefault(Locale.Category.FORMAT, Locale.ITALY);
+            assertFalse(us.isCurrent());
+            assertEquals("gennaio", DatePattern.of("MMMM").format(0, ZoneId.of("UTC")));
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, locale);
+        }
+    }
+
+    private static void assertSameParse(String pattern, String text, ZoneId zone) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone(zone));
+        String expected;
+        try {
+            expected = String.valueOf(format.parse(text).getTime() / 1000);
+        } catch (ParseException e) {
+            expected = e.getMessage();
+        }
+        String actual;
+        try {
+            actual = String.valueOf(DatePattern.of(pattern).parse(text, zone));
+        } catch (EvalException e) {
+            actual = e.getMessage();
+        }
+        assertEquals(expected, actual, pattern + " '" + text + "' " + zone);
+    }
+}
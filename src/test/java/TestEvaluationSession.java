@@ -0,0 +1,138 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationSession;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEvaluationSession {
+    private static final List<String> EXPRESSIONS = Arrays.asList(
+            "lower($name) == 'acme' && %balance > 100",
+            "%balance * %rate + 1",
+            "upper($name) + ' ' + toString(%balance * %rate)",
+            "if(?active, %balance, 0) >= 50",
+            "onNull($city, 'nowhere')",
+            "len(lower($name)) + %balance * %rate",
+            "1 + 2"
+    );
+
+    @Test
+    public void testSameResults() throws ParseException, EvalException {
+        Random random = new Random(42);
+        Object[][] choices = {
+                {"name", "ACME", "acme", "Other", null},
+                {"balance", 10, 150, "99.5", 1000L},
+                {"rate", "1.1", 2, 0},
+                {"active", true, false},
+                {"city", "Rome", null}
+        };
+        for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.EAGER_EVALUATION}}) {
+            EvaluationSession session = EvaluationSession.compile(EXPRESSIONS, options);
+            Map<String, Object> variables = new HashMap<>();
+            for (Object[] choice : choices)
+                variables.put((String) choice[0], choice[1]);
+            BitSet changed = session.update(variables);
+            assertEquals(EXPRESSIONS.size(), changed.cardinality());
+
+            Operand[] previous = check(session, variables, options);
+            for (int i = 0; i < 200; i++) {
+                Object[] choice = choices[random.nextInt(choices.length)];
+                String name = (String) choice[0];
+                Object value = choice[1 + random.nextInt(choice.length - 1)];
+                variables.put(name, value);
+                changed = session.update(name, value);
+                Operand[] current = check(session, variables, options);
+                for (int e = 0; e < current.length; e++)
+                    assertEquals(!current[e].equals(previous[e]), changed.get(e), EXPRESSIONS.get(e));
+                previous = current;
+            }
+        }
+    }
+
+    private static Operand[] check(EvaluationSession session, Map<String, Object> variables, CompileOption[] options)
+            throws ParseException, EvalException {
+        Operand[] ret = new Operand[EXPRESSIONS.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = session.get(i);
+            assertEquals(Evaluator.compile(EXPRESSIONS.get(i), options).evaluate(variables), ret[i]);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testOnlyAffectedExpressions() throws ParseException, EvalException {
+        // rand() is called again only when its expression is re-evaluated
+        EvaluationSession session = EvaluationSession.compile(Arrays.asList(
+                "%a + %b", "rand(0, 1000000000) + %a", "%b * 2"));
+        assertEquals(Arrays.asList("a", "b"), session.getVariableSlots());
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", 1);
+        variables.put("b", 1);
+        session.update(variables);
+        Operand random = session.get(1);
+
+        BitSet changed = session.update("b", 2);
+        assertEquals(BitSet.valueOf(new long[]{0b101}), changed);
+        assertSame(random, session.get(1));
+        assertEquals(Operand.numOperand(4, 0), session.get(2));
+
+        assertTrue(session.update("b", 2).isEmpty());
+        assertTrue(session.update("unused", "x").isEmpty());
+        assertEquals("x", session.getVariable("unused"));
+        session.update("a", 2);
+        assertNotSame(random, session.get(1));
+    }
+
+    @Test
+    public void testFailures() throws ParseException, EvalException {
+        EvaluationSession session = EvaluationSession.compile(Arrays.asList("%a * 2", "%b * 2"));
+        // %b is NULL
+        EvalException ee = assertThrows(EvalException.class, () -> session.update("a", 1));
+        assertTrue(ee.getMessage().startsWith("Expression 1: "));
+        assertEquals(Operand.numOperand(2, 0), session.get(0));
+        assertNull(session.get(1));
+        assertThrows(EvalException.class, () -> session.update("a", 3));
+
+        // tried again on any update, and the changes not returned yet are
+        BitSet changed = session.update("b", 5);
+        assertEquals(BitSet.valueOf(new long[]{0b11}), changed);
+        assertEquals(Operand.numOperand(10, 0), session.get(1));
+    }
+
+    @Test
+    public void testFailuresDontStopTheOthers() throws ParseException, EvalException {
+        EvaluationSession session = EvaluationSession.compile(Arrays.asList("%a / %b", "%c + 1", "%d * 2"));
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 1);
+        values.put("b", 0);
+        values.put("c", 2);
+        IllegalArgumentException iae = assertThrows(IllegalArgumentException.class, () -> session.update(values));
+        assertTrue(iae.getMessage().startsWith("Expression 0: "), iae.getMessage());
+        assertTrue(iae.getMessage().contains("; Expression 2: "), iae.getMessage());
+        assertTrue(iae.getCause() instanceof ArithmeticException);
+        assertNull(session.get(0));
+        assertEquals(Operand.numOperand(3, 0), session.get(1));
+        assertNull(session.get(2));
+
+        // the others are still updated while one keeps failing
+        assertThrows(IllegalArgumentException.class, () -> session.update("c", 5));
+        assertEquals(Operand.numOperand(6, 0), session.get(1));
+        EvalException ee = assertThrows(EvalException.class, () -> session.update("b", null));
+        assertTrue(ee.getMessage().startsWith("Expression 0: "), ee.getMessage());
+
+        values.put("b", 2);
+        values.put("d", 4);
+        assertEquals(BitSet.valueOf(new long[]{0b111}), session.update(values));
+        assertEquals(Operand.numOperand(8, 0), session.get(2));
+    }
+}
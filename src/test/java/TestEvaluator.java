@@ -1,17 +1,41 @@
+import com.aton.proj.libs.oneval.Bindings;
+import com.aton.proj.libs.oneval.ColumnBatch;
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
 import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.ResultColumn;
+import com.aton.proj.libs.oneval.VariableResolver;
 import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Function;
 import com.aton.proj.libs.oneval.internals.Operand;
+import com.aton.proj.libs.oneval.internals.ValuedItem;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class TestEvaluator {
@@ -33,9 +57,12 @@ public class TestEvaluator {
         variables.put("m", "-1");
     }
 
+    // evaluates with every engine, checking that they agree
     private Operand eval(String expression) throws ParseException, EvalException {
-        Evaluator eval = Evaluator.compile(expression);
-        return eval.evaluate(variables);
+        Operand ret = Evaluator.compile(expression).evaluate(variables);
+        assertEquals(ret, Evaluator.compile(expression, CompileOption.NODE_TREE).evaluate(variables), expression);
+        assertEquals(ret, Evaluator.compile(expression, CompileOption.BYTECODE).evaluate(variables), expression);
+        return ret;
     }
 
     @Test
@@ -171,6 +198,43 @@ public class TestEvaluator {
         testTruth("0 - GETEPOCH() < -1000");
         testTruth("strToEpoch('2021-01-01', 'yyyy-MM-dd') < getEpoch()");
         testTruth("strToEpoch(epochToStr(getEpoch() - 1000, 'yyyy-MM-dd'), 'yyyy-MM-dd') < getEpoch()");
+
+        // literal and dynamic patterns and zones
+        testTruth("epochToStrTz(1610319600, 'yyyy-MM-dd HH:mm', 'UTC') == '2021-01-10 23:00'");
+        testTruth("epochToStrTz(1610319600, 'yyyy-MM-dd HH:mm', 'Asia/Kolkata') == '2021-01-11 04:30'");
+        testTruth("epochToStrTz(1610319600, $h, 'UTC') == '11' && epochToStrTz(1610319600, $d, 'Europe/Rome') == '11'");
+        testTruth("strToEpochTz('2021-01-10 23:00', 'yyyy-MM-dd HH:mm', 'UTC') == 1610319600");
+        testTruth("strToEpochTz('2021-01-11 04:30', 'yyyy-MM-dd HH:mm', '+05:30') == 1610319600");
+        testTruth("strToEpochTz('2021-01-11T00:00:00+01:00', \"yyyy-MM-dd'T'HH:mm:ssXXX\", 'America/New_York') == 1610319600");
+        testTruth("strToEpochTz(epochToStrTz(1610319600, $d, 'Europe/Rome'), $d, 'Europe/Rome') == 860400");
+        testFailEvaluation("epochToStrTz(%a, 'yyyy', 'Mars/Olympus_Mons')");
+        testFailEvaluation("epochToStrTz(0, 'yyyy', $i)");
+        testFailEvaluation("epochToStrTz(0, 'yyyy', $missing)");
+        testFailEvaluation("strToEpoch($i, 'yyyy-MM-dd')");
+        testFailEvaluation("strToEpochTz($missing, 'yyyy-MM-dd', 'UTC')");
+        testFailEvaluation("epochToStr(%g, 'yyyy-MM-dd')");
+    }
+
+    @Test
+    public void testDateFuncsFollowDefaultZone() throws ParseException, EvalException {
+        CompileOption[][] engines = {{}, {CompileOption.NODE_TREE}, {CompileOption.BYTECODE}};
+        List<Evaluator> format = new ArrayList<>(), parse = new ArrayList<>();
+        TimeZone zone = TimeZone.getDefault();
+        try {
+            // compiled in one zone, evaluated in another: nothing is folded
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            for (CompileOption[] options : engines) {
+                format.add(Evaluator.compile("epochToStr(0, 'HH:mm')", options));
+                parse.add(Evaluator.compile("strToEpoch('1970-01-01 05:30', 'yyyy-MM-dd HH:mm')", options));
+            }
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+            for (Evaluator eval : format)
+                assertEquals(Operand.strOperand("05:30"), eval.evaluate(variables));
+            for (Evaluator eval : parse)
+                assertEquals(Operand.numOperand(0, 0), eval.evaluate(variables));
+        } finally {
+            TimeZone.setDefault(zone);
+        }
     }
 
     @Test
@@ -246,6 +310,8 @@ public class TestEvaluator {
         testTruth("getEpoch() > 0");
         testTruth("epochToStr(1610319600, \"yyyy-MM-dd\") == \"2021-01-11\"");
         testTruth("strToEpoch(\"2021-01-11\", \"yyyy-MM-dd\") == 1610319600");
+        testTruth("epochToStrTz(1610319600, \"yyyy-MM-dd HH:mm\", \"UTC\") == \"2021-01-10 23:00\"");
+        testTruth("strToEpochTz(\"2021-01-10 23:00\", \"yyyy-MM-dd HH:mm\", \"UTC\") == 1610319600");
         testTruth("onNull(NULL, NULL) == NULL");
         testTruth("onNull(NULL, \"1\") == \"1\"");
         testTruth("onNull(1, \"1\") == 1");
@@ -290,20 +356,660 @@ public class TestEvaluator {
         testFailCompilation("(5*2)8");
     }
 
+    @Test
+    public void testConstantFolding() throws ParseException, EvalException {
+        testTruth("60*60*24 == 86400");
+        testTruth("upper('it') + $a == 'IT0'");
+        testTruth("toNum('10') + 1 == 11");
+        testTruth("if(true, 'a', 'b') == 'a' && onNull(NULL, 1) == 1");
+        testTruth("%b + 2 * 3 == 7");
+
+        // folding errors surface at compile time
+        testFailCompilation("toNum('ten') + 1");
+        testFailCompilation("%a + 1 / 0");
+        testFailCompilation("substr('abc', 2, 1)");
+
+        assertFalse(Function.RANDF.pure);
+        assertFalse(Function.EPOCH.pure);
+        testTruth("rand(1, 2) < 2");
+    }
+
+    @Test
+    public void testEvaluationContext() throws ParseException, EvalException {
+        EvaluationContext ctx = new EvaluationContext();
+        String[] expressions = {
+                "%b + %c",
+                "((((((((((((((((((%b + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1) + 1)",
+                "%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + (%b + %b))))))))))))))))",
+                "left($i, 3) + right(left($i, 4), 1) + right($i, 2) == $i"
+        };
+        for (int round = 0; round < 2; round++)
+            for (String expression : expressions) {
+                Evaluator eval = Evaluator.compile(expression);
+                assertEquals(eval.evaluate(variables), eval.evaluate(variables, ctx));
+            }
+    }
+
+    @Test
+    public void testRandomSeed() throws ParseException, EvalException {
+        String expression = "rand(%b, 10 * %c) + rand(-1, 1)";
+        Evaluator[] evals = {
+                Evaluator.compile(expression),
+                Evaluator.compile(expression, CompileOption.NODE_TREE),
+                Evaluator.compileAll(Collections.singletonList(expression), CompileOption.BYTECODE).get(0)
+        };
+        List<Operand> expected = new ArrayList<>();
+        EvaluationContext ctx = new EvaluationContext();
+        ctx.setRandomSeed(42);
+        for (int i = 0; i < 10; i++)
+            expected.add(evals[0].evaluate(variables, ctx));
+        assertEquals(10, new HashSet<>(expected).size());
+
+        // the same seed gives the same numbers, with every engine
+        for (Evaluator eval : evals) {
+            ctx = new EvaluationContext();
+            ctx.setRandomSeed(42);
+            for (int i = 0; i < 10; i++)
+                assertEquals(expected.get(i), eval.evaluate(variables, ctx));
+        }
+
+        // by column as well
+        long[] b = new long[100];
+        long[] c = new long[100];
+        Arrays.fill(b, 1);
+        Arrays.fill(c, 2);
+        ColumnBatch batch = new ColumnBatch(100).set("b", b).set("c", c);
+        int[] rows = {3, 5, 99};
+        ResultColumn[] results = new ResultColumn[4];
+        for (int i = 0; i < 4; i++) {
+            ctx = new EvaluationContext();
+            ctx.setRandomSeed(42);
+            results[i] = i < 2 ? evals[0].evaluateBatch(batch, ctx) : evals[0].evaluateBatch(batch, rows, ctx);
+        }
+        for (int row = 0; row < 100; row++)
+            assertEquals(results[0].get(row), results[1].get(row));
+        for (int row : rows)
+            assertEquals(results[2].get(row), results[3].get(row));
+        Set<Operand> drawn = new HashSet<>();
+        for (int row = 0; row < 100; row++)
+            drawn.add(results[0].get(row));
+        assertEquals(100, drawn.size());
+
+        // without one, each thread has its own generator
+        ctx = new EvaluationContext();
+        for (Evaluator eval : evals)
+            for (int i = 0; i < 100; i++) {
+                double d = eval.evaluateDouble(variables, ctx);
+                assertTrue(d >= 0 && d < 21, String.valueOf(d));
+            }
+    }
+
+    @Test
+    public void testLexer() throws ParseException, EvalException {
+        testTruth("'it\\'s' == \"it's\"");
+        testTruth("\"say \\\"hi\\\"\" == 'say \"hi\"'");
+        testTruth("'a+b,(c)' == \"a+b,(c)\"");
+        testTruth("2 > = 1 && 1 < = 2 && 1 ! = 2");
+        testTruth("max(-1, -2) == -1");
+        testTruth("(-1) * - 2 == 2");
+        testTruth("1.5e2 == 150 && .5 == 0.5");
+        testTruth("%m-1 == NULL");
+        testTruth("IF(TRUE, 1, 2) == 1");
+
+        testFailCompilation("(1 + 2");
+        testFailCompilation("1 + 2)");
+        testFailCompilation("1, 2");
+        testFailCompilation("'unclosed");
+        testFailCompilation("1 = 1");
+        testFailCompilation("unknown(1)");
+
+        assertEquals(Function.STARTSWITH, Function.getOperation(" STARTSWITH "));
+        assertEquals(Function.GREATER_EQ, Function.getOperation(">="));
+        assertNull(Function.getOperation("startsWit"));
+
+        try {
+            Evaluator.compile("1 + foo(2)");
+            fail();
+        } catch (ParseException e) {
+            assertEquals(4, e.getErrorOffset());
+        }
+    }
+
+    @Test
+    public void testShortCircuit() throws ParseException, EvalException {
+        // the skipped operands would fail: 1 / %a is a division by zero, and
+        // toNum($i) can't parse "string"
+        testFalseness("%a == 1 && 1 / %a > 0");
+        testTruth("%a == 0 || 1 / %a > 0");
+        testTruth("if(%a == 0, 1, 1 / %a) == 1");
+        testTruth("if(%a != 0, 1 / %a, 2) == 2");
+        testTruth("onNull(%b, toNum($i)) == 1");
+        testTruth("onNull($f, %b) == 1");
+        testTruth("if(%b == 1, if(%a == 1, toNum($i), 3), toNum($i)) == 3");
+        testTruth("~(%a == 1 && toNum($i) == 1) || toNum($i) == 1");
+
+        // the operand that decides the result is still type checked
+        testFailEvaluation("%a && true");
+        testFailEvaluation("true && %a");
+        testFailEvaluation("false || %a");
+        testFailEvaluation("if(%a, 1, 2)");
+
+        try {
+            Evaluator.compile("%a == 1 && 1 / %a > 0", CompileOption.EAGER_EVALUATION).evaluate(variables);
+            fail();
+        } catch (ArithmeticException e) {
+        }
+        assertEquals(Operand.TRUE, Evaluator.compile("if(%a == 0, %b == 1, %c == 1)", CompileOption.EAGER_EVALUATION)
+                .evaluate(variables));
+    }
+
+    @Test
+    public void testNodeTree() throws ParseException, EvalException {
+        // the specialized nodes fall back to the operations when the operands
+        // aren't of the expected type
+        testTruth("%a + %b == 1 && %b - %c == -1 && %c * %c == 4");
+        testTruth("%missing + %b == 1 && %b + %missing == 1");
+        testTruth("%b > %a && %b >= %b && %a < %b && %a <= %a");
+        testTruth("$i == 'string' && 'string' == $i && $i != 'str'");
+        testTruth("contains($i, 'rin') && startsWith($i, 'str') && endsWith($i, 'ng')");
+        testFalseness("contains($missing, 'rin') || startsWith($missing, 'str') || endsWith($missing, 'ng')");
+        testTruth("if(%b == 1, %b, 'x') + %b == 2");
+        testTruth("toNum(%b) * 3 == 3 && $i * %c == 'stringstring'");
+        testFailEvaluation("%missing - %b");
+        testFailEvaluation("contains(%b, 'x')");
+        testFailEvaluation("?b + %b");
+
+        Map<String, String> nums = new HashMap<>();
+        nums.put("x", "2.50");
+        nums.put("y", "x");
+        Evaluator eval = Evaluator.compile("%x * 2 + 1 > 5 && %x - 0.5 == 2", CompileOption.NODE_TREE);
+        assertEquals(Operand.TRUE, eval.evaluate(nums));
+        assertEquals(Operand.TRUE, eval.evaluate(nums, new EvaluationContext()));
+        assertEquals(Operand.strOperand("x2.5"), Evaluator.compile("$y + %x", CompileOption.NODE_TREE)
+                .evaluate(nums));
+    }
+
+    @Test
+    public void testBytecode() throws ParseException, EvalException {
+        List<String> expressions = new ArrayList<>();
+        StringBuilder sum = new StringBuilder("%b");
+        for (int i = 0; i < 300; i++) {
+            expressions.add("%b + " + i + " == " + (i + 1));
+            sum.append(" + ").append(i);
+        }
+        expressions.add(sum + " == 44851");
+        expressions.add("onNull($f, if(%a == 0 && ~(%b == 0 || $i == 'x'), $i + %b, 'x')) == 'string1'");
+
+        List<Evaluator> evaluators = Evaluator.compileAll(expressions, CompileOption.BYTECODE);
+        assertEquals(expressions.size(), evaluators.size());
+        for (Evaluator eval : evaluators)
+            assertEquals(Operand.TRUE, eval.evaluate(variables));
+
+        assertEquals(Operand.TRUE, Evaluator.compileAll(Collections.singletonList("%a == 1 || 1 / %b == 1"),
+                CompileOption.BYTECODE, CompileOption.EAGER_EVALUATION).get(0).evaluate(variables));
+        assertTrue(Evaluator.compileAll(Collections.emptyList(), CompileOption.BYTECODE).isEmpty());
+
+        // too many for a single class: the other engines take over
+        expressions.clear();
+        for (int i = 0; i < 8000; i++)
+            expressions.add("%b + " + i);
+        evaluators = Evaluator.compileAll(expressions, CompileOption.BYTECODE);
+        assertEquals(Operand.numOperand(8000, 0), evaluators.get(7999).evaluate(variables));
+    }
+
+    @Test
+    public void testCompactNumbers() throws ParseException, EvalException {
+        testTruth("9223372036854775807 + 1 == 9223372036854775808");
+        testTruth("-9223372036854775807 - 10 == -9223372036854775817");
+        testTruth("4294967296 * 4294967296 == 18446744073709551616");
+        testTruth("0.1 + 0.2 == 0.3 && 1.50 * 2 == 3 && 0.5 - 0.25 == .25");
+        testTruth("1e-30 + 1 > 1 && 1e30 + 1 > 1e30 && 1e30 > 1.5 && -1e30 < 0.0001");
+        testTruth("abs(-9223372036854775808) == 9223372036854775808 && abs(-2.5) == 2.5");
+        testTruth("signum(-0.001) == -1 && signum(0.000) == 0 && min(0.3, 0.25) == 0.25 && max(1e2, 99) == 100");
+        testTruth("toNum('12345678901234567890.5') - 0.5 == 12345678901234567890");
+
+        Map<String, String> nums = new HashMap<>();
+        String[] values = {"0", "-0", "1", "-1", "100", "0.0100", "+7", "1.", ".5", "-12.345", "1e3",
+                "999999999999999999", "9223372036854775807", "-9223372036854775808", "12345678901234567890.123"};
+        for (String v1 : values)
+            for (String v2 : values) {
+                BigDecimal d1 = new BigDecimal(v1), d2 = new BigDecimal(v2);
+                nums.put("x", v1);
+                nums.put("y", v2);
+                assertEquals(Operand.numOperand(d1), Operand.parseNumOperand(v1));
+                assertEquals(Operand.numOperand(d1).hashCode(), Operand.parseNumOperand(v1).hashCode());
+                assertEquals(Operand.numOperand(d1.add(d2)), Evaluator.compile("%x + %y").evaluate(nums));
+                assertEquals(Operand.numOperand(d1.subtract(d2)), Evaluator.compile("%x - %y").evaluate(nums));
+                assertEquals(Operand.numOperand(d1.multiply(d2)), Evaluator.compile("%x * %y").evaluate(nums));
+                assertEquals(Operand.boolOperand(d1.compareTo(d2) < 0), Evaluator.compile("%x < %y").evaluate(nums));
+                assertEquals(d1.add(d2).stripTrailingZeros(), Evaluator.compile("%x + %y").evaluate(nums).getValue());
+            }
+
+        // the BigDecimal representation is unchanged
+        assertEquals(new BigDecimal("1E+2"), eval("50 + 50").getValue());
+        assertEquals("1E+2", Evaluator.compile("toString(50 * 2)").evaluateToString());
+    }
+
+    @Test
+    public void testBindings() throws ParseException, EvalException {
+        for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.NODE_TREE}, {CompileOption.BYTECODE}}) {
+            Evaluator eval = Evaluator.compile("%b + %c * %b == 3 && $i == 'string' && $b == '1' && ?b && $f == NULL",
+                    options);
+            assertEquals(Arrays.asList("b", "c", "i", "f"), eval.getVariableSlots());
+
+            Bindings bindings = eval.newBindings()
+                    .set(0, "1")
+                    .set("c", "2")
+                    .set("i", "string")
+                    .set("unused", "x");
+            assertEquals(Operand.TRUE, eval.evaluate(bindings));
+            assertEquals(Operand.TRUE, eval.evaluate(bindings, new EvaluationContext()));
+            assertEquals(Operand.TRUE, eval.evaluate(variables));
+
+            bindings.set(1, "3");
+            assertEquals(Operand.FALSE, eval.evaluate(bindings));
+            bindings.clear();
+            try {
+                eval.evaluate(bindings);
+                fail();
+            } catch (EvalException e) {
+                // %c * %b on NULLs
+            }
+
+            // each variable is looked up and decoded once, however many times
+            // it's used; b is used as 3 different types
+            Map<String, Integer> lookups = new HashMap<>();
+            Map<String, String> counting = new HashMap<String, String>(variables) {
+                @Override
+                public String get(Object key) {
+                    lookups.merge((String) key, 1, Integer::sum);
+                    return super.get(key);
+                }
+            };
+            assertEquals(Operand.TRUE, eval.evaluate(counting));
+            assertEquals(Integer.valueOf(1), lookups.get("c"));
+            assertEquals(Integer.valueOf(3), lookups.get("b"));
+
+            try {
+                eval.evaluate(Evaluator.compile("%x").newBindings());
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        assertEquals(Collections.emptyList(), Evaluator.compile("1 + 1").getVariableSlots());
+    }
+
+    @Test
+    public void testTypedVariables() throws ParseException, EvalException {
+        // typed values give the same results as their string form
+        Object[] values = {0L, -7L, 1L, 42, (short) 3, (byte) -1, 1.0, -0.0, 2.5, 1e-7, 1e21, 0.1f,
+                new BigDecimal("1.500"), new BigDecimal("1E+3"), new BigInteger("123456789012345678901234567890"),
+                true, false, "12.50", "true", 'x', null};
+        Evaluator num = Evaluator.compile("%v");
+        Evaluator str = Evaluator.compile("$v");
+        Evaluator bool = Evaluator.compile("?v");
+        for (Object value : values) {
+            Map<String, Object> typed = new HashMap<>();
+            Map<String, String> strings = new HashMap<>();
+            typed.put("v", value);
+            strings.put("v", value == null ? null : value.toString());
+            for (Evaluator eval : new Evaluator[]{num, str, bool}) {
+                Bindings bindings = eval.newBindings();
+                if (value instanceof Long)
+                    bindings.set(0, (long) (Long) value);
+                else if (value instanceof Double)
+                    bindings.set(0, (double) (Double) value);
+                else if (value instanceof Boolean)
+                    bindings.set(0, (boolean) (Boolean) value);
+                else
+                    bindings.set(0, value);
+
+                Operand expected;
+                try {
+                    expected = eval.evaluate(strings);
+                } catch (NumberFormatException e) {
+                    assertThrows(NumberFormatException.class, () -> eval.evaluate(typed));
+                    assertThrows(NumberFormatException.class, () -> eval.evaluate(bindings));
+                    continue;
+                }
+                assertEquals(expected, eval.evaluate(typed), value + " as " + eval.getVariableSlots());
+                assertEquals(expected, eval.evaluate(bindings), value + " as " + eval.getVariableSlots());
+            }
+        }
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("amount", new BigDecimal("1234.50"));
+        event.put("qty", 3);
+        event.put("vip", true);
+        event.put("ratio", 0.25);
+        assertEquals(Operand.TRUE, Evaluator.compile("%amount * %qty == 3703.5 && ?vip && %ratio * 4 == 1")
+                .evaluate(event));
+    }
+
+    @Test
+    public void testPrimitiveResults() throws ParseException, EvalException {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", 2);
+        variables.put("s", "x");
+        variables.put("t", true);
+        for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.NODE_TREE}, {CompileOption.BYTECODE}}) {
+            EvaluationContext context = new EvaluationContext();
+            assertTrue(Evaluator.compile("%a > 1 && $s == 'x'", options).evaluateBoolean(variables, context));
+            assertFalse(Evaluator.compile("%a > 5", options).evaluateBoolean(variables));
+            assertEquals(7L, Evaluator.compile("%a * 3 + 1", options).evaluateLong(variables));
+            assertEquals(-9000000000L, Evaluator.compile("-9000000000", options).evaluateLong(variables, context));
+            assertEquals(0.1, Evaluator.compile("0.1", options).evaluateDouble(variables), 0);
+            assertEquals(1e-30, Evaluator.compile("0.000000000000000000000000000001", options)
+                    .evaluateDouble(variables), 0);
+            assertEquals(2.5e25, Evaluator.compile("25000000000000000000000000", options)
+                    .evaluateDouble(variables), 0);
+            assertEquals(Math.PI, Evaluator.compile("3.14159265358979323846", options).evaluateDouble(variables), 0);
+
+            assertThrows(EvalException.class, () -> Evaluator.compile("$s", options).evaluateBoolean(variables));
+            assertThrows(EvalException.class, () -> Evaluator.compile("%missing", options).evaluateBoolean(variables));
+            assertThrows(EvalException.class, () -> Evaluator.compile("1.5", options).evaluateLong(variables));
+            assertThrows(EvalException.class, () -> Evaluator.compile("?t", options).evaluateDouble(variables));
+        }
+
+        // same as BigDecimal.doubleValue()
+        Evaluator eval = Evaluator.compile("%v");
+        Map<String, String> values = new HashMap<>();
+        for (String v : new String[]{"123456789.123456789", "-0.3", "9007199254740993", "1E+22", "1.7976931348623157E+308",
+                "4.9E-324", "0.00000001", "-123456789012345678901234567890.5"}) {
+            values.put("v", v);
+            assertEquals(new BigDecimal(v).doubleValue(), eval.evaluateDouble(values), 0, v);
+        }
+
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            rows.add(Collections.singletonMap("n", Integer.toString(i)));
+        assertEquals(4, rows.stream().filter(Evaluator.compile("%n >= 3 && %n < 7").asPredicate()).count());
+        assertEquals(22.5, rows.stream().mapToDouble(Evaluator.compile("%n / 2").asToDoubleFunction()).sum(), 0);
+        assertThrows(IllegalArgumentException.class,
+                () -> rows.stream().filter(Evaluator.compile("%n").asPredicate()).count());
+    }
+
+    @Test
+    public void testPrimitiveResultsDontAllocate() throws ParseException, EvalException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.NODE_TREE}, {CompileOption.BYTECODE}}) {
+            Evaluator eval = Evaluator.compile("%a >= 11 && %b <= 5 || $s == 'x'", options);
+            Bindings bindings = eval.newBindings().set(1, 3L).set(2, "y");
+            EvaluationContext context = new EvaluationContext();
+            int matches = 0;
+            long allocated = 0;
+            for (int round = 0; round < 2; round++) {
+                long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = 0; i < 64_000; i++) {
+                    bindings.set(0, (long) (i & 63));
+                    if (eval.evaluateBoolean(bindings, context))
+                        matches++;
+                }
+                // the first round warms up
+                allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            }
+            assertEquals(2 * 1000 * 53, matches);
+            // some slack for the measurement itself
+            assertTrue(allocated < 1024, allocated + " bytes allocated with " + Arrays.toString(options));
+        }
+    }
+
+    @Test
+    public void testColumnBatch() throws ParseException, EvalException {
+        int size = 3000;
+        long[] longs = new long[size];
+        double[] doubles = new double[size];
+        boolean[] flags = new boolean[size];
+        String[] names = new String[size];
+        BitSet nulls = new BitSet();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            longs[i] = i % 100 - 50;
+            doubles[i] = i / 8.0;
+            flags[i] = i % 3 == 0;
+            names[i] = i % 7 == 0 ? null : "name" + i % 11;
+            if (i % 13 == 0)
+                nulls.set(i);
+            Map<String, Object> row = new HashMap<>();
+            row.put("l", nulls.get(i) ? null : longs[i]);
+            row.put("k", longs[i]);
+            row.put("d", doubles[i]);
+            row.put("f", flags[i]);
+            row.put("s", names[i]);
+            rows.add(row);
+        }
+        ColumnBatch batch = new ColumnBatch(size)
+                .set("l", longs, nulls)
+                .set("k", longs)
+                .set("d", doubles)
+                .set("f", flags)
+                .set("s", names);
+
+        String[] expressions = {
+                "%k >= 10 && %k < 40",
+                "%k == 0 || %l != -7 && ?f",
+                "10 <= %k",
+                "%l + %d * 2",
+                "onNull(%l, 1000) > 20",
+                "if(?f, $s, 'none') + $l",
+                "onNull($s, 'x') == 'name1' || %d > 100",
+                "%missing == NULL || %k > 0",
+                "%k <= %d",
+                // NULL rows fail
+                "%l > 0",
+                // longs, doubles and booleans, and their mixes
+                "%k * 200000000000000000",
+                "%k - %l * 3 + 1",
+                "%d == %k || %d > %k + 1 || %d >= 2",
+                "%d - %k",
+                "~?f || ~(%k < 0)",
+                "if(?f, %k, %d)",
+                "if(%k > 0, %l, 'none')",
+                "onNull(%l, %d) + 1",
+                "onNull(%l, ?f)",
+                "max(%k, %l)",
+        };
+        for (String expression : expressions) {
+            for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.EAGER_EVALUATION}}) {
+                Evaluator eval = Evaluator.compile(expression, options);
+                ResultColumn results;
+                try {
+                    results = eval.evaluateBatch(batch);
+                } catch (EvalException e) {
+                    // some rows must fail on their own too
+                    boolean failed = false;
+                    for (Map<String, Object> row : rows) {
+                        try {
+                            eval.evaluate(row);
+                        } catch (EvalException re) {
+                            failed = true;
+                        }
+                    }
+                    assertTrue(failed, expression);
+                    continue;
+                }
+                assertEquals(size, results.size());
+                for (int i = 0; i < size; i++) {
+                    Operand expected = eval.evaluate(rows.get(i));
+                    assertEquals(expected, results.get(i), expression + " at row " + i);
+                    if (expected.getType() == ValuedItem.Type.BOOL)
+                        assertEquals(expected == Operand.TRUE, results.getBoolean(i));
+                    if (expected.getType() == ValuedItem.Type.NUM) {
+                        assertEquals(expected.coalesceToDouble(""), results.getDouble(i));
+                        BigDecimal value = (BigDecimal) expected.getValue();
+                        if (value.stripTrailingZeros().scale() <= 0 && value.toBigInteger().bitLength() < 64)
+                            assertEquals(value.longValueExact(), results.getLong(i));
+                    }
+                }
+            }
+        }
+
+        // a selection narrows the next filter
+        ResultColumn first = Evaluator.compile("onNull(%l, -1) >= 0").evaluateBatch(batch);
+        int[] selected = first.selectTrue();
+        ResultColumn second = Evaluator.compile("?f && %l < 10").evaluateBatch(batch, selected);
+        int[] both = second.selectTrue();
+        for (int i = 0; i < size; i++) {
+            boolean in = Arrays.binarySearch(both, i) >= 0;
+            assertEquals(!nulls.get(i) && longs[i] >= 0 && longs[i] < 10 && flags[i], in, "row " + i);
+            if (Arrays.binarySearch(selected, i) < 0)
+                assertNull(second.get(i));
+        }
+        assertTrue(second.getBoolean(both[0]));
+        assertEquals(-50, Evaluator.compile("%l").evaluateBatch(batch).getLong(100));
+
+        // the doubles compare as their NUMs, in decimal: 2^60 reads 1152921504606846980
+        long[] bigLongs = {1L << 60, (1L << 53) + 1, Long.MAX_VALUE, -(1L << 60), 3, -3};
+        double[] bigDoubles = {Math.pow(2, 60), 0x1p53, 0x1p63, -Math.pow(2, 60), 3.5, -3.0};
+        ColumnBatch big = new ColumnBatch(bigLongs.length).set("l", bigLongs).set("d", bigDoubles);
+        for (String expression : new String[]{"%l == %d", "%l < %d", "%d <= %l", "%d != %l"}) {
+            ResultColumn results = Evaluator.compile(expression).evaluateBatch(big);
+            for (int i = 0; i < bigLongs.length; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("l", bigLongs[i]);
+                row.put("d", bigDoubles[i]);
+                assertEquals(Evaluator.compile(expression).evaluate(row), results.get(i), expression + " at row " + i);
+            }
+        }
+        assertFalse(Evaluator.compile("%l == %d").evaluateBatch(big).getBoolean(0));
+
+        assertThrows(EvalException.class, () -> Evaluator.compile("%k * ?f").evaluateBatch(batch));
+        assertThrows(IllegalArgumentException.class,
+                () -> Evaluator.compile("%l").evaluateBatch(batch, new int[]{3, 2}));
+        assertThrows(IllegalArgumentException.class, () -> new ColumnBatch(10).set("x", new long[5]));
+    }
+
+    @Test
+    public void testResultCache() throws ParseException, EvalException {
+        String[] expressions = {
+                "lower($country) == 'it' && %amount * 2 > 100",
+                "if(?vip, %amount, 0) + len($country)",
+                // fails for NULL amounts
+                "%amount * 3",
+        };
+        for (String expression : expressions) {
+            for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.NODE_TREE}}) {
+                Evaluator plain = Evaluator.compile(expression, options);
+                Evaluator cached = plain.withResultCache(1_000_000);
+                EvaluationContext context = new EvaluationContext();
+                for (int i = 0; i < 300; i++) {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("country", new String[]{"IT", "it", "fr"}[i % 3]);
+                    row.put("amount", i % 7 == 0 ? null : i % 5 == 0 ? "60.0" : i % 4 * 30);
+                    row.put("vip", i % 2 == 0);
+                    row.put("unused", i);
+                    Operand expected;
+                    try {
+                        expected = plain.evaluate(row);
+                    } catch (EvalException e) {
+                        EvalException ee = assertThrows(EvalException.class, () -> cached.evaluate(row, context));
+                        assertEquals(e.getMessage(), ee.getMessage());
+                        continue;
+                    }
+                    assertEquals(expected, cached.evaluate(row, context), expression);
+                }
+                // few distinct values: almost all hits
+                assertEquals(300, cached.getResultCacheHitCount() + cached.getResultCacheMissCount());
+                assertTrue(cached.getResultCacheHitCount() >= 250, expression);
+                assertEquals(0, plain.getResultCacheHitCount());
+            }
+        }
+
+        // "60.0" and 60 are the same NUM: a single entry
+        Evaluator cached = Evaluator.compile("%a + 1").withResultCache(1_000_000);
+        assertEquals(Operand.numOperand(61, 0), cached.evaluate(Collections.singletonMap("a", "60.0")));
+        assertEquals(Operand.numOperand(61, 0), cached.evaluate(Collections.singletonMap("a", 60)));
+        assertEquals(1, cached.getResultCacheHitCount());
+
+        // bounded by weight
+        cached = Evaluator.compile("$a + 'x'").withResultCache(10_000);
+        for (int i = 0; i < 1000; i++)
+            cached.evaluate(Collections.singletonMap("a", "value " + i));
+        assertTrue(cached.getResultCacheWeight() <= 10_000);
+        assertTrue(cached.getResultCacheEvictionCount() > 900);
+
+        // a variable that can't be decoded, not needed by the lazy &&
+        cached = Evaluator.compile("?f && %a > 0").withResultCache(1_000_000);
+        Map<String, Object> row = new HashMap<>();
+        row.put("f", false);
+        row.put("a", "abc");
+        assertEquals(Operand.FALSE, cached.evaluate(row));
+        assertEquals(0, cached.getResultCacheMissCount());
+
+        // rand() isn't pure: never cached
+        cached = Evaluator.compile("rand(0, 1000000000) + %a").withResultCache(1_000_000);
+        assertNotEquals(cached.evaluate(Collections.singletonMap("a", 1)),
+                cached.evaluate(Collections.singletonMap("a", 1)));
+        assertEquals(0, cached.getResultCacheMissCount());
+
+        // nor are the date functions, which depend on the default zone
+        cached = Evaluator.compile("epochToStr(%a, 'HH:mm')").withResultCache(1_000_000);
+        cached.evaluate(Collections.singletonMap("a", 0));
+        assertEquals(0, cached.getResultCacheMissCount());
+    }
+
+    @Test
+    public void testVariableResolver() throws ParseException, EvalException {
+        for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.NODE_TREE}, {CompileOption.BYTECODE}}) {
+            Evaluator eval = Evaluator.compile("?cheap && %costly + $costly == '33' || %other > 0", options);
+            assertEquals(Arrays.asList("cheap", "costly", "other"), eval.getVariableSlots());
+
+            // a false guard skips the costly variable, which is then resolved
+            // once for both its uses
+            List<String> resolved = new ArrayList<>();
+            Map<String, Object> values = new HashMap<>();
+            values.put("cheap", false);
+            values.put("costly", 3);
+            values.put("other", 1);
+            VariableResolver resolver = name -> {
+                resolved.add(name);
+                return values.get(name);
+            };
+            assertEquals(Operand.TRUE, eval.evaluate(resolver));
+            assertEquals(Arrays.asList("cheap", "other"), resolved);
+
+            resolved.clear();
+            values.put("cheap", true);
+            assertEquals(Operand.TRUE, eval.evaluate(resolver, new EvaluationContext()));
+            assertEquals(Arrays.asList("cheap", "costly"), resolved);
+
+            // no memoization across evaluations
+            resolved.clear();
+            EvaluationContext context = new EvaluationContext();
+            eval.evaluate(resolver, context);
+            eval.evaluate(resolver, context);
+            assertEquals(Arrays.asList("cheap", "costly", "cheap", "costly"), resolved);
+
+            // null is a missing variable, as in a Map
+            assertThrows(EvalException.class, () -> eval.evaluate(name -> null));
+        }
+    }
+
     private void testEquals(String e1, String e2) throws ParseException, EvalException {
-        Evaluator ev1 = Evaluator.compile(e1);
-        Evaluator ev2 = Evaluator.compile(e2);
-        assertEquals(ev1.evaluate(variables), ev2.evaluate(variables));
+        assertEquals(eval(e1), eval(e2));
     }
 
     private void testTruth(String expression) throws ParseException, EvalException {
-        Evaluator eval = Evaluator.compile(expression);
-        assertEquals(eval.evaluate(variables), Operand.TRUE);
+        assertEquals(eval(expression), Operand.TRUE);
     }
 
     private void testFalseness(String expression) throws ParseException, EvalException {
-        Evaluator eval = Evaluator.compile(expression);
-        assertEquals(eval.evaluate(variables), Operand.FALSE);
+        assertEquals(eval(expression), Operand.FALSE);
+    }
+
+    private void testFailEvaluation(String expression) throws ParseException {
+        for (Evaluator eval : new Evaluator[]{Evaluator.compile(expression),
+                Evaluator.compile(expression, CompileOption.NODE_TREE),
+                Evaluator.compile(expression, CompileOption.BYTECODE)}) {
+            try {
+                eval.evaluate(variables);
+                fail();
+            } catch (EvalException e) {
+            }
+        }
     }
 
     private void testFailCompilation(String expression) {
@@ -0,0 +1,124 @@
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.EvaluatorCache;
+import com.aton.proj.libs.oneval.internals.BoundedCache;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestEvaluatorCache {
+    @Test
+    public void testHitsReturnTheSameEvaluator() throws ParseException, EvalException {
+        EvaluatorCache cache = new EvaluatorCache(10);
+        Evaluator e1 = cache.compile("1 + 1 == 2");
+        Evaluator e2 = cache.compile("1 + 1 == 2");
+        assertSame(e1, e2);
+        assertEquals(Operand.TRUE, e2.evaluate());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testParseErrorsAreCached() {
+        EvaluatorCache cache = new EvaluatorCache(10);
+        for (int i = 0; i < 3; i++) {
+            ParseException pe = assertThrows(ParseException.class, () -> cache.compile("1 + foo(2)"));
+            assertEquals(4, pe.getErrorOffset());
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testEviction() throws ParseException {
+        EvaluatorCache cache = new EvaluatorCache(100);
+        for (int i = 0; i < 1000; i++)
+            cache.compile(i + " + 1");
+        assertTrue(cache.size() <= 100);
+        assertEquals(900, cache.getEvictionCount());
+
+        // "900 + 1" is the oldest entry, but being used it gets a second chance
+        Evaluator hot = cache.compile("900 + 1");
+        for (int i = 0; i < 50; i++)
+            cache.compile("-" + i + " == 1");
+        assertSame(hot, cache.compile("900 + 1"));
+    }
+
+    @Test
+    public void testRetiredEntriesAreReleased() throws InterruptedException {
+        // the cache never gets full, so nothing is evicted: the replaced and
+        // invalidated values must be let go anyway
+        BoundedCache<Integer, Object> cache = new BoundedCache<>(100);
+        List<WeakReference<Object>> values = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            Object value = new Object();
+            values.add(new WeakReference<>(value));
+            if (i % 2 == 0) {
+                cache.put(1, value);
+            } else {
+                cache.put(2, value);
+                assertSame(value, cache.getIfPresent(2));
+                cache.invalidate(2);
+            }
+        }
+        assertEquals(1, cache.weight());
+
+        int released = 0;
+        for (int round = 0; round < 10 && released < values.size() - 200; round++) {
+            System.gc();
+            Thread.sleep(10);
+            released = 0;
+            for (WeakReference<Object> value : values)
+                if (value.get() == null)
+                    released++;
+        }
+        assertTrue(released >= values.size() - 200, released + " released");
+        // keeps the cache reachable until here
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        BoundedCache<String, String> cache = new BoundedCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                results.add(pool.submit(() -> cache.get("key", k -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return k.toUpperCase();
+                })));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> f : results)
+                assertEquals("KEY", f.get(10, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCompileCached() throws ParseException {
+        assertSame(Evaluator.compileCached("%a + 1"), Evaluator.compileCached("%a + 1"));
+    }
+}
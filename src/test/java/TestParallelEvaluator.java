@@ -0,0 +1,137 @@
+import com.aton.proj.libs.oneval.ColumnBatch;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.ParallelEvaluator;
+import com.aton.proj.libs.oneval.ResultColumn;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestParallelEvaluator {
+    private static List<Map<String, Object>> rows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("n", i);
+            row.put("s", "row" + i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testOrdered() throws ParseException, EvalException {
+        Evaluator eval = Evaluator.compile("%n rem 3 == 0 && $s endsWith '9'");
+        List<Map<String, Object>> rows = rows(10_007);
+        List<Operand> expected = new ArrayList<>();
+        for (Map<String, Object> row : rows)
+            expected.add(eval.evaluate(row));
+
+        assertEquals(expected, new ParallelEvaluator(eval).evaluate(rows));
+        assertEquals(expected, new ParallelEvaluator(eval).setChunkSize(10).setMaxChunksInFlight(2)
+                .evaluate(rows.spliterator()));
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expected, new ParallelEvaluator(eval).setExecutor(pool).setChunkSize(100)
+                    .evaluate(rows));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(0, new ParallelEvaluator(eval).evaluate(new ArrayList<Map<String, Object>>()).size());
+    }
+
+    @Test
+    public void testUnordered() throws ParseException, EvalException {
+        Evaluator eval = Evaluator.compile("%n * 2");
+        Map<Object, Operand> results = new ConcurrentHashMap<>();
+        new ParallelEvaluator(eval).setChunkSize(64)
+                .evaluate(rows(5000).stream().spliterator(),
+                        (row, result) -> results.put(row.get("n"), result));
+        assertEquals(5000, results.size());
+        for (int i = 0; i < 5000; i++)
+            assertEquals(Operand.numOperand(2L * i, 0), results.get(i));
+    }
+
+    @Test
+    public void testColumnBatch() throws ParseException, EvalException {
+        long[] n = new long[20_000];
+        for (int i = 0; i < n.length; i++)
+            n[i] = i;
+        ColumnBatch batch = new ColumnBatch(n.length).set("n", n);
+        Evaluator eval = Evaluator.compile("%n >= 100 && %n rem 7 == 1");
+        ResultColumn expected = eval.evaluateBatch(batch);
+        ResultColumn actual = new ParallelEvaluator(eval).setChunkSize(1000).evaluate(batch);
+        assertArrayEquals(expected.selectTrue(), actual.selectTrue());
+    }
+
+    @Test
+    public void testRandomSeed() throws ParseException, EvalException {
+        Evaluator eval = Evaluator.compile("rand(0, %n + 1)");
+        List<Map<String, Object>> rows = rows(10_000);
+        List<Operand> expected = new ParallelEvaluator(eval).setChunkSize(100).setRandomSeed(42).evaluate(rows);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expected, new ParallelEvaluator(eval).setExecutor(pool).setChunkSize(100).setRandomSeed(42)
+                    .evaluate(rows));
+        } finally {
+            pool.shutdown();
+        }
+        assertNotEquals(expected, new ParallelEvaluator(eval).setChunkSize(100).setRandomSeed(43).evaluate(rows));
+
+        long[] n = new long[10_000];
+        for (int i = 0; i < n.length; i++)
+            n[i] = i;
+        ColumnBatch batch = new ColumnBatch(n.length).set("n", n);
+        ResultColumn first = new ParallelEvaluator(eval).setChunkSize(1000).setRandomSeed(42).evaluate(batch);
+        ResultColumn second = new ParallelEvaluator(eval).setChunkSize(1000).setRandomSeed(42)
+                .setMaxChunksInFlight(1).evaluate(batch);
+        for (int i = 0; i < n.length; i++)
+            assertEquals(first.get(i), second.get(i));
+    }
+
+    @Test
+    public void testFailure() throws ParseException {
+        List<Map<String, Object>> rows = rows(10_000);
+        rows.get(7777).put("n", "x");
+        Evaluator eval = Evaluator.compile("%n * 2 >= 0");
+        assertThrows(NumberFormatException.class, () -> new ParallelEvaluator(eval).setChunkSize(100).evaluate(rows));
+        rows.get(7777).put("n", null);
+        assertThrows(EvalException.class, () -> new ParallelEvaluator(eval).setChunkSize(100).evaluate(rows));
+        assertThrows(IllegalArgumentException.class, () -> new ParallelEvaluator(eval).setChunkSize(0));
+
+        // no more rows are read after a chunk failed
+        AtomicInteger read = new AtomicInteger();
+        Spliterator<Map<String, Object>> counted = rows.stream().peek(row -> read.incrementAndGet()).spliterator();
+        assertThrows(EvalException.class, () -> new ParallelEvaluator(eval).setExecutor(Runnable::run)
+                .setChunkSize(100).evaluate(counted));
+        assertEquals(7800, read.get());
+
+        // nor after the executor rejected one, whose permit is given back
+        AtomicInteger submitted = new AtomicInteger();
+        Executor rejecting = task -> {
+            if (submitted.incrementAndGet() > 3)
+                throw new RejectedExecutionException("full");
+            task.run();
+        };
+        read.set(0);
+        Spliterator<Map<String, Object>> more = rows(10_000).stream().peek(row -> read.incrementAndGet())
+                .spliterator();
+        assertThrows(RejectedExecutionException.class, () -> new ParallelEvaluator(eval).setExecutor(rejecting)
+                .setMaxChunksInFlight(1).setChunkSize(100).evaluate(more));
+        assertEquals(400, read.get());
+    }
+}
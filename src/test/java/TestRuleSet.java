@@ -0,0 +1,160 @@
+import com.aton.proj.libs.oneval.CompileOption;
+import com.aton.proj.libs.oneval.EvaluationContext;
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.RuleSet;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestRuleSet {
+    private static final List<String> RULES = Arrays.asList(
+            "lower($country) == 'it' && %amount > 100",
+            "lower($country) == 'it' && %amount > 1000",
+            "lower($country) == 'fr' || %amount * 2 > 100",
+            "%amount * 2 + lower($country)",
+            "if(?vip, %amount * 2, 0) >= 50",
+            "onNull(%missing, %amount * 2) == %amount * 2",
+            "lower($country) == 'it' && %amount > 100",
+            "len(lower($country)) + len(lower($country))"
+    );
+
+    @Test
+    public void testSameResults() throws ParseException, EvalException {
+        Map<String, Object> variables = new HashMap<>();
+        for (String country : new String[]{"IT", "fr", "De"})
+            for (Object amount : new Object[]{"10", 500, 2000L, "99.5"})
+                for (boolean vip : new boolean[]{true, false}) {
+                    variables.put("country", country);
+                    variables.put("amount", amount);
+                    variables.put("vip", vip);
+                    for (CompileOption[] options : new CompileOption[][]{{}, {CompileOption.EAGER_EVALUATION}}) {
+                        RuleSet rules = RuleSet.compile(RULES, options);
+                        Operand[] expected = new Operand[RULES.size()];
+                        BitSet matching = new BitSet();
+                        for (int i = 0; i < expected.length; i++) {
+                            expected[i] = Evaluator.compile(RULES.get(i), options).evaluate(variables);
+                            if (expected[i] == Operand.TRUE)
+                                matching.set(i);
+                        }
+                        assertArrayEquals(expected, rules.evaluateAll(variables));
+                        EvaluationContext context = new EvaluationContext();
+                        assertArrayEquals(expected, rules.evaluateAll(variables, context));
+                        assertArrayEquals(expected, rules.evaluateAll(variables, context));
+                        assertEquals(matching, rules.matchAll(variables));
+                        assertEquals(matching.nextSetBit(0), rules.matchFirst(variables, context));
+                    }
+                }
+    }
+
+    @Test
+    public void testVariablesDecodedOnce() throws ParseException, EvalException {
+        Map<String, Integer> lookups = new HashMap<>();
+        Map<String, String> counting = new HashMap<String, String>() {
+            @Override
+            public String get(Object key) {
+                lookups.merge((String) key, 1, Integer::sum);
+                return super.get(key);
+            }
+        };
+        counting.put("country", "IT");
+        counting.put("amount", "500");
+        counting.put("vip", "true");
+        RuleSet rules = RuleSet.compile(RULES);
+        assertEquals(Arrays.asList("country", "amount", "vip", "missing"), rules.getVariableSlots());
+        rules.evaluateAll(counting);
+        assertEquals(Integer.valueOf(1), lookups.get("country"));
+        assertEquals(Integer.valueOf(1), lookups.get("amount"));
+
+        // the first match stops the evaluation: vip is never needed
+        lookups.clear();
+        assertEquals(0, rules.matchFirst(counting));
+        assertNull(lookups.get("vip"));
+    }
+
+    @Test
+    public void testIndexedRules() throws ParseException, EvalException {
+        Random random = new Random(42);
+        String[] guards = {"$type == '%s'", "'%s' == $type", "equalsIgnCase($type, '%s')", "%amount > %d",
+                "%amount >= %d", "%amount < %d", "%d <= %amount", "%d > %amount", "%amount == %d", "?vip == true",
+                "$type == NULL", "$type != '%s'", "false == ?vip"};
+        String[] types = {"login", "LOGIN", "logout", "Pay"};
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String guard = guards[random.nextInt(guards.length)];
+            guard = guard.contains("%s") ? String.format(guard, types[random.nextInt(types.length)])
+                    : guard.replace("%d", String.valueOf(random.nextInt(20) - 5));
+            expressions.add(random.nextBoolean() ? guard : guard + " && %amount * 2 >= " + random.nextInt(20));
+        }
+        RuleSet rules = RuleSet.compile(expressions);
+        List<Evaluator> evaluators = new ArrayList<>();
+        for (String expression : expressions)
+            evaluators.add(Evaluator.compile(expression));
+
+        Object[] typeValues = {"login", "Login", "pay", "other", null};
+        Object[] amountValues = {-10, 0, 3, "3.0", "2.5", 14, 100, "abc", null};
+        Map<String, Object> variables = new HashMap<>();
+        for (Object type : typeValues)
+            for (Object amount : amountValues)
+                for (Object vip : new Object[]{true, false, null}) {
+                    variables.put("type", type);
+                    variables.put("amount", amount);
+                    variables.put("vip", vip);
+                    Operand[] expected = new Operand[expressions.size()];
+                    String failure = null;
+                    for (int i = 0; i < expected.length && failure == null; i++) {
+                        try {
+                            expected[i] = evaluators.get(i).evaluate(variables);
+                        } catch (EvalException e) {
+                            failure = "Rule " + i + ": " + e.getMessage();
+                        } catch (RuntimeException e) {
+                            // e.g. a NumberFormatException decoding %amount, not wrapped
+                            failure = e.toString();
+                        }
+                    }
+                    if (failure == null) {
+                        assertArrayEquals(expected, rules.evaluateAll(variables));
+                        BitSet matching = new BitSet();
+                        for (int i = 0; i < expected.length; i++)
+                            if (expected[i] == Operand.TRUE)
+                                matching.set(i);
+                        assertEquals(matching, rules.matchAll(variables));
+                        assertEquals(matching.nextSetBit(0), rules.matchFirst(variables));
+                    } else {
+                        try {
+                            rules.evaluateAll(variables);
+                            fail("Expected " + failure);
+                        } catch (EvalException e) {
+                            assertEquals(failure, e.getMessage());
+                        } catch (RuntimeException e) {
+                            assertEquals(failure, e.toString());
+                        }
+                    }
+                }
+    }
+
+    @Test
+    public void testFailures() throws ParseException, EvalException {
+        ParseException pe = assertThrows(ParseException.class,
+                () -> RuleSet.compile(Arrays.asList("1 + 1", "2 + foo(3)")));
+        assertTrue(pe.getMessage().startsWith("Rule 1: "));
+        EvalException ee = assertThrows(EvalException.class,
+                () -> RuleSet.compile(Arrays.asList("1 + 1", "%x * 2")).evaluateAll(new HashMap<>()));
+        assertTrue(ee.getMessage().startsWith("Rule 1: "));
+        // rand() isn't pure, so it's never shared
+        Operand[] results = RuleSet.compile(Arrays.asList("rand(0, 1)", "rand(0, 1)", "rand(0, 1) == rand(0, 1)"))
+                .evaluateAll(new HashMap<>());
+        assertNotEquals(results[0], results[1]);
+        assertEquals(Operand.FALSE, results[2]);
+    }
+}
@@ -0,0 +1,388 @@
+import com.aton.proj.libs.oneval.Evaluator;
+import com.aton.proj.libs.oneval.StreamEvaluator;
+import com.aton.proj.libs.oneval.internals.EvalException;
+import com.aton.proj.libs.oneval.internals.Operand;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TestStreamEvaluator {
+    private static List<Map<String, Object>> records(int count) {
+        List<Map<String, Object>> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("id", i);
+            record.put("level", i % 5);
+            record.put("name", "event " + i);
+            ret.add(record);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testSameResults() throws ParseException, EvalException {
+        Evaluator filter = Evaluator.compile("%level >= 3");
+        Evaluator id = Evaluator.compile("%id * 10");
+        Evaluator name = Evaluator.compile("upper($name)");
+        List<Map<String, Object>> records = records(1000);
+
+        List<Operand[]> expected = new ArrayList<>();
+        for (Map<String, Object> record : records)
+            if (filter.evaluateBoolean(record))
+                expected.add(new Operand[]{id.evaluate(record), name.evaluate(record)});
+
+        for (int chunkSize : new int[]{1, 7, 256, 5000}) {
+            StreamEvaluator stage = new StreamEvaluator(filter, id, name).setChunkSize(chunkSize);
+            List<Operand[]> results = new ArrayList<>();
+            stage.evaluate(records.iterator()).forEachRemaining(results::add);
+            assertEquals(expected.size(), results.size());
+            for (int i = 0; i < results.size(); i++)
+                assertArrayEquals(expected.get(i), results.get(i));
+
+            List<Map<String, Object>> passing = StreamSupport.stream(stage.filter(records.spliterator()), false)
+                    .collect(Collectors.toList());
+            assertEquals(records.stream().filter(filter.asPredicate()).collect(Collectors.toList()), passing);
+        }
+
+        // integers, NULLs and other values in the same column
+        List<Map<String, Object>> mixed = records(100);
+        for (int i = 0; i < mixed.size(); i += 3)
+            mixed.get(i).put("level", i % 2 == 0 ? null : Long.valueOf(i % 5));
+        mixed.get(50).put("level", "4");
+        mixed.get(51).put("level", 3.5);
+        Evaluator nullable = Evaluator.compile("onNull(%level, 0) >= 3");
+        Evaluator level = Evaluator.compile("onNull(%level, -1) * 2");
+        List<Operand> expectedLevels = new ArrayList<>();
+        for (Map<String, Object> record : mixed)
+            if (nullable.evaluateBoolean(record))
+                expectedLevels.add(level.evaluate(record));
+        for (int chunkSize : new int[]{7, 256}) {
+            List<Operand> levels = new ArrayList<>();
+            new StreamEvaluator(nullable, level).setChunkSize(chunkSize).evaluate(mixed.iterator())
+                    .forEachRemaining(r -> levels.add(r[0]));
+            assertEquals(expectedLevels, levels);
+        }
+
+        // no filter: every record
+        Iterator<Operand[]> all = new StreamEvaluator(null, id).evaluate(records.iterator());
+        for (int i = 0; i < records.size(); i++)
+            assertEquals(Operand.numOperand(i * 10, 0), all.next()[0]);
+        assertFalse(all.hasNext());
+    }
+
+    private static Iterator<Map<String, Object>> counting(Iterator<Map<String, Object>> source, AtomicInteger read) {
+        return new Iterator<Map<String, Object>>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                read.incrementAndGet();
+                return source.next();
+            }
+        };
+    }
+
+    @Test
+    public void testPulledByChunk() throws ParseException {
+        AtomicInteger read = new AtomicInteger();
+        Iterator<Operand[]> results = new StreamEvaluator(null, Evaluator.compile("%id"))
+                .setChunkSize(10).evaluate(counting(records(1000).iterator(), read));
+        assertEquals(0, read.get());
+        results.next();
+        assertEquals(10, read.get());
+        for (int i = 0; i < 10; i++)
+            results.next();
+        assertEquals(20, read.get());
+
+        // with a filter, the chunks are still of records, not of results:
+        // the first result (id 100) is in the 11th chunk
+        read.set(0);
+        results = new StreamEvaluator(Evaluator.compile("rem(%id, 100) == 0 && %id != 0"), Evaluator.compile("%id"))
+                .setChunkSize(10).evaluate(counting(records(1000).iterator(), read));
+        assertEquals(Operand.numOperand(100, 0), results.next()[0]);
+        assertEquals(110, read.get());
+        assertEquals(Operand.numOperand(200, 0), results.next()[0]);
+        assertEquals(210, read.get());
+
+        // nothing passing: the stream ends with the source
+        read.set(0);
+        results = new StreamEvaluator(Evaluator.compile("%id < 0"), Evaluator.compile("%id"))
+                .setChunkSize(10).evaluate(counting(records(1000).iterator(), read));
+        assertFalse(results.hasNext());
+        assertEquals(1000, read.get());
+    }
+
+    // keeps what it receives; requests nothing by itself
+    private static final class Recorder<T> implements StreamEvaluator.Subscriber<T> {
+        final List<T> items = new ArrayList<>();
+        StreamEvaluator.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(StreamEvaluator.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            assertNull(error);
+            assertFalse(completed);
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    // publishes the records as they're requested, keeping the requests
+    private static final class Source implements StreamEvaluator.Publisher<Map<String, Object>> {
+        final List<Map<String, Object>> records;
+        final List<Long> requests = new ArrayList<>();
+        int next;
+        boolean cancelled;
+
+        Source(List<Map<String, Object>> records) {
+            this.records = records;
+        }
+
+        @Override
+        public void subscribe(StreamEvaluator.Subscriber<? super Map<String, Object>> subscriber) {
+            subscriber.onSubscribe(new StreamEvaluator.Subscription() {
+                @Override
+                public void request(long n) {
+                    requests.add(n);
+                    for (long i = 0; i < n && next < records.size() && !cancelled; i++)
+                        subscriber.onNext(records.get(next++));
+                    if (next == records.size() && !cancelled) {
+                        next++;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static List<Object> ids(List<Operand[]> results) {
+        return results.stream().map(r -> r[0].getValue()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testPublish() throws ParseException {
+        AtomicInteger read = new AtomicInteger();
+        StreamEvaluator stage = new StreamEvaluator(Evaluator.compile("%level >= 3"), Evaluator.compile("%id"))
+                .setChunkSize(10);
+        StreamEvaluator.Publisher<Operand[]> results = stage.publish(counting(records(1000).iterator(), read));
+        Recorder<Operand[]> recorder = new Recorder<>();
+        results.subscribe(recorder);
+        assertEquals(0, read.get());
+
+        recorder.subscription.request(1);
+        assertEquals(Collections.singletonList(new BigDecimal(3)), ids(recorder.items));
+        assertEquals(10, read.get());
+        recorder.subscription.request(5);
+        assertEquals(Arrays.asList(3, 4, 8, 9, 13, 14).stream().map(BigDecimal::new).collect(Collectors.toList()),
+                ids(recorder.items));
+        assertEquals(20, read.get());
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(400, recorder.items.size());
+        assertTrue(recorder.completed);
+        assertEquals(1000, read.get());
+
+        // a single Subscriber
+        Recorder<Operand[]> another = new Recorder<>();
+        results.subscribe(another);
+        assertTrue(another.error instanceof IllegalStateException);
+
+        // requests must be positive
+        Recorder<Operand[]> wrong = new Recorder<>();
+        stage.publish(records(10).iterator()).subscribe(wrong);
+        wrong.subscription.request(0);
+        assertTrue(wrong.error instanceof IllegalArgumentException);
+        assertTrue(wrong.items.isEmpty());
+    }
+
+    @Test
+    public void testBackpressure() throws ParseException {
+        StreamEvaluator stage = new StreamEvaluator(Evaluator.compile("%level >= 3"), Evaluator.compile("%id"))
+                .setChunkSize(10);
+        Source source = new Source(records(1000));
+        Recorder<Operand[]> recorder = new Recorder<>();
+        stage.evaluate(source).subscribe(recorder);
+        // nothing wanted, nothing requested
+        assertTrue(source.requests.isEmpty());
+
+        recorder.subscription.request(1);
+        assertEquals(Collections.singletonList(new BigDecimal(3)), ids(recorder.items));
+        assertEquals(Collections.singletonList(10L), source.requests);
+        // the other 3 results of the chunk are there already
+        recorder.subscription.request(3);
+        assertEquals(4, recorder.items.size());
+        assertEquals(1, source.requests.size());
+        recorder.subscription.request(2);
+        assertEquals(6, recorder.items.size());
+        assertEquals(Arrays.asList(10L, 10L), source.requests);
+
+        recorder.subscription.cancel();
+        assertTrue(source.cancelled);
+        recorder.subscription.request(100);
+        assertEquals(6, recorder.items.size());
+
+        // the chunks are of records: a filter that rejects them all asks for
+        // the records a chunk at a time, until they end
+        source = new Source(records(1000));
+        recorder = new Recorder<>();
+        new StreamEvaluator(Evaluator.compile("%id < 0")).setChunkSize(100).evaluate(source).subscribe(recorder);
+        recorder.subscription.request(1);
+        assertTrue(recorder.items.isEmpty());
+        assertTrue(recorder.completed);
+        assertEquals(10, source.requests.size());
+
+        // filter() publishes the records passing as they are
+        List<Map<String, Object>> records = records(100);
+        Recorder<Map<String, Object>> passing = new Recorder<>();
+        stage.filter(new Source(records)).subscribe(passing);
+        passing.subscription.request(Long.MAX_VALUE);
+        assertEquals(records.stream().filter(r -> (Integer) r.get("level") >= 3).collect(Collectors.toList()),
+                passing.items);
+        assertTrue(passing.completed);
+    }
+
+    @Test
+    public void testPublisherFailures() throws ParseException {
+        List<Map<String, Object>> records = records(10);
+        records.get(6).put("level", null);
+        Source source = new Source(records);
+        Recorder<Operand[]> recorder = new Recorder<>();
+        // the failure is in the second chunk, the source isn't over yet
+        new StreamEvaluator(Evaluator.compile("%level >= 0"), Evaluator.compile("%id")).setChunkSize(4)
+                .evaluate(source).subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5).stream().map(BigDecimal::new).collect(Collectors.toList()),
+                ids(recorder.items));
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertTrue(recorder.error.getCause() instanceof EvalException);
+        assertTrue(source.cancelled);
+
+        // the failures of the source are passed on
+        recorder = new Recorder<>();
+        RuntimeException broken = new IllegalStateException("broken");
+        new StreamEvaluator(null, Evaluator.compile("%id")).evaluate(subscriber -> {
+            subscriber.onSubscribe(new StreamEvaluator.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscriber.onNext(records.get(0));
+                    subscriber.onError(broken);
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }).subscribe(recorder);
+        recorder.subscription.request(5);
+        assertEquals(1, recorder.items.size());
+        assertSame(broken, recorder.error);
+    }
+
+    @Test
+    public void testFlow() throws ParseException, ClassNotFoundException {
+        boolean flow;
+        try {
+            Class.forName("java.util.concurrent.Flow");
+            flow = true;
+        } catch (ClassNotFoundException e) {
+            flow = false;
+        }
+        assumeTrue(flow);
+
+        StreamEvaluator stage = new StreamEvaluator(Evaluator.compile("%level >= 3"), Evaluator.compile("%id"));
+        Object published = StreamEvaluator.toFlow(stage.evaluate(new Source(records(100))));
+        assertTrue(Class.forName("java.util.concurrent.Flow$Publisher").isInstance(published));
+        Recorder<Operand[]> recorder = new Recorder<>();
+        StreamEvaluator.<Operand[]>fromFlow(published).subscribe(recorder);
+        recorder.subscription.request(2);
+        assertEquals(Arrays.asList(new BigDecimal(3), new BigDecimal(4)), ids(recorder.items));
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(40, recorder.items.size());
+        assertTrue(recorder.completed);
+
+        assertThrows(IllegalArgumentException.class, () -> StreamEvaluator.fromFlow("not a publisher"));
+    }
+
+    @Test
+    public void testRandomSeed() throws ParseException {
+        StreamEvaluator stage = new StreamEvaluator(Evaluator.compile("rand(0, 1) < 0.5"),
+                Evaluator.compile("rand(0, %id + 1)")).setChunkSize(64).setRandomSeed(42);
+        List<Operand[]> first = new ArrayList<>();
+        stage.evaluate(records(1000).iterator()).forEachRemaining(first::add);
+        List<Operand[]> second = new ArrayList<>();
+        Recorder<Operand[]> recorder = new Recorder<>();
+        stage.evaluate(new Source(records(1000))).subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        second.addAll(recorder.items);
+        assertTrue(first.size() > 300 && first.size() < 700, String.valueOf(first.size()));
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++)
+            assertArrayEquals(first.get(i), second.get(i));
+    }
+
+    @Test
+    public void testRandomSeedByChunk() throws ParseException {
+        // the second projection draws more in each chunk, but not in the next
+        List<Operand[]> one = new ArrayList<>();
+        new StreamEvaluator(null, Evaluator.compile("rand(0, 1)")).setChunkSize(64).setRandomSeed(42)
+                .evaluate(records(300).iterator()).forEachRemaining(one::add);
+        List<Operand[]> two = new ArrayList<>();
+        new StreamEvaluator(null, Evaluator.compile("rand(0, 1)"), Evaluator.compile("rand(0, 1)"))
+                .setChunkSize(64).setRandomSeed(42).evaluate(records(300).iterator()).forEachRemaining(two::add);
+        assertEquals(300, two.size());
+        for (int i = 0; i < 300; i++)
+            assertEquals(one.get(i)[0], two.get(i)[0], "record " + i);
+    }
+
+    @Test
+    public void testFailures() throws ParseException {
+        List<Map<String, Object>> records = records(10);
+        records.get(6).put("level", null);
+        Iterator<Operand[]> results = new StreamEvaluator(Evaluator.compile("%level >= 0"), Evaluator.compile("%id"))
+                .evaluate(records.iterator());
+        for (int i = 0; i < 6; i++)
+            assertEquals(Operand.numOperand(i, 0), results.next()[0]);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, results::hasNext);
+        assertTrue(e.getCause() instanceof EvalException);
+        assertFalse(results.hasNext());
+
+        assertThrows(IllegalArgumentException.class, () -> new StreamEvaluator(null).setChunkSize(0));
+        assertFalse(new StreamEvaluator(null).evaluate(Collections.emptyIterator()).hasNext());
+    }
+}